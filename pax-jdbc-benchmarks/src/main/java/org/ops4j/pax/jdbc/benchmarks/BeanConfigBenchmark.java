@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
+
+/**
+ * Reflective configuration of a pool config bean as done by every pool adapter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanConfigBenchmark {
+
+    private final Map<String, String> props = createProps();
+
+    @Benchmark
+    public GenericObjectPoolConfig configure() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        BeanConfig.configure(config, props);
+        return config;
+    }
+
+    private static Map<String, String> createProps() {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("maxTotal", "16");
+        props.put("maxIdle", "8");
+        props.put("minIdle", "2");
+        props.put("maxWaitMillis", "30000");
+        props.put("testOnBorrow", "true");
+        props.put("blockWhenExhausted", "true");
+        props.put("jmxNamePrefix", "bench");
+        return props;
+    }
+}
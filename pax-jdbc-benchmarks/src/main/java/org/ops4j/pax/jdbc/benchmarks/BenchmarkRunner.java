@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line once for each thread count, unless a thread
+ * count is given with <code>-t</code>. Accepts the usual JMH options, for example
+ * <code>java -jar target/benchmarks.jar ConnectionBenchmark -p pool=HIKARI</code>. The
+ * {@link VirtualThreadBenchmark} starts its own threads and is run with one JMH thread only.
+ */
+public class BenchmarkRunner {
+
+    static final int[] THREADS = { 1, 8, 64, 256 };
+    static final String SINGLE_THREADED = Pattern.quote(VirtualThreadBenchmark.class.getName() + ".");
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.getThreads().hasValue()) {
+            new Runner(commandLine).run();
+            return;
+        }
+        boolean found = false;
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .exclude(SINGLE_THREADED)
+                .threads(threads)
+                .build();
+            if (!run(options)) {
+                break;
+            }
+            found = true;
+        }
+        Options singleThreaded = new OptionsBuilder()
+            .parent(commandLine)
+            .exclude("^(?!" + SINGLE_THREADED + ")")
+            .threads(1)
+            .build();
+        if (!run(singleThreaded) && !found) {
+            throw new NoBenchmarksException();
+        }
+    }
+
+    /**
+     * @return false if none of the selected benchmarks is run with these options
+     */
+    private static boolean run(Options options) throws RunnerException {
+        try {
+            new Runner(options).run();
+            return true;
+        } catch (NoBenchmarksException e) {
+            return false;
+        }
+    }
+}
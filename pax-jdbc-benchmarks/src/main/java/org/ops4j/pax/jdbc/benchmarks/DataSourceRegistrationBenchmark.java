@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.jdbc.config.impl.DataSourceRegistration;
+import org.ops4j.pax.jdbc.config.impl.PoolingWrapper;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Cost of creating and closing a {@link DataSourceRegistration}, with and without a pool, against
+ * a BundleContext that only accepts registrations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataSourceRegistrationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private BundleContext context;
+    private DataSourceFactory dataSourceFactory;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = createBundleContext();
+        DataSourceFactory h2 = Database.H2.createDataSourceFactory();
+        dataSourceFactory = pooled ? new PoolingWrapper(Pool.NATIVE.createPooledDataSourceFactory(), h2) : h2;
+        url = Database.H2.getUrl("registration" + System.nanoTime());
+    }
+
+    @Benchmark
+    public DataSourceRegistration registerAndClose() {
+        Dictionary<String, String> config = new Hashtable<String, String>();
+        config.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "org.h2.Driver");
+        config.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "bench");
+        config.put(DataSourceFactory.JDBC_URL, url);
+        DataSourceRegistration registration = new DataSourceRegistration(context, dataSourceFactory, config, config);
+        registration.close();
+        return registration;
+    }
+
+    private static BundleContext createBundleContext() {
+        final ServiceRegistration<?> registration = (ServiceRegistration<?>) Proxy.newProxyInstance(
+            DataSourceRegistrationBenchmark.class.getClassLoader(),
+            new Class<?>[] { ServiceRegistration.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+        return (BundleContext) Proxy.newProxyInstance(
+            DataSourceRegistrationBenchmark.class.getClassLoader(),
+            new Class<?>[] { BundleContext.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("registerService".equals(method.getName())) {
+                        return registration;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
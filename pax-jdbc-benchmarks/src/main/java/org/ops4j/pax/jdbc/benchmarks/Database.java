@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.ops4j.pax.jdbc.derby.impl.DerbyDataSourceFactory;
+import org.ops4j.pax.jdbc.hsqldb.impl.HsqldbDataSourceFactory;
+import org.ops4j.pax.jdbc.impl.DriverDataSourceFactory;
+import org.ops4j.pax.jdbc.sqlite.impl.SqliteDataSourceFactory;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Embedded databases the benchmarks run against, each with the DataSourceFactory pax-jdbc
+ * registers for it.
+ */
+public enum Database {
+
+    H2 {
+
+        @Override
+        DataSourceFactory createDataSourceFactory() {
+            return new DriverDataSourceFactory(new org.h2.Driver());
+        }
+
+        @Override
+        String getUrl(String name) {
+            return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+        }
+    },
+
+    DERBY {
+
+        @Override
+        DataSourceFactory createDataSourceFactory() {
+            return new DerbyDataSourceFactory();
+        }
+
+        @Override
+        String getUrl(String name) {
+            return "jdbc:derby:memory:" + name + ";create=true";
+        }
+    },
+
+    HSQLDB {
+
+        @Override
+        DataSourceFactory createDataSourceFactory() {
+            return new HsqldbDataSourceFactory();
+        }
+
+        @Override
+        String getUrl(String name) {
+            return "jdbc:hsqldb:mem:" + name;
+        }
+    },
+
+    SQLITE {
+
+        @Override
+        DataSourceFactory createDataSourceFactory() {
+            return new SqliteDataSourceFactory();
+        }
+
+        @Override
+        String getUrl(String name) {
+            // each in memory SQLite connection is a database of its own, so use a file
+            try {
+                File file = File.createTempFile(name, ".db");
+                file.deleteOnExit();
+                return "jdbc:sqlite:" + file.getAbsolutePath();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final String QUERY = "SELECT NAME FROM BENCH WHERE ID = ?";
+
+    abstract DataSourceFactory createDataSourceFactory();
+
+    abstract String getUrl(String name);
+
+    /**
+     * @return properties for the DataSourceFactory of a new database with the given name
+     */
+    Properties createProperties(String name) {
+        Properties props = new Properties();
+        props.setProperty(DataSourceFactory.JDBC_URL, getUrl(name));
+        return props;
+    }
+
+    /**
+     * Create the table used by {@link #QUERY}.
+     */
+    static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE BENCH (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO BENCH (ID, NAME) VALUES (?, ?)")) {
+            for (int i = 0; i < 100; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "name" + i);
+                statement.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ops4j.pax.jdbc.pool.c3p0.impl.ds.C3p0PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.ds.NativePooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.dbcp2.impl.DbcpPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.hikaricp.impl.HikariPooledDataSourceFactory;
+
+/**
+ * Non XA pool adapters with the properties to configure their maximum size. The aries and
+ * narayana adapters need a TransactionManager and are not covered.
+ */
+public enum Pool {
+
+    NATIVE {
+
+        @Override
+        PooledDataSourceFactory createPooledDataSourceFactory() {
+            return new NativePooledDataSourceFactory();
+        }
+
+        @Override
+        void setMaxSize(Properties props, int size) {
+            props.setProperty("pool.maxTotal", Integer.toString(size));
+        }
+    },
+
+    DBCP2 {
+
+        @Override
+        PooledDataSourceFactory createPooledDataSourceFactory() {
+            return new DbcpPooledDataSourceFactory();
+        }
+
+        @Override
+        void setMaxSize(Properties props, int size) {
+            props.setProperty("pool.maxTotal", Integer.toString(size));
+            props.setProperty("pool.maxIdle", Integer.toString(size));
+        }
+    },
+
+    HIKARI {
+
+        @Override
+        PooledDataSourceFactory createPooledDataSourceFactory() {
+            return new HikariPooledDataSourceFactory();
+        }
+
+        @Override
+        void setMaxSize(Properties props, int size) {
+            props.setProperty("hikari.maximumPoolSize", Integer.toString(size));
+        }
+    },
+
+    C3P0 {
+
+        @Override
+        PooledDataSourceFactory createPooledDataSourceFactory() {
+            return new C3p0PooledDataSourceFactory();
+        }
+
+        @Override
+        void setMaxSize(Properties props, int size) {
+            props.setProperty("c3p0.maxPoolSize", Integer.toString(size));
+            props.setProperty("c3p0.dataSourceName", "bench" + COUNTER.incrementAndGet());
+        }
+    };
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    abstract PooledDataSourceFactory createPooledDataSourceFactory();
+
+    abstract void setMaxSize(Properties props, int size);
+
+    /**
+     * Close a pooled DataSource, whether it implements AutoCloseable or only has a close method.
+     */
+    static void close(Object dataSource) throws Exception {
+        if (dataSource instanceof AutoCloseable) {
+            ((AutoCloseable) dataSource).close();
+            return;
+        }
+        try {
+            Method close = dataSource.getClass().getMethod("close");
+            close.invoke(dataSource);
+        }
+        catch (NoSuchMethodException e) {
+            // nothing to close
+        }
+    }
+}
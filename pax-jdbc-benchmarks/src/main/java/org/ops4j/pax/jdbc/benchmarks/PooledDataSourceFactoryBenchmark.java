@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Latency of {@link PooledDataSourceFactory#create(DataSourceFactory, Properties)} followed by
+ * closing the pool, which is what a configuration update costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PooledDataSourceFactoryBenchmark {
+
+    @Param({"NATIVE", "DBCP2", "HIKARI", "C3P0"})
+    public Pool pool;
+
+    @Param({"H2", "DERBY", "HSQLDB", "SQLITE"})
+    public Database database;
+
+    @Param("16")
+    public int poolSize;
+
+    private PooledDataSourceFactory pooledDataSourceFactory;
+    private DataSourceFactory dataSourceFactory;
+    private Properties props;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pooledDataSourceFactory = pool.createPooledDataSourceFactory();
+        dataSourceFactory = database.createDataSourceFactory();
+        props = database.createProperties("create" + System.nanoTime());
+        pool.setMaxSize(props, poolSize);
+    }
+
+    @Benchmark
+    public DataSource createAndClose() throws Exception {
+        DataSource dataSource = pooledDataSourceFactory.create(dataSourceFactory, props);
+        Pool.close(dataSource);
+        return dataSource;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.jdbc.pool.common.impl.GatedDataSource;
+
+/**
+ * Queries from {@link #TASKS} concurrent virtual threads through each pool adapter, with and
+ * without a {@link GatedDataSource} in front of the pool. Pools that wait for connections in
+ * <code>synchronized</code> code pin the virtual threads to their few carrier threads, the gate
+ * parks them instead. Needs JDK 21 or later, on older JDKs the trials fail in their setup
+ * instead of measuring platform threads. Each invocation starts its own threads, so
+ * {@link BenchmarkRunner} runs it with one JMH thread only:
+ * <code>java -jar target/benchmarks.jar VirtualThreadBenchmark</code>. Add
+ * <code>-jvmArgsAppend -Djdk.tracePinnedThreads=short</code> to see where threads are pinned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    static final int TASKS = 10000;
+
+    @Param({"NATIVE", "DBCP2", "HIKARI", "C3P0"})
+    public Pool pool;
+
+    @Param("H2")
+    public Database database;
+
+    @Param("16")
+    public int poolSize;
+
+    @Param({"false", "true"})
+    public boolean gated;
+
+    private DataSource dataSource;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        executor = createExecutor();
+        Properties props = database.createProperties("virtual" + System.nanoTime());
+        pool.setMaxSize(props, poolSize);
+        dataSource = pool.createPooledDataSourceFactory().create(database.createDataSourceFactory(), props);
+        try (Connection connection = dataSource.getConnection()) {
+            Database.createSchema(connection);
+        }
+        if (gated) {
+            dataSource = new GatedDataSource(dataSource, poolSize, TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    /**
+     * A virtual thread per task, looked up at runtime as the benchmarks are compiled for older
+     * JDKs. Platform threads are not used instead, as their results would be reported under
+     * this benchmark.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("VirtualThreadBenchmark needs JDK 21 or later, skipped on "
+                + System.getProperty("java.version"), e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        Pool.close(dataSource);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void executeQuery() throws Throwable {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for (int i = 0; i < TASKS; i++) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        query();
+                    }
+                    catch (SQLException | RuntimeException e) {
+                        error.compareAndSet(null, e);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    private void query() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(Database.QUERY)) {
+            statement.setInt(1, ThreadLocalRandom.current().nextInt(100));
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+/**
+ * Connection acquisition metrics of a DataSource created by pax-jdbc-config. Registered as a
+ * service with the property <code>dataSourceName</code> and as an MXBean when the DataSource
+ * is configured with <code>.metrics=true</code>.
+ * <p>
+ * Times are in microseconds. Percentiles are approximate, with a relative error of about 6%.
+ */
+public interface DataSourceMetrics {
+
+    String DATASOURCE_NAME = "dataSourceName";
+
+    String getDataSourceName();
+
+    /**
+     * @return number of connections currently handed out and not yet closed
+     */
+    long getInUse();
+
+    /**
+     * @return number of successful getConnection calls
+     */
+    long getAcquired();
+
+    /**
+     * @return number of getConnection calls that threw an exception
+     */
+    long getAcquireFailures();
+
+    long getAcquireTimeMean();
+
+    long getAcquireTimeMax();
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the acquire time below which the given percentage of calls fall
+     */
+    long getAcquireTimePercentile(double percentile);
+
+    /**
+     * @return sum of all acquire times
+     */
+    long getAcquireTimeSum();
+
+    /**
+     * @param bounds ascending upper bounds of acquire times
+     * @return for each bound the number of acquire times up to it
+     */
+    long[] getAcquireTimeCounts(long[] bounds);
+
+    long getHoldTimeMean();
+
+    long getHoldTimeMax();
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the hold time below which the given percentage of connections fall
+     */
+    long getHoldTimePercentile(double percentile);
+
+    /**
+     * @return sum of all hold times
+     */
+    long getHoldTimeSum();
+
+    /**
+     * @param bounds ascending upper bounds of hold times
+     * @return for each bound the number of hold times up to it
+     */
+    long[] getHoldTimeCounts(long[] bounds);
+
+    /**
+     * Clear all recorded times and counts except the in use count.
+     */
+    void reset();
+}
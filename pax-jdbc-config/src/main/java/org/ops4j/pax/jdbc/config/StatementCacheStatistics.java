@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+/**
+ * Counters of the prepared statement cache of a DataSource created by pax-jdbc-config.
+ * Registered as an MXBean when the DataSource is configured with <code>.stmtCache.size</code>.
+ */
+public interface StatementCacheStatistics {
+
+    String getDataSourceName();
+
+    /**
+     * @return maximum number of cached statements per connection
+     */
+    int getSize();
+
+    long getHits();
+
+    long getMisses();
+
+    /**
+     * @return number of statements closed to make room for others
+     */
+    long getEvictions();
+
+    /**
+     * @return number of idle statements currently cached over all connections
+     */
+    long getCached();
+
+    void reset();
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import java.util.List;
+
+/**
+ * Execution times of the statements run through a DataSource created by pax-jdbc-config,
+ * grouped by SQL shape (the statement text with literals replaced by <code>?</code>). Registered
+ * as an MXBean when the DataSource is configured with <code>.statementStats=true</code>.
+ */
+public interface StatementStatistics {
+
+    String getDataSourceName();
+
+    /**
+     * @return number of distinct SQL shapes tracked
+     */
+    int getShapeCount();
+
+    /**
+     * @return slowest single executions, slowest first
+     */
+    List<StatementSummary> getSlowestStatements();
+
+    /**
+     * @return summary per SQL shape, highest total execution time first
+     */
+    List<StatementSummary> getShapeSummaries();
+
+    void reset();
+}
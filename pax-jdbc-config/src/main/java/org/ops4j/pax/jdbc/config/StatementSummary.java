@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Execution statistics of one SQL shape, or of a single execution in which case the count is 1.
+ * Times are in microseconds.
+ */
+public class StatementSummary {
+
+    private final String sql;
+    private final long count;
+    private final long totalTime;
+    private final long maxTime;
+    private final long fetchTime;
+
+    @ConstructorProperties({"sql", "count", "totalTime", "maxTime", "fetchTime"})
+    public StatementSummary(String sql, long count, long totalTime, long maxTime, long fetchTime) {
+        this.sql = sql;
+        this.count = count;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+        this.fetchTime = fetchTime;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return time spent in execute calls
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * @return time spent reading the results, from executions returning a result set until the
+     *         last row was read or the result set was closed
+     */
+    public long getFetchTime() {
+        return fetchTime;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " count=" + count + " total=" + totalTime + "us max=" + maxTime
+            + "us fetch=" + fetchTime + "us";
+    }
+}
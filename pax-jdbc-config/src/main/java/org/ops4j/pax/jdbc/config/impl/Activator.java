@@ -15,18 +15,83 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.service.cm.ManagedServiceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Activator implements BundleActivator {
 
+    /**
+     * Framework property enabling creation of DataSources on worker threads instead of the
+     * Config Admin update thread.
+     */
+    public static final String ASYNC_UPDATES = "org.ops4j.pax.jdbc.config.async";
+
+    /**
+     * Framework property for the number of worker threads used with asynchronous updates.
+     */
+    public static final String UPDATE_THREADS = "org.ops4j.pax.jdbc.config.threads";
+
+    /**
+     * Framework property for the time in ms after which a cached decrypted value is decrypted
+     * again. Caching is disabled by default (0), as it keeps plain text secrets in memory.
+     */
+    public static final String DECRYPT_CACHE_TTL = "org.ops4j.pax.jdbc.config.decryptCache.ttl";
+
+    /**
+     * Framework property for the maximum number of cached decrypted values.
+     */
+    public static final String DECRYPT_CACHE_SIZE = "org.ops4j.pax.jdbc.config.decryptCache.size";
+
+    /**
+     * Framework property to enable watching the files referenced by FILE(...) values. Off by
+     * default, then the files are read again for every config.
+     */
+    public static final String WATCH_SECRETS = "org.ops4j.pax.jdbc.config.watchSecrets";
+
+    /**
+     * Framework property for the time in ms a directory of secret files has to be quiet after a
+     * change before the files are read again.
+     */
+    public static final String WATCH_SECRETS_DEBOUNCE = "org.ops4j.pax.jdbc.config.watchSecrets.debounce";
+
+    /**
+     * Framework property with a comma separated list of properties files, each defining many
+     * DataSources. The files are reloaded when they change.
+     */
+    public static final String BULK_FILES = "org.ops4j.pax.jdbc.config.bulkFiles";
+
+    /**
+     * Framework property for the time in ms the directory of a bulk file has to be quiet after a
+     * change before the file is read again.
+     */
+    public static final String BULK_FILES_DEBOUNCE = "org.ops4j.pax.jdbc.config.bulkFiles.debounce";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Activator.class);
     private static final String FACTORY_PID = "org.ops4j.datasource";
+    private static final int DEFAULT_UPDATE_THREADS = 4;
+    private static final int DEFAULT_DECRYPT_CACHE_TTL = 0;
+    private static final int DEFAULT_DECRYPT_CACHE_SIZE = 1024;
+    private static final int DEFAULT_WATCH_SECRETS_DEBOUNCE = 1000;
+    private static final int DEFAULT_BULK_FILES_DEBOUNCE = 1000;
     private StringEncryptorTracker encryptorServiceTracker;
+    private ThreadPoolExecutor updateExecutor;
+    private DataSourceConfigManager configManager;
+    private final List<BulkConfigLoader> bulkLoaders = new ArrayList<BulkConfigLoader>();
 
     @Override
     public void start(BundleContext context) throws Exception {
@@ -34,14 +99,114 @@ public class Activator implements BundleActivator {
         props.put(Constants.SERVICE_PID, FACTORY_PID);
         encryptorServiceTracker = new StringEncryptorTracker(context);
         encryptorServiceTracker.open();
-        Decryptor decryptor = new Decryptor(encryptorServiceTracker);
-        DataSourceConfigManager configManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader());
+        Decryptor decryptor = new Decryptor(encryptorServiceTracker, createDecryptedValueCache(context));
+        if (Boolean.parseBoolean(context.getProperty(ASYNC_UPDATES))) {
+            updateExecutor = createUpdateExecutor(getUpdateThreads(context));
+        }
+        configManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader(), updateExecutor,
+                                                    encryptorServiceTracker);
+        if (Boolean.parseBoolean(context.getProperty(WATCH_SECRETS))) {
+            configManager.watchSecretFiles(getIntProperty(context, WATCH_SECRETS_DEBOUNCE, DEFAULT_WATCH_SECRETS_DEBOUNCE));
+        }
         context.registerService(ManagedServiceFactory.class.getName(), configManager, props);
+        loadBulkFiles(context);
+    }
+
+    private void loadBulkFiles(BundleContext context) {
+        String files = context.getProperty(BULK_FILES);
+        if (files == null) {
+            return;
+        }
+        int debounce = getIntProperty(context, BULK_FILES_DEBOUNCE, DEFAULT_BULK_FILES_DEBOUNCE);
+        final List<BulkConfigLoader> loaders = new ArrayList<BulkConfigLoader>();
+        for (String file : files.split(",")) {
+            if (file.trim().isEmpty()) {
+                continue;
+            }
+            BulkConfigLoader loader = new BulkConfigLoader(Paths.get(file.trim()), configManager);
+            loader.watch(debounce);
+            loaders.add(loader);
+        }
+        bulkLoaders.addAll(loaders);
+        // large files are read off the framework thread, changes made meanwhile are seen by the watchers
+        new NamedThreadFactory("pax-jdbc-bulk-").newThread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (BulkConfigLoader loader : loaders) {
+                    loader.load();
+                }
+            }
+        }).start();
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        for (BulkConfigLoader loader : bulkLoaders) {
+            loader.close();
+        }
+        bulkLoaders.clear();
+        configManager.close();
+        if (updateExecutor != null) {
+            updateExecutor.shutdownNow();
+        }
         encryptorServiceTracker.close();
     }
 
+    private static ThreadPoolExecutor createUpdateExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("pax-jdbc-config-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getUpdateThreads(BundleContext context) {
+        return Math.max(1, getIntProperty(context, UPDATE_THREADS, DEFAULT_UPDATE_THREADS));
+    }
+
+    /**
+     * Cache decrypted values so that reloading many configs does not run the key derivation
+     * of the StringEncryptors for the same values over and over.
+     */
+    private DecryptedValueCache createDecryptedValueCache(BundleContext context) {
+        int ttl = getIntProperty(context, DECRYPT_CACHE_TTL, DEFAULT_DECRYPT_CACHE_TTL);
+        int size = getIntProperty(context, DECRYPT_CACHE_SIZE, DEFAULT_DECRYPT_CACHE_SIZE);
+        if (ttl <= 0 || size <= 0) {
+            return null;
+        }
+        DecryptedValueCache cache = new DecryptedValueCache(size, ttl);
+        encryptorServiceTracker.setDecryptedValueCache(cache);
+        return cache;
+    }
+
+    private static int getIntProperty(BundleContext context, String key, int defaultValue) {
+        String value = context.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedServiceFactory;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads many DataSource configs from one properties file. Each key starts with the name of a
+ * DataSource followed by a dot and the config key, e.g. <code>tenant1.url</code> or
+ * <code>tenant1.pool.maxTotal</code>. The name is also used as dataSourceName unless the entry
+ * sets a name itself.
+ * <p>
+ * Every entry is passed to the {@link ManagedServiceFactory} like a factory configuration. On
+ * reload only entries that changed are updated and entries that disappeared are deleted, so the
+ * work done scales with the changed entries and not with the size of the file.
+ */
+class BulkConfigLoader implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkConfigLoader.class);
+
+    private final Path file;
+    private final String pidPrefix;
+    private final ManagedServiceFactory target;
+    private final Map<String, Dictionary<String, String>> entries;
+    private long size = -1;
+    private byte[] digest;
+    private SecretFileWatcher watcher;
+    private boolean closed;
+
+    BulkConfigLoader(Path file, ManagedServiceFactory target) {
+        this.file = file;
+        // files with the same name in different directories must not share pids
+        this.pidPrefix = file.toAbsolutePath().normalize() + "#";
+        this.target = target;
+        this.entries = new HashMap<>();
+    }
+
+    /**
+     * Reload the file whenever it changed.
+     *
+     * @param debounceMillis time the directory of the file has to be quiet after a change
+     */
+    synchronized void watch(long debounceMillis) {
+        if (watcher == null) {
+            watcher = new SecretFileWatcher(new SecretFileWatcher.Listener() {
+
+                @Override
+                public void changed(Set<String> files) {
+                    load();
+                }
+            }, debounceMillis);
+            watcher.watch(Collections.singleton(file.toString()));
+        }
+    }
+
+    /**
+     * Read the file and apply the entries that changed since it was read last. Does nothing if
+     * the file has the same size and content hash as when it was read last, as other files in
+     * the same directory trigger the watcher as well and the modification time may not change
+     * on every write.
+     */
+    synchronized void load() {
+        if (closed) {
+            return;
+        }
+        Map<String, Dictionary<String, String>> current;
+        try {
+            byte[] content = Files.readAllBytes(file);
+            byte[] contentDigest = digest(content);
+            if (content.length == size && Arrays.equals(contentDigest, digest)) {
+                return;
+            }
+            current = parse(read(content));
+            size = content.length;
+            digest = contentDigest;
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Can not read DataSource configs from " + file + ": " + e.getMessage());
+            return;
+        }
+        int changed = 0;
+        for (String name : new HashSet<>(entries.keySet())) {
+            if (!current.containsKey(name)) {
+                entries.remove(name);
+                target.deleted(getPid(name));
+                changed++;
+            }
+        }
+        for (Map.Entry<String, Dictionary<String, String>> entry : current.entrySet()) {
+            String name = entry.getKey();
+            Dictionary<String, String> config = entry.getValue();
+            if (config.equals(entries.get(name))) {
+                continue;
+            }
+            entries.put(name, config);
+            changed++;
+            try {
+                target.updated(getPid(name), copy(config));
+            } catch (ConfigurationException e) {
+                LOG.warn("Invalid DataSource config " + name + " in " + file + ": " + e.getReason());
+            }
+        }
+        LOG.info("Loaded {} DataSource configs from {}, {} changed", current.size(), file, changed);
+    }
+
+    /**
+     * Delete the configs of all entries.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        for (String name : entries.keySet()) {
+            target.deleted(getPid(name));
+        }
+        entries.clear();
+    }
+
+    private String getPid(String name) {
+        return pidPrefix + name;
+    }
+
+    private static Properties read(byte[] content) throws IOException {
+        Properties props = new Properties();
+        props.load(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+        return props;
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static Map<String, Dictionary<String, String>> parse(Properties props) {
+        Map<String, Dictionary<String, String>> configs = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            int pos = key.indexOf('.');
+            if (pos <= 0 || pos == key.length() - 1) {
+                throw new IllegalArgumentException("Key " + key + " does not start with a DataSource name");
+            }
+            String name = key.substring(0, pos);
+            Dictionary<String, String> config = configs.get(name);
+            if (config == null) {
+                config = new Hashtable<>();
+                configs.put(name, config);
+            }
+            config.put(key.substring(pos + 1), props.getProperty(key));
+        }
+        for (Map.Entry<String, Dictionary<String, String>> entry : configs.entrySet()) {
+            Dictionary<String, String> config = entry.getValue();
+            if (config.get(DataSourceFactory.JDBC_DATASOURCE_NAME) == null
+                && config.get(DataSourceRegistration.JNDI_SERVICE_NAME) == null) {
+                config.put(DataSourceFactory.JDBC_DATASOURCE_NAME, entry.getKey());
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * The manager may add keys to the config it gets, so it gets a copy.
+     */
+    private Dictionary<String, String> copy(Dictionary<String, String> config) {
+        Dictionary<String, String> copy = new Hashtable<>();
+        for (String key : Collections.list(config.keys())) {
+            copy.put(key, config.get(key));
+        }
+        return copy;
+    }
+}
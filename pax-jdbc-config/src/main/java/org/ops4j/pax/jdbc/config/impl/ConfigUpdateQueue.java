@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the config changes of each pid on an executor. Changes of the same pid run one after the
+ * other in the order they were submitted. A change that has not started yet is dropped when a
+ * newer one for the same pid is submitted, as only the latest config of a pid matters.
+ */
+class ConfigUpdateQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigUpdateQueue.class);
+
+    private final Executor executor;
+    private final Map<String, Runnable> pending;
+    private final Set<String> scheduled;
+
+    ConfigUpdateQueue(Executor executor) {
+        this.executor = executor;
+        this.pending = new HashMap<String, Runnable>();
+        this.scheduled = new HashSet<String>();
+    }
+
+    /**
+     * Run a change for a pid after the change currently running for it, replacing a change
+     * that is still waiting.
+     */
+    synchronized void submit(final String pid, Runnable change) {
+        if (pending.put(pid, change) != null) {
+            LOG.debug("Superseded pending config change of pid {}", pid);
+        }
+        if (scheduled.add(pid)) {
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        runPending(pid);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                scheduled.remove(pid);
+                pending.remove(pid);
+                LOG.warn("Dropped config change of pid {} while shutting down", pid);
+            }
+        }
+    }
+
+    /**
+     * Run a change for a pid after the change currently running for it, unless another change
+     * is already waiting and will do the work anyway.
+     */
+    synchronized void submitUnlessPending(String pid, Runnable change) {
+        if (!pending.containsKey(pid)) {
+            submit(pid, change);
+        }
+    }
+
+    private void runPending(String pid) {
+        while (true) {
+            Runnable change;
+            synchronized (this) {
+                change = pending.remove(pid);
+                if (change == null) {
+                    scheduled.remove(pid);
+                    return;
+                }
+            }
+            try {
+                change.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Error applying config change of pid " + pid, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionCloseHandler;
+import org.ops4j.pax.jdbc.pool.common.impl.DelegatingDataSource;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Registers a DataSource so that each consuming bundle gets its own view. The views take their
+ * connections through a {@link FairConnectionScheduler}, so one bundle can not take all
+ * connections of the pool and starve the others.
+ */
+@SuppressWarnings("rawtypes")
+class ConsumerServiceFactory implements ServiceFactory {
+
+    private final DataSource delegate;
+    private final FairConnectionScheduler scheduler;
+    private final Map<String, Integer> weights;
+
+    /**
+     * @param weights weights by bundle symbolic name, bundles without entry have weight 1
+     */
+    ConsumerServiceFactory(DataSource delegate, FairConnectionScheduler scheduler, Map<String, Integer> weights) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.weights = weights;
+    }
+
+    @Override
+    public Object getService(Bundle bundle, ServiceRegistration registration) {
+        Integer weight = weights.get(bundle.getSymbolicName());
+        String name = bundle.getSymbolicName() + " [" + bundle.getBundleId() + "]";
+        return new ConsumerDataSource(scheduler.createConsumer(name, weight != null ? weight : 1));
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+        // connections still in use give back their permits when closed
+    }
+
+    /**
+     * View of the DataSource for one consumer.
+     */
+    final class ConsumerDataSource extends DelegatingDataSource {
+
+        private final FairConnectionScheduler.Consumer consumer;
+
+        ConsumerDataSource(FairConnectionScheduler.Consumer consumer) {
+            super(ConsumerServiceFactory.this.delegate);
+            this.consumer = consumer;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            scheduler.acquire(consumer);
+            try {
+                return track(delegate.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                scheduler.release(consumer);
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            scheduler.acquire(consumer);
+            try {
+                return track(delegate.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                scheduler.release(consumer);
+                throw e;
+            }
+        }
+
+        private Connection track(Connection connection) {
+            return new ConnectionCloseHandler(connection) {
+
+                @Override
+                protected void closed() {
+                    scheduler.release(consumer);
+                }
+            }.createProxy();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.XADataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Remembers the DataSources created by a DataSourceFactory, so that rotated credentials can be
+ * set on them. Placed below the pool, where new physical connections are opened with the
+ * credentials the DataSources have at that time.
+ */
+class CredentialsDataSourceFactory implements DataSourceFactory {
+
+    private final DataSourceFactory dsf;
+    private final List<Object> dataSources;
+
+    CredentialsDataSourceFactory(DataSourceFactory dsf) {
+        this.dsf = dsf;
+        this.dataSources = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Set new credentials on all DataSources created so far.
+     *
+     * @param credentials bean properties like user and password
+     * @throws IllegalArgumentException if a DataSource does not support the properties
+     */
+    void setCredentials(Map<String, ?> credentials) {
+        for (Object ds : dataSources) {
+            BeanConfig.configure(ds, credentials);
+        }
+    }
+
+    boolean isEmpty() {
+        return dataSources.isEmpty();
+    }
+
+    @Override
+    public DataSource createDataSource(Properties props) throws SQLException {
+        return add(dsf.createDataSource(props));
+    }
+
+    @Override
+    public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props) throws SQLException {
+        return add(dsf.createConnectionPoolDataSource(props));
+    }
+
+    @Override
+    public XADataSource createXADataSource(Properties props) throws SQLException {
+        return add(dsf.createXADataSource(props));
+    }
+
+    @Override
+    public Driver createDriver(Properties props) throws SQLException {
+        return dsf.createDriver(props);
+    }
+
+    private <T> T add(T ds) {
+        dataSources.add(ds);
+        return ds;
+    }
+}
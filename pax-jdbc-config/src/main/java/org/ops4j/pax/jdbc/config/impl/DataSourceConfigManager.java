@@ -19,14 +19,24 @@ package org.ops4j.pax.jdbc.config.impl;
 import static org.ops4j.pax.jdbc.config.impl.DataSourceRegistration.getDSName;
 import static org.osgi.framework.FrameworkUtil.createFilter;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.cm.ConfigurationException;
@@ -51,15 +61,99 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
      * Stores one ServiceTracker for DataSourceFactories for each config pid
      */
     private Map<String, ServiceTracker> trackers;
+
+    /**
+     * Config of each pid as it was received, to find out what an update changes
+     */
+    private Map<String, Dictionary> configs;
     private Decryptor decryptor;
     
     private ExternalConfigLoader externalConfigLoader;
 
+    /**
+     * Applies config changes in the background, null to apply them on the calling thread
+     */
+    private ConfigUpdateQueue updateQueue;
+
+    /**
+     * Looks up StringEncryptors without blocking, null to wait for them while decrypting
+     */
+    private StringEncryptorTracker encryptorTracker;
+
+    /**
+     * StringEncryptors each pid is still waiting for before its config can be applied
+     */
+    private ConcurrentMap<String, List<StringEncryptorFuture>> pendingEncryptors;
+
+    /**
+     * Secret files referenced by the config of each pid
+     */
+    private Map<String, Set<String>> secretFiles;
+
+    /**
+     * Reports changes of secret files, null if they are not watched
+     */
+    private SecretFileWatcher secretFileWatcher;
+
     public DataSourceConfigManager(BundleContext context, Decryptor decryptor, ExternalConfigLoader externalConfigLoader) {
+        this(context, decryptor, externalConfigLoader, null, null);
+    }
+
+    /**
+     * @param executor executor to create and close the DataSources of different pids
+     *            concurrently, so that a slow database does not delay the others. If null the
+     *            changes are applied on the Config Admin thread.
+     * @param encryptorTracker tracker of the StringEncryptors used by the decryptor. If set, a
+     *            config with encrypted values is only applied once all of its StringEncryptors
+     *            are available instead of blocking until they are. If null the decryptor waits.
+     */
+    public DataSourceConfigManager(BundleContext context, Decryptor decryptor, ExternalConfigLoader externalConfigLoader,
+                                   Executor executor, StringEncryptorTracker encryptorTracker) {
         this.context = context;
-        this.trackers = new HashMap<String, ServiceTracker>();
+        this.trackers = new ConcurrentHashMap<String, ServiceTracker>();
+        this.configs = new ConcurrentHashMap<String, Dictionary>();
+        this.pendingEncryptors = new ConcurrentHashMap<String, List<StringEncryptorFuture>>();
+        this.secretFiles = new ConcurrentHashMap<String, Set<String>>();
         this.decryptor = decryptor;
         this.externalConfigLoader = externalConfigLoader;
+        this.encryptorTracker = encryptorTracker;
+        if (executor != null) {
+            this.updateQueue = new ConfigUpdateQueue(executor);
+        }
+    }
+
+    /**
+     * Watch the secret files referenced by FILE(...) values. Their contents are shared by all
+     * configs and read again when a config referencing them is updated. When a file changes the
+     * credentials of the DataSources using it are replaced on their live pools, other changes
+     * rebuild the DataSources. Changes are applied in order with the config updates of the pid.
+     *
+     * @param debounceMillis time a directory has to be quiet after a change before its files
+     *            are read again
+     */
+    public synchronized void watchSecretFiles(long debounceMillis) {
+        if (secretFileWatcher != null) {
+            return;
+        }
+        externalConfigLoader.enableCache();
+        secretFileWatcher = new SecretFileWatcher(new SecretFileWatcher.Listener() {
+
+            @Override
+            public void changed(Set<String> files) {
+                secretFilesChanged(files);
+            }
+        }, debounceMillis);
+        updateWatchedFiles();
+    }
+
+    /**
+     * Stop watching secret files.
+     */
+    public synchronized void close() {
+        if (secretFileWatcher != null) {
+            secretFileWatcher.close();
+            secretFileWatcher = null;
+        }
     }
 
     @Override
@@ -68,17 +162,121 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
     }
 
     @Override
-    public void updated(final String pid, final Dictionary config) throws ConfigurationException {
-        deleted(pid);
+    public synchronized void updated(final String pid, final Dictionary config) throws ConfigurationException {
+        cancelPendingEncryptors(pid);
+        if (config != null && deferForEncryptors(pid, config)) {
+            return;
+        }
+        dispatch(pid, config);
+    }
+
+    private void dispatch(final String pid, final Dictionary config) throws ConfigurationException {
+        if (updateQueue == null) {
+            apply(pid, config);
+            return;
+        }
+        updateQueue.submit(pid, new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    apply(pid, config);
+                } catch (ConfigurationException e) {
+                    LOG.warn("Invalid DataSource config from pid " + pid + ": " + e.getReason());
+                }
+            }
+        });
+    }
+
+    /**
+     * Postpone a config until the StringEncryptors for its encrypted values are registered. The
+     * current DataSource of the pid, if any, stays in place meanwhile. Once the last missing
+     * StringEncryptor arrives the config is applied like a new update, unless it was replaced or
+     * deleted in the meantime.
+     *
+     * @return true if the config has to wait
+     */
+    private boolean deferForEncryptors(final String pid, Dictionary config) {
+        if (encryptorTracker == null) {
+            return false;
+        }
+        final List<StringEncryptorFuture> missing = new ArrayList<StringEncryptorFuture>();
+        for (String alias : Decryptor.getAliases(externalConfigLoader.resolve(config))) {
+            StringEncryptorFuture future = encryptorTracker.getStringEncryptorFuture(alias);
+            if (!future.isDone()) {
+                missing.add(future);
+            }
+        }
+        if (missing.isEmpty()) {
+            return false;
+        }
+        LOG.info("Config for DataSource {} is waiting for {} StringEncryptor service(s)", getDSName(config),
+                 missing.size());
+        final Dictionary deferred = copy(config);
+        final AtomicInteger remaining = new AtomicInteger(missing.size());
+        pendingEncryptors.put(pid, missing);
+        for (StringEncryptorFuture future : missing) {
+            future.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (remaining.decrementAndGet() == 0) {
+                        resume(pid, missing, deferred);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    private synchronized void resume(String pid, List<StringEncryptorFuture> missing, Dictionary config) {
+        if (!pendingEncryptors.remove(pid, missing)) {
+            return;
+        }
+        try {
+            dispatch(pid, config);
+        } catch (ConfigurationException e) {
+            LOG.warn("Invalid DataSource config from pid " + pid + ": " + e.getReason());
+        }
+    }
+
+    private void cancelPendingEncryptors(String pid) {
+        List<StringEncryptorFuture> missing = pendingEncryptors.remove(pid);
+        if (missing != null) {
+            for (StringEncryptorFuture future : missing) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Create the trackers for a DataSource config. If an update only changes pool settings that
+     * the pooling support can apply to a live pool, the existing DataSource is retuned instead.
+     * Otherwise by default the previous DataSource of the pid is closed first. With hot swap
+     * enabled the new DataSource is registered with a higher ranking while the previous one is
+     * still available, and the previous one is unregistered and drained only afterwards. If the
+     * new config is invalid the previous DataSource is kept.
+     */
+    private void apply(final String pid, final Dictionary config) throws ConfigurationException {
+        ServiceTracker previous = trackers.get(pid);
+        if (previous != null && config != null && retune(pid, previous, config)) {
+            return;
+        }
+        if (config == null || !DataSourceRegistration.isHotSwap(config)) {
+            remove(pid);
+            previous = null;
+        }
 
         if (config == null) {
             return;
         }
 
+        Dictionary received = copy(config);
         try {
             Filter dsfFilter = getDSFFilter(config);
             Filter pdsfFilter = getPooledDSFFilter(config);
             
+            prepareSecretFiles(pid, received);
             Dictionary<String, String> loadedConfig = externalConfigLoader.resolve(config);
             Dictionary<String, String> decryptedConfig = decryptor.decrypt(loadedConfig);
             String msg = "Processing config for DataSource {}. ";
@@ -90,14 +288,159 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
                 LOG.info(msg + "Tracking pooling support with filter {}", getDSName(config), pdsfFilter);
                 tracker = new PooledDataSourceFactoryTracker(context, pdsfFilter, dsfFilter, config, decryptedConfig);
             }
+            Object ranking = config.get(Constants.SERVICE_RANKING);
+            if (previous != null) {
+                config.put(Constants.SERVICE_RANKING, getSwapRanking(previous, config));
+            }
             tracker.open();
+            if (previous != null && !swap(previous, tracker, config, ranking)) {
+                restoreSecretFiles(pid);
+                return;
+            }
             trackers.put(pid, tracker);
+            configs.put(pid, received);
         }
         catch (InvalidSyntaxException e) {
             LOG.warn("Invalid filter for DataSource config from pid " + pid, e);
         }
+        catch (RuntimeException e) {
+            restoreSecretFiles(pid);
+            throw e;
+        }
     }
     
+    /**
+     * Apply an update to the live pools of a pid if all changed keys are pool settings that can
+     * be changed while the pools are in use.
+     *
+     * @return false if the DataSource has to be rebuilt
+     */
+    private boolean retune(String pid, ServiceTracker tracker, Dictionary config) {
+        Dictionary previousConfig = configs.get(pid);
+        if (previousConfig == null) {
+            return false;
+        }
+        Set<String> changedKeys = getChangedKeys(previousConfig, config);
+        List<DataSourceRegistration> registrations = getRegistrations(tracker);
+        if (changedKeys.isEmpty() || registrations.isEmpty()) {
+            return false;
+        }
+        for (DataSourceRegistration registration : registrations) {
+            if (!registration.isTunable(changedKeys)) {
+                return false;
+            }
+        }
+        Dictionary newConfig = copy(config);
+        newConfig.remove(PooledDataSourceFactory.POOL_KEY);
+        newConfig.remove(PooledDataSourceFactory.XA_KEY);
+        prepareSecretFiles(pid, config);
+        Dictionary<String, String> decryptedConfig = decryptor.decrypt(externalConfigLoader.resolve(newConfig));
+        LOG.info("Retuning DataSource {} for changed keys {}", getDSName(config), changedKeys);
+        try {
+            for (DataSourceRegistration registration : registrations) {
+                registration.retune(newConfig, decryptedConfig);
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Could not retune DataSource " + getDSName(config) + ", recreating it", e);
+            return false;
+        }
+        configs.put(pid, copy(config));
+        return true;
+    }
+
+    static Set<String> getChangedKeys(Dictionary previous, Dictionary current) {
+        Set<String> changed = new TreeSet<String>();
+        for (Object key : Collections.list(previous.keys())) {
+            if (!previous.get(key).equals(current.get(key))) {
+                changed.add((String)key);
+            }
+        }
+        for (Object key : Collections.list(current.keys())) {
+            if (previous.get(key) == null) {
+                changed.add((String)key);
+            }
+        }
+        return changed;
+    }
+
+    private static Dictionary copy(Dictionary dict) {
+        Dictionary copy = new Hashtable();
+        for (Object key : Collections.list(dict.keys())) {
+            copy.put(key, dict.get(key));
+        }
+        return copy;
+    }
+
+    /**
+     * @return ranking that puts the new DataSource ahead of the previous one
+     */
+    private int getSwapRanking(ServiceTracker previous, Dictionary config) {
+        Object ranking = config.get(Constants.SERVICE_RANKING);
+        int max = ranking instanceof Integer ? (Integer)ranking : 0;
+        for (DataSourceRegistration registration : getRegistrations(previous)) {
+            max = Math.max(max, registration.getRanking());
+        }
+        return max == Integer.MAX_VALUE ? max : max + 1;
+    }
+
+    /**
+     * Close the previous DataSource if the new one is registered and warmed up, and give the new
+     * one its configured ranking. If the new one failed to warm up it is closed and the previous
+     * one is kept. If the new one is not registered because its DataSourceFactory or pooling
+     * support is missing, the previous one is replaced as without hot swap. Config Admin does
+     * not deliver the update again, so the new tracker stays open and registers the DataSource
+     * once the services appear.
+     *
+     * @return true if the new DataSource replaced the previous one
+     */
+    private boolean swap(ServiceTracker previous, ServiceTracker tracker, Dictionary config, Object ranking) {
+        List<DataSourceRegistration> replacements = getRegistrations(tracker);
+        if (replacements.isEmpty()) {
+            LOG.warn("Replacing DataSource {} without hot swap, the services for the updated one are not available yet",
+                     getDSName(config));
+        } else {
+            for (DataSourceRegistration registration : replacements) {
+                if (!registration.isReady()) {
+                    LOG.warn("Keeping the previous DataSource {}, the updated one could not be registered or warmed up",
+                             getDSName(config));
+                    tracker.close();
+                    return false;
+                }
+            }
+            LOG.info("Replacing DataSource {}", getDSName(config));
+        }
+        previous.close();
+        if (ranking == null) {
+            config.remove(Constants.SERVICE_RANKING);
+        } else {
+            config.put(Constants.SERVICE_RANKING, ranking);
+        }
+        // also the registrations created while the previous DataSource was closed
+        for (DataSourceRegistration registration : getRegistrations(tracker)) {
+            registration.updateServiceProperties();
+            registration.registerPendingMBeans();
+        }
+        return true;
+    }
+
+    /**
+     * @return registrations created by a tracker and the trackers nested in it
+     */
+    private static List<DataSourceRegistration> getRegistrations(ServiceTracker tracker) {
+        List<DataSourceRegistration> registrations = new ArrayList<DataSourceRegistration>();
+        Object[] tracked = tracker.getServices();
+        if (tracked != null) {
+            for (Object object : tracked) {
+                if (object instanceof DataSourceRegistration) {
+                    registrations.add((DataSourceRegistration)object);
+                } else if (object instanceof ServiceTracker) {
+                    registrations.addAll(getRegistrations((ServiceTracker)object));
+                }
+            }
+        }
+        return registrations;
+    }
+
     private Filter getPooledDSFFilter(Dictionary config) throws ConfigurationException, InvalidSyntaxException {
         String pool = (String) config.remove(PooledDataSourceFactory.POOL_KEY);
         boolean isXa = isXa(config);
@@ -164,12 +507,140 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
         return filter.toString();
     }
 
+    /**
+     * Close the DataSource of a pid. A change of the pid that is still waiting to be applied is
+     * dropped.
+     */
     @Override
-    public void deleted(String pid) {
+    public synchronized void deleted(final String pid) {
+        cancelPendingEncryptors(pid);
+        if (updateQueue == null) {
+            remove(pid);
+            return;
+        }
+        updateQueue.submit(pid, new Runnable() {
+
+            @Override
+            public void run() {
+                remove(pid);
+            }
+        });
+    }
+
+    private void remove(String pid) {
         ServiceTracker tracker = trackers.get(pid);
         if (tracker != null) {
             tracker.close();
             trackers.remove(pid);
+            configs.remove(pid);
+            if (secretFiles.remove(pid) != null) {
+                updateWatchedFiles();
+            }
+        }
+    }
+
+    /**
+     * Watch the secret files of an updated config before they are read, and drop their cached
+     * contents so that the update does not use contents a missed change left behind.
+     */
+    private void prepareSecretFiles(String pid, Dictionary config) {
+        recordSecretFiles(pid, config);
+        externalConfigLoader.invalidate(ExternalConfigLoader.getReferencedFiles(config));
+    }
+
+    /**
+     * Watch the secret files of the config that stays in place after an update failed.
+     */
+    private void restoreSecretFiles(String pid) {
+        Dictionary config = configs.get(pid);
+        if (config != null) {
+            recordSecretFiles(pid, config);
+        } else if (secretFiles.remove(pid) != null) {
+            updateWatchedFiles();
+        }
+    }
+
+    private void recordSecretFiles(String pid, Dictionary config) {
+        Set<String> files = ExternalConfigLoader.getReferencedFiles(config);
+        Set<String> previous = files.isEmpty() ? secretFiles.remove(pid) : secretFiles.put(pid, files);
+        if (!files.equals(previous == null ? Collections.emptySet() : previous)) {
+            updateWatchedFiles();
+        }
+    }
+
+    private synchronized void updateWatchedFiles() {
+        if (secretFileWatcher == null) {
+            return;
+        }
+        Set<String> files = new HashSet<String>();
+        for (Set<String> pidFiles : secretFiles.values()) {
+            files.addAll(pidFiles);
+        }
+        externalConfigLoader.retain(files);
+        secretFileWatcher.watch(files);
+    }
+
+    /**
+     * Refresh the DataSources that use secret files which changed.
+     *
+     * @param files secret files that may have changed
+     */
+    private void secretFilesChanged(Set<String> files) {
+        Set<String> changed = externalConfigLoader.reload(files);
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Set<String>> entry : secretFiles.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), changed)) {
+                submitRefreshSecrets(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Refresh the secrets of a pid in order with its config updates, so that an older config
+     * does not replace the DataSource built from a newer one. A waiting update reads the
+     * secret files itself.
+     */
+    private void submitRefreshSecrets(final String pid) {
+        if (updateQueue == null) {
+            synchronized (this) {
+                refreshSecrets(pid);
+            }
+            return;
+        }
+        updateQueue.submitUnlessPending(pid, new Runnable() {
+
+            @Override
+            public void run() {
+                refreshSecrets(pid);
+            }
+        });
+    }
+
+    /**
+     * Apply the rotated secrets of a pid. If only credentials changed they are set on the live
+     * pools, otherwise the DataSource is rebuilt like on a config update.
+     */
+    private void refreshSecrets(String pid) {
+        Dictionary config = configs.get(pid);
+        ServiceTracker tracker = trackers.get(pid);
+        if (config == null || tracker == null || pendingEncryptors.containsKey(pid)) {
+            return;
+        }
+        Dictionary<String, String> decryptedConfig = decryptor.decrypt(externalConfigLoader.resolve(config));
+        boolean refreshed = true;
+        for (DataSourceRegistration registration : getRegistrations(tracker)) {
+            refreshed &= registration.refreshCredentials(decryptedConfig);
+        }
+        if (refreshed) {
+            return;
+        }
+        LOG.info("Secret files of DataSource {} changed, recreating it", getDSName(config));
+        try {
+            apply(pid, copy(config));
+        } catch (ConfigurationException e) {
+            LOG.warn("Invalid DataSource config from pid " + pid + ": " + e.getReason());
         }
     }
     
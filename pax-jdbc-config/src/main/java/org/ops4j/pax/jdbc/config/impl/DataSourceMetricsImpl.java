@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+
+/**
+ * Collects the metrics recorded by {@link MetricsDataSource}.
+ */
+class DataSourceMetricsImpl implements DataSourceMetrics {
+
+    private final String dataSourceName;
+    private final StripedCounter inUse;
+    private final StripedCounter failures;
+    private final LatencyHistogram acquireTimes;
+    private final LatencyHistogram holdTimes;
+
+    DataSourceMetricsImpl(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+        this.inUse = new StripedCounter();
+        this.failures = new StripedCounter();
+        this.acquireTimes = new LatencyHistogram();
+        this.holdTimes = new LatencyHistogram();
+    }
+
+    void acquired(long nanos) {
+        acquireTimes.record(nanos / 1000);
+        inUse.increment();
+    }
+
+    void acquireFailed() {
+        failures.increment();
+    }
+
+    void released(long nanos) {
+        inUse.decrement();
+        holdTimes.record(nanos / 1000);
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Override
+    public long getInUse() {
+        return inUse.sum();
+    }
+
+    @Override
+    public long getAcquired() {
+        return acquireTimes.getCount();
+    }
+
+    @Override
+    public long getAcquireFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getAcquireTimeMean() {
+        return acquireTimes.getMean();
+    }
+
+    @Override
+    public long getAcquireTimeMax() {
+        return acquireTimes.getMax();
+    }
+
+    @Override
+    public long getAcquireTimePercentile(double percentile) {
+        return acquireTimes.getPercentile(percentile);
+    }
+
+    @Override
+    public long getAcquireTimeSum() {
+        return acquireTimes.getSum();
+    }
+
+    @Override
+    public long[] getAcquireTimeCounts(long[] bounds) {
+        return acquireTimes.getCumulativeCounts(bounds);
+    }
+
+    @Override
+    public long getHoldTimeMean() {
+        return holdTimes.getMean();
+    }
+
+    @Override
+    public long getHoldTimeMax() {
+        return holdTimes.getMax();
+    }
+
+    @Override
+    public long getHoldTimePercentile(double percentile) {
+        return holdTimes.getPercentile(percentile);
+    }
+
+    @Override
+    public long getHoldTimeSum() {
+        return holdTimes.getSum();
+    }
+
+    @Override
+    public long[] getHoldTimeCounts(long[] bounds) {
+        return holdTimes.getCumulativeCounts(bounds);
+    }
+
+    @Override
+    public void reset() {
+        failures.reset();
+        acquireTimes.reset();
+        holdTimes.reset();
+    }
+}
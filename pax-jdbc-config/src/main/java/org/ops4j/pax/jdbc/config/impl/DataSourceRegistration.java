@@ -16,16 +16,33 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+import org.ops4j.pax.jdbc.config.StatementCacheStatistics;
+import org.ops4j.pax.jdbc.config.StatementStatistics;
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.AdaptivePoolSizer;
+import org.ops4j.pax.jdbc.pool.common.impl.GatedDataSource;
+import org.ops4j.pax.jdbc.pool.common.impl.LeakDetector;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolSizePolicy;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 import java.io.Closeable;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -36,6 +53,55 @@ public class DataSourceRegistration implements Closeable {
 
     static final String DATASOURCE_TYPE = "dataSourceType";
     static final String JNDI_SERVICE_NAME = "osgi.jndi.service.name";
+    // hidden key enabling DataSourceMetrics for a DataSource
+    static final String METRICS = ".metrics";
+    // hidden keys enabling StatementStatistics for a DataSource
+    static final String STATEMENT_STATS = ".statementStats";
+    static final String STATEMENT_STATS_TOP = ".statementStats.top";
+    static final String STATEMENT_STATS_MAX_SHAPES = ".statementStats.maxShapes";
+    // hidden key enabling a prepared statement cache of the given size per connection
+    static final String STATEMENT_CACHE_SIZE = ".stmtCache.size";
+    // hidden keys enabling blue/green replacement of the DataSource on config updates
+    static final String HOT_SWAP = ".hotSwap";
+    static final String HOT_SWAP_DRAIN_TIMEOUT = ".hotSwap.drainTimeout";
+    // hidden keys sharing one pool between DataSources with the same connection settings
+    static final String SHARED_POOL = ".sharedPool";
+    static final String SHARED_POOL_QUOTA = ".sharedPool.quota";
+    static final String SHARED_POOL_QUOTA_TIMEOUT = ".sharedPool.quotaTimeout";
+    // hidden keys giving each consuming bundle a quota and a fair share of the connections
+    static final String CONSUMERS_QUOTA = ".consumers.quota";
+    static final String CONSUMERS_CAPACITY = ".consumers.capacity";
+    static final String CONSUMERS_TIMEOUT = ".consumers.timeout";
+    static final String CONSUMERS_WEIGHT_PREFIX = ".consumers.weight.";
+    // hidden keys opening connections before the DataSource is registered
+    static final String WARMUP_CONNECTIONS = ".warmup.connections";
+    static final String WARMUP_TIMEOUT = ".warmup.timeout";
+    static final String WARMUP_SQL = ".warmup.sql";
+
+    static final String ADAPTIVE = ".adaptive";
+    static final String ADAPTIVE_MIN_SIZE = ".adaptive.minSize";
+    static final String ADAPTIVE_MAX_SIZE = ".adaptive.maxSize";
+    static final String ADAPTIVE_TARGET_WAIT = ".adaptive.targetWait";
+    static final String ADAPTIVE_INTERVAL = ".adaptive.interval";
+
+    static final String GATE = ".gate";
+    static final String GATE_PERMITS = ".gate.permits";
+    static final String GATE_TIMEOUT = ".gate.timeout";
+
+    static final String LEAK_DETECTION_THRESHOLD = ".leakDetection.threshold";
+    static final String LEAK_DETECTION_SAMPLE_RATE = ".leakDetection.sampleRate";
+    private static final int DEFAULT_HOT_SWAP_DRAIN_TIMEOUT = 30000;
+    private static final int DEFAULT_WARMUP_TIMEOUT = 30000;
+    private static final int DEFAULT_ADAPTIVE_MIN_SIZE = 1;
+    private static final int DEFAULT_ADAPTIVE_MAX_SIZE = 50;
+    private static final int DEFAULT_ADAPTIVE_TARGET_WAIT = 50;
+    private static final int DEFAULT_ADAPTIVE_INTERVAL = 10000;
+    private static final int DEFAULT_GATE_TIMEOUT = 30000;
+    private static final double DEFAULT_LEAK_DETECTION_SAMPLE_RATE = 0.1;
+    private static final int DEFAULT_CONSUMERS_TIMEOUT = 30000;
+    private static final int DEFAULT_SHARED_POOL_QUOTA_TIMEOUT = 30000;
+    private static final int DEFAULT_STATEMENT_STATS_TOP = 10;
+    private static final int DEFAULT_STATEMENT_STATS_MAX_SHAPES = 200;
 
     // By default all local keys (without a dot) are forwarded to the DataSourceFactory.
     // These config keys will explicitly not be forwarded to the DataSourceFactory
@@ -46,34 +112,206 @@ public class DataSourceRegistration implements Closeable {
             DataSourceFactory.JDBC_DATASOURCE_NAME,
             DATASOURCE_TYPE
     }));
+    // hidden keys that would otherwise be forwarded as local keys once the dot is stripped
+    private static final Set<String> HIDDEN_OPTION_KEYS = new HashSet<>(Arrays.asList(new String[]{
+            METRICS,
+            STATEMENT_STATS,
+            HOT_SWAP,
+            SHARED_POOL,
+            ADAPTIVE,
+            GATE
+    }));
     private static final Set<String> FORWARDED_KEY_PREFIXES = new HashSet<>(Arrays.asList(new String[]{
             "pool.",
             "factory."
     }));
+    // forwarded keys that can be changed on the DataSources of a live pool
+    private static final Set<String> CREDENTIAL_KEYS = new HashSet<>(Arrays.asList(new String[]{
+            DataSourceFactory.JDBC_USER,
+            DataSourceFactory.JDBC_PASSWORD
+    }));
     // additionally all keys prefixed with "jdbc." will be forwarded (with the prefix stripped).
     private static final String CONFIG_KEY_PREFIX = "jdbc.";
     
     private static Logger LOG = LoggerFactory.getLogger(DataSourceRegistration.class);
 
+    private final Dictionary config;
+    private final Dictionary decryptedConfig;
+    private final String dsName;
+    private TunablePooledDataSourceFactory tunable;
+    private DataSource pooledDs;
+    private AdaptivePoolSizer sizer;
+    private LeakDetector leakDetector;
+    private CredentialsDataSourceFactory credentials;
     private AutoCloseable dataSource;
+    private DrainableDataSource drainable;
+    private int drainTimeout;
     private ServiceRegistration serviceReg;
+    private ServiceRegistration metricsReg;
+    private ServiceRegistration statisticsReg;
+    private SharedStatistics sharedStatistics;
+    private final List<ObjectName> mbeanNames = new ArrayList<>();
+    // MBeans whose names are still taken by the DataSource this one replaces
+    private final Map<ObjectName, StandardMBean> pendingMBeans = new LinkedHashMap<>();
+    private boolean warm = true;
 
     public DataSourceRegistration(BundleContext context, DataSourceFactory dsf, final Dictionary config, final Dictionary decryptedConfig) {
-        String dsName = getDSName(config);
+        this.config = config;
+        this.decryptedConfig = decryptedConfig;
+        this.dsName = getDSName(config);
         if (dsName != null) {
             config.put(JNDI_SERVICE_NAME, dsName);
         }
+        Object ds = null;
         try {
             String typeName = (String)config.get(DATASOURCE_TYPE);
             Class<?> type = getType(typeName);
-            Object ds = createDs(dsf, type, decryptedConfig);
+            validate(config);
+            PoolSizePolicy policy = isEnabled(config.get(ADAPTIVE)) ? createPolicy(config) : null;
+            LeakDetector detector = type == DataSource.class && config.get(LEAK_DETECTION_THRESHOLD) != null
+                ? createLeakDetector(config) : null;
+            StatementCacheStatisticsImpl statementCache = createStatementCache(type, dsName, config);
+            boolean shared = false;
+            if (isEnabled(config.get(SHARED_POOL))) {
+                if (type != DataSource.class || !(dsf instanceof PoolingWrapper)) {
+                    LOG.warn("A shared pool is only supported for pooled {}, not for DataSource {}", DataSource.class.getSimpleName(), dsName);
+                } else if (statementCache != null) {
+                    LOG.warn("A shared pool can not be combined with a statement cache, DataSource {} gets its own pool", dsName);
+                } else {
+                    shared = true;
+                }
+            }
+            ds = shared ? createSharedDs((PoolingWrapper)dsf, config, decryptedConfig)
+                : createDs(withStatementCache(withCredentials(dsf, config), statementCache), type, decryptedConfig);
+            SharedPools.Key sharedKey = shared ? ((SharedDataSource)ds).getKey() : null;
+            if (!shared && type == DataSource.class && dsf instanceof PoolingWrapper
+                && ((PoolingWrapper)dsf).getPooledDataSourceFactory() instanceof TunablePooledDataSourceFactory) {
+                tunable = (TunablePooledDataSourceFactory)((PoolingWrapper)dsf).getPooledDataSourceFactory();
+                pooledDs = (DataSource)ds;
+            }
+            PoolStatistics statistics = null;
+            if (type == DataSource.class && dsf instanceof PoolingWrapper
+                && ((PoolingWrapper)dsf).getPooledDataSourceFactory() instanceof MonitoredPooledDataSourceFactory) {
+                DataSource pool = shared ? ((SharedDataSource)ds).getPool() : (DataSource)ds;
+                statistics = ((MonitoredPooledDataSourceFactory)((PoolingWrapper)dsf).getPooledDataSourceFactory()).getStatistics(pool);
+            }
+            if (type == DataSource.class) {
+                warm = warmUp((DataSource)ds, config, decryptedConfig);
+            }
+            if (policy != null) {
+                if (tunable == null) {
+                    LOG.warn("Adaptive pool sizing is not supported by the pool of DataSource {}", dsName);
+                } else {
+                    sizer = createSizer(policy, config, decryptedConfig);
+                    ds = sizer.getDataSource();
+                }
+            }
+            if (isEnabled(config.get(GATE))) {
+                if (type != DataSource.class) {
+                    LOG.warn("The acquisition gate is only supported for {}, not for DataSource {}", DataSource.class.getSimpleName(), dsName);
+                } else {
+                    ds = createGate((DataSource)ds, config, decryptedConfig);
+                }
+            }
+            boolean metricsEnabled = isEnabled(config.get(METRICS));
+            boolean statementStatsEnabled = isEnabled(config.get(STATEMENT_STATS));
+            DataSourceMetricsImpl metrics = null;
+            StatementStatisticsImpl statementStats = null;
+            if (type != DataSource.class && (metricsEnabled || statementStatsEnabled)) {
+                LOG.warn("Metrics are only supported for {}, not for DataSource {}", DataSource.class.getSimpleName(), dsName);
+            } else {
+                if (statementStatsEnabled) {
+                    statementStats = new StatementStatisticsImpl(dsName,
+                        getInt(config, STATEMENT_STATS_TOP, DEFAULT_STATEMENT_STATS_TOP),
+                        getInt(config, STATEMENT_STATS_MAX_SHAPES, DEFAULT_STATEMENT_STATS_MAX_SHAPES));
+                    ds = new StatementStatsDataSource((DataSource)ds, statementStats);
+                }
+                if (metricsEnabled) {
+                    metrics = new DataSourceMetricsImpl(dsName);
+                    ds = new MetricsDataSource((DataSource)ds, metrics);
+                }
+            }
+            if (isHotSwap(config) && type == DataSource.class) {
+                drainTimeout = getInt(config, HOT_SWAP_DRAIN_TIMEOUT, DEFAULT_HOT_SWAP_DRAIN_TIMEOUT);
+                drainable = new DrainableDataSource((DataSource)ds);
+                ds = drainable;
+            }
             if (ds instanceof AutoCloseable) {
                 dataSource = (AutoCloseable)ds;
             }
             LOG.info("Found DataSourceFactory. Creating DataSource {}", dsName);
-            serviceReg = context.registerService(type.getName(), ds, filterHidden(config));
+            Object service = ds;
+            if (type == DataSource.class && (config.get(CONSUMERS_QUOTA) != null || config.get(CONSUMERS_CAPACITY) != null)) {
+                service = createConsumerServiceFactory((DataSource)ds, config, decryptedConfig);
+            }
+            if (detector != null) {
+                leakDetector = detector;
+                leakDetector.start();
+                LOG.info("Connections of DataSource {} held longer than {} ms are reported as possible leaks", dsName,
+                    config.get(LEAK_DETECTION_THRESHOLD));
+                service = new LeakDetectionServiceFactory(service, leakDetector);
+            }
+            serviceReg = context.registerService(type.getName(), service, filterHidden(config));
+            if (metrics != null) {
+                registerMetrics(context, metrics);
+            }
+            if (statistics != null && shared) {
+                sharedStatistics = new SharedStatistics(context, sharedKey, statistics);
+                SharedPools.addStatisticsPublisher(sharedKey, sharedStatistics);
+            } else if (statistics != null) {
+                registerStatistics(context, statistics);
+            }
+            if (statementStats != null) {
+                registerMBean("StatementStatistics", dsName, statementStats, StatementStatistics.class);
+            }
+            if (statementCache != null) {
+                registerMBean("StatementCacheStatistics", dsName, statementCache, StatementCacheStatistics.class);
+            }
         } catch (SQLException e) {
             LOG.warn(e.getMessage(), e);
+            closeBuilt(ds);
+        } catch (RuntimeException e) {
+            closeBuilt(ds);
+            throw e;
+        }
+    }
+
+    /**
+     * Parse the settings that are applied once the pool exists, so that an invalid value fails
+     * before there is a pool to leak.
+     */
+    private static void validate(Dictionary config) {
+        getInt(config, STATEMENT_STATS_TOP, DEFAULT_STATEMENT_STATS_TOP);
+        getInt(config, STATEMENT_STATS_MAX_SHAPES, DEFAULT_STATEMENT_STATS_MAX_SHAPES);
+        getInt(config, HOT_SWAP_DRAIN_TIMEOUT, DEFAULT_HOT_SWAP_DRAIN_TIMEOUT);
+        getInt(config, WARMUP_CONNECTIONS, 0);
+        getInt(config, WARMUP_TIMEOUT, DEFAULT_WARMUP_TIMEOUT);
+        if (getInt(config, ADAPTIVE_INTERVAL, DEFAULT_ADAPTIVE_INTERVAL) <= 0) {
+            throw new IllegalArgumentException("Problem in DataSource config : " + ADAPTIVE_INTERVAL + " must be positive");
+        }
+        getInt(config, GATE_PERMITS, 0);
+        getInt(config, GATE_TIMEOUT, DEFAULT_GATE_TIMEOUT);
+        getInt(config, CONSUMERS_CAPACITY, 0);
+        getInt(config, CONSUMERS_QUOTA, 0);
+        getInt(config, CONSUMERS_TIMEOUT, DEFAULT_CONSUMERS_TIMEOUT);
+        for (Object key : Collections.list(config.keys())) {
+            if (((String)key).startsWith(CONSUMERS_WEIGHT_PREFIX)) {
+                getInt(config, (String)key, 1);
+            }
+        }
+    }
+
+    /**
+     * Undo a registration that failed part way, closing the pool and the threads created so far.
+     */
+    private void closeBuilt(Object ds) {
+        if (dataSource == null && ds instanceof AutoCloseable) {
+            dataSource = (AutoCloseable)ds;
+        }
+        try {
+            close();
+        } catch (RuntimeException e) {
+            LOG.warn("Error closing DataSource " + dsName + ": " + e.getMessage(), e);
         }
     }
 
@@ -86,12 +324,368 @@ public class DataSourceRegistration implements Closeable {
         return jndiName != null ? jndiName : dsName; 
     }
 
+    static boolean isHotSwap(Dictionary config) {
+        return isEnabled(config.get(HOT_SWAP));
+    }
+
+    /**
+     * @return true if the DataSource is registered and its warm up, if any, succeeded, so that
+     *         it can replace a previous DataSource
+     */
+    boolean isReady() {
+        return serviceReg != null && warm;
+    }
+
+    /**
+     * @return service ranking the DataSource is registered with
+     */
+    int getRanking() {
+        Object ranking = config.get(Constants.SERVICE_RANKING);
+        return ranking instanceof Integer ? (Integer)ranking : 0;
+    }
+
+    /**
+     * Publish the current config as service properties, e.g. after the ranking was changed.
+     */
+    void updateServiceProperties() {
+        if (serviceReg != null) {
+            serviceReg.setProperties(filterHidden(config));
+        }
+    }
+
+    /**
+     * @param changedKeys config keys whose value changed
+     * @return true if the changes can be applied to the live pool with {@link #retune}
+     */
+    boolean isTunable(Set<String> changedKeys) {
+        if (tunable == null) {
+            return false;
+        }
+        for (String key : changedKeys) {
+            String forwardedKey = getForwardedKey(key);
+            if (forwardedKey == null || !tunable.isTunable(forwardedKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply an updated config to the live pool and take it over as the config of this
+     * registration. Only valid if {@link #isTunable} accepted the changes.
+     */
+    void retune(Dictionary newConfig, Dictionary newDecryptedConfig) throws SQLException {
+        if (sizer != null) {
+            sizer.setConfig(toProperties(newDecryptedConfig));
+        } else {
+            tunable.tune(pooledDs, toProperties(newDecryptedConfig));
+        }
+        replaceContents(config, newConfig);
+        replaceContents(decryptedConfig, newDecryptedConfig);
+        config.put(JNDI_SERVICE_NAME, dsName);
+        updateServiceProperties();
+    }
+
+    /**
+     * Set credentials read from rotated secret files on the DataSources below the pool. Pooled
+     * connections keep working, new connections are opened with the new credentials.
+     *
+     * @param newDecryptedConfig config with the secret files resolved again
+     * @return false if the DataSource has to be rebuilt because other keys changed or the
+     *         DataSources do not support setting the credentials
+     */
+    boolean refreshCredentials(Dictionary newDecryptedConfig) {
+        Set<String> changedKeys = DataSourceConfigManager.getChangedKeys(decryptedConfig, newDecryptedConfig);
+        if (changedKeys.isEmpty()) {
+            return true;
+        }
+        if (credentials == null || credentials.isEmpty()) {
+            return false;
+        }
+        Map<String, Object> changed = new HashMap<>();
+        for (String key : changedKeys) {
+            String forwardedKey = getForwardedKey(key);
+            Object value = newDecryptedConfig.get(key);
+            if (!CREDENTIAL_KEYS.contains(forwardedKey) || value == null) {
+                return false;
+            }
+            changed.put(forwardedKey, value);
+        }
+        try {
+            credentials.setCredentials(changed);
+        } catch (IllegalArgumentException e) {
+            LOG.info("Can not change credentials of DataSource {}: {}", dsName, e.getMessage());
+            return false;
+        }
+        replaceContents(decryptedConfig, newDecryptedConfig);
+        LOG.info("Refreshed credentials of DataSource {}", dsName);
+        return true;
+    }
+
+    /**
+     * Update a dictionary in place, as it is shared with the trackers of the config.
+     */
+    private static void replaceContents(Dictionary target, Dictionary source) {
+        for (Object key : Collections.list(target.keys())) {
+            if (source.get(key) == null) {
+                target.remove(key);
+            }
+        }
+        for (Object key : Collections.list(source.keys())) {
+            target.put(key, source.get(key));
+        }
+    }
+
+    /**
+     * Open the configured number of connections before consumers can see the DataSource, so that
+     * it is known to work and its pool is filled. With hot swap one connection is opened by
+     * default, as the new DataSource takes over the load of the previous one at once.
+     */
+    private boolean warmUp(DataSource ds, Dictionary config, Dictionary decryptedConfig) {
+        boolean configured = config.get(WARMUP_CONNECTIONS) != null;
+        int connections = getInt(config, WARMUP_CONNECTIONS, isHotSwap(config) ? 1 : 0);
+        if (connections <= 0) {
+            return true;
+        }
+        Object sql = decryptedConfig.get(WARMUP_SQL);
+        return new DataSourceWarmer(dsName, connections, getInt(config, WARMUP_TIMEOUT, DEFAULT_WARMUP_TIMEOUT),
+            configured, sql != null ? sql.toString() : null).warmUp(ds);
+    }
+
+    /**
+     * Adjust the size of the pool to its load within the configured bounds. The size keys of the
+     * pool only give the initial size then.
+     */
+    private AdaptivePoolSizer createSizer(PoolSizePolicy policy, Dictionary config, Dictionary decryptedConfig)
+        throws SQLException {
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer(dsName, tunable, pooledDs, toProperties(decryptedConfig), policy);
+        sizer.start(getInt(config, ADAPTIVE_INTERVAL, DEFAULT_ADAPTIVE_INTERVAL));
+        LOG.info("Adaptive sizing of pool of DataSource {} between {} and {} connections", dsName,
+            policy.getMinSize(), policy.getMaxSize());
+        return sizer;
+    }
+
+    private static PoolSizePolicy createPolicy(Dictionary config) {
+        return new PoolSizePolicy(getInt(config, ADAPTIVE_MIN_SIZE, DEFAULT_ADAPTIVE_MIN_SIZE),
+            getInt(config, ADAPTIVE_MAX_SIZE, DEFAULT_ADAPTIVE_MAX_SIZE),
+            getInt(config, ADAPTIVE_TARGET_WAIT, DEFAULT_ADAPTIVE_TARGET_WAIT));
+    }
+
     @Override
     public void close() {
+        pendingMBeans.clear();
+        for (ObjectName name : mbeanNames) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.warn("Error unregistering " + name + ": " + e.getMessage(), e);
+            }
+        }
+        if (metricsReg != null) {
+            metricsReg.unregister();
+        }
+        if (statisticsReg != null) {
+            statisticsReg.unregister();
+        }
+        if (sharedStatistics != null) {
+            SharedPools.removeStatisticsPublisher(sharedStatistics.key, sharedStatistics);
+        }
         if (serviceReg != null) {
             serviceReg.unregister();
         }
-        safeClose(dataSource);
+        if (leakDetector != null) {
+            leakDetector.close();
+        }
+        if (drainable != null && drainable.getInUse() > 0) {
+            drain();
+        } else {
+            safeClose(dataSource);
+        }
+    }
+
+    /**
+     * Close the DataSource in the background once the connections still in use were returned,
+     * or after the drain timeout.
+     */
+    private void drain() {
+        LOG.info("Closing DataSource {} once its {} connections in use are returned", dsName, drainable.getInUse());
+        Thread drainer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (!drainable.awaitDrained(drainTimeout)) {
+                        LOG.warn("Closing DataSource {} with {} connections still in use after {} ms",
+                            dsName, drainable.getInUse(), drainTimeout);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                safeClose(dataSource);
+            }
+        }, "pax-jdbc-drain-" + dsName);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private static boolean isEnabled(Object value) {
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    private static StatementCacheStatisticsImpl createStatementCache(Class<?> type, String dsName, Dictionary config) {
+        int size = getInt(config, STATEMENT_CACHE_SIZE, 0);
+        if (size <= 0) {
+            return null;
+        }
+        if (type != DataSource.class) {
+            LOG.warn("Statement cache is only supported for {}, not for DataSource {}", DataSource.class.getSimpleName(), dsName);
+            return null;
+        }
+        return new StatementCacheStatisticsImpl(dsName, size);
+    }
+
+    /**
+     * Keep the DataSources created below the pool if the config reads secrets from files, so
+     * that rotated credentials can be set on them.
+     */
+    private DataSourceFactory withCredentials(DataSourceFactory dsf, Dictionary config) {
+        if (ExternalConfigLoader.getReferencedFiles(config).isEmpty()) {
+            return dsf;
+        }
+        if (dsf instanceof PoolingWrapper) {
+            PoolingWrapper poolingWrapper = (PoolingWrapper)dsf;
+            credentials = new CredentialsDataSourceFactory(poolingWrapper.getDataSourceFactory());
+            return poolingWrapper.withDataSourceFactory(credentials);
+        }
+        credentials = new CredentialsDataSourceFactory(dsf);
+        return credentials;
+    }
+
+    /**
+     * Cache statements below the pool, so they are kept per physical connection.
+     */
+    private static DataSourceFactory withStatementCache(DataSourceFactory dsf, StatementCacheStatisticsImpl statementCache) {
+        if (statementCache == null) {
+            return dsf;
+        }
+        if (dsf instanceof PoolingWrapper) {
+            PoolingWrapper poolingWrapper = (PoolingWrapper)dsf;
+            return poolingWrapper.withDataSourceFactory(
+                new StatementCachingDataSourceFactory(poolingWrapper.getDataSourceFactory(), statementCache));
+        }
+        return new StatementCachingDataSourceFactory(dsf, statementCache);
+    }
+
+    private static int getInt(Dictionary config, String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Problem in DataSource config : " + key + " must be a number", e);
+        }
+    }
+
+    private static double getDouble(Dictionary config, String key, double defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Problem in DataSource config : " + key + " must be a number", e);
+        }
+    }
+
+    private void registerMetrics(BundleContext context, DataSourceMetricsImpl metrics) {
+        Dictionary props = new Hashtable();
+        props.put(DataSourceMetrics.DATASOURCE_NAME, metrics.getDataSourceName());
+        metricsReg = context.registerService(DataSourceMetrics.class.getName(), metrics, props);
+        registerMBean("DataSourceMetrics", metrics.getDataSourceName(), metrics, DataSourceMetrics.class);
+    }
+
+    /**
+     * Publish the connection counts of the pool, so they can be polled without going through JMX.
+     */
+    private void registerStatistics(BundleContext context, PoolStatistics statistics) {
+        Dictionary props = new Hashtable();
+        props.put(PoolStatistics.DATASOURCE_NAME, dsName);
+        statisticsReg = context.registerService(PoolStatistics.class.getName(), statistics, props);
+    }
+
+    /**
+     * Publishes the statistics of a shared pool under the name of this DataSource while it is
+     * the first one using the pool.
+     */
+    private final class SharedStatistics implements SharedPools.StatisticsPublisher {
+
+        private final BundleContext context;
+        private final SharedPools.Key key;
+        private final PoolStatistics statistics;
+        private ServiceRegistration registration;
+
+        SharedStatistics(BundleContext context, SharedPools.Key key, PoolStatistics statistics) {
+            this.context = context;
+            this.key = key;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void publish() {
+            Dictionary props = new Hashtable();
+            props.put(PoolStatistics.DATASOURCE_NAME, dsName);
+            registration = context.registerService(PoolStatistics.class.getName(), statistics, props);
+        }
+
+        @Override
+        public void unpublish() {
+            if (registration != null) {
+                registration.unregister();
+                registration = null;
+            }
+        }
+    }
+
+    private <T> void registerMBean(String type, String dsName, T bean, Class<T> iface) {
+        try {
+            ObjectName name = new ObjectName("org.ops4j.pax.jdbc:type=" + type + ",name="
+                + ObjectName.quote(dsName));
+            StandardMBean mbean = new StandardMBean(bean, iface, true);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.registerMBean(mbean, name);
+                mbeanNames.add(name);
+            } catch (InstanceAlreadyExistsException e) {
+                if (!isHotSwap(config)) {
+                    throw e;
+                }
+                // registered by registerPendingMBeans once the previous DataSource is closed
+                pendingMBeans.put(name, mbean);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register " + type + " of DataSource " + dsName
+                + " with JMX: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Register the MBeans whose names were taken by the DataSource this one replaced, now that
+     * it is closed.
+     */
+    void registerPendingMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<ObjectName, StandardMBean> entry : pendingMBeans.entrySet()) {
+            try {
+                server.registerMBean(entry.getValue(), entry.getKey());
+                mbeanNames.add(entry.getKey());
+            } catch (JMException e) {
+                LOG.warn("Could not register " + entry.getKey() + " with JMX: " + e.getMessage(), e);
+            }
+        }
+        pendingMBeans.clear();
     }
 
     private Class<?> getType(String typeName) {
@@ -111,6 +705,98 @@ public class DataSourceRegistration implements Closeable {
         }
     }
 
+    /**
+     * Register the DataSource with a view per consuming bundle, so that each bundle is limited
+     * to its quota and bundles waiting for connections are served in proportion to their
+     * weights. By default the capacity is the maximum size of the pool, so that threads wait
+     * in the fair queue instead of inside the pool.
+     */
+    private ConsumerServiceFactory createConsumerServiceFactory(DataSource ds, Dictionary config,
+                                                                Dictionary decryptedConfig) {
+        int capacity = getMaxPoolSize(config, CONSUMERS_CAPACITY, decryptedConfig);
+        if (capacity <= 0) {
+            LOG.warn("Maximum pool size of DataSource {} is not known, set {} to serve consumers fairly when the pool is exhausted",
+                dsName, CONSUMERS_CAPACITY);
+        }
+        FairConnectionScheduler scheduler = new FairConnectionScheduler(Math.max(capacity, 0),
+            getInt(config, CONSUMERS_QUOTA, 0), getInt(config, CONSUMERS_TIMEOUT, DEFAULT_CONSUMERS_TIMEOUT));
+        Map<String, Integer> weights = new HashMap<>();
+        for (Object key : Collections.list(config.keys())) {
+            if (((String)key).startsWith(CONSUMERS_WEIGHT_PREFIX)) {
+                weights.put(((String)key).substring(CONSUMERS_WEIGHT_PREFIX.length()), getInt(config, (String)key, 1));
+            }
+        }
+        LOG.info("Connections of DataSource {} are scheduled per consuming bundle", dsName);
+        return new ConsumerServiceFactory(ds, scheduler, weights);
+    }
+
+    /**
+     * Let threads wait for connections on a semaphore in front of the pool, so they do not block
+     * inside the pool, where some pools wait in <code>synchronized</code> code and pin virtual
+     * threads. By default there are as many permits as the pool has connections.
+     */
+    private DataSource createGate(DataSource ds, Dictionary config, Dictionary decryptedConfig) {
+        int permits = getMaxPoolSize(config, GATE_PERMITS, decryptedConfig);
+        if (permits <= 0) {
+            LOG.warn("Maximum pool size of DataSource {} is not known, set {} to use the acquisition gate", dsName, GATE_PERMITS);
+            return ds;
+        }
+        LOG.info("Threads wait for the {} connections of DataSource {} in front of the pool", permits, dsName);
+        return new GatedDataSource(ds, permits, getInt(config, GATE_TIMEOUT, DEFAULT_GATE_TIMEOUT));
+    }
+
+    /**
+     * Get a limit that defaults to the maximum size of the pool.
+     *
+     * @param key key overriding the maximum pool size
+     * @return the limit, or 0 if neither the key nor the maximum pool size is set
+     */
+    private int getMaxPoolSize(Dictionary config, String key, Dictionary decryptedConfig) {
+        int size = getInt(config, key, 0);
+        if (size <= 0 && sizer != null) {
+            size = getInt(config, ADAPTIVE_MAX_SIZE, DEFAULT_ADAPTIVE_MAX_SIZE);
+        } else if (size <= 0 && tunable != null) {
+            size = getInt(decryptedConfig, tunable.getMaxPoolSizeKey(), 0);
+        }
+        return size;
+    }
+
+    /**
+     * Report connections held past the threshold with the bundle that took them. Only a sample
+     * of the borrows records its stack trace, as capturing it on every borrow is expensive.
+     */
+    private LeakDetector createLeakDetector(Dictionary config) {
+        return new LeakDetector(dsName, getInt(config, LEAK_DETECTION_THRESHOLD, 0),
+            getDouble(config, LEAK_DETECTION_SAMPLE_RATE, DEFAULT_LEAK_DETECTION_SAMPLE_RATE));
+    }
+
+    /**
+     * Use the pool of another DataSource with the same physical connection settings or create
+     * one that further DataSources can share.
+     */
+    private DataSource createSharedDs(PoolingWrapper poolingWrapper, Dictionary config, final Dictionary decryptedConfig)
+        throws SQLException {
+        int quota = getInt(config, SHARED_POOL_QUOTA, 0);
+        int quotaTimeout = getInt(config, SHARED_POOL_QUOTA_TIMEOUT, DEFAULT_SHARED_POOL_QUOTA_TIMEOUT);
+        final DataSourceFactory dsf = withCredentials(poolingWrapper, config);
+        SharedPools.Key key = new SharedPools.Key(poolingWrapper.getPooledDataSourceFactory(),
+            poolingWrapper.getDataSourceFactory(), toProperties(decryptedConfig));
+        DataSource pool = SharedPools.acquire(key, credentials, new SharedPools.PoolFactory() {
+
+            @Override
+            public DataSource create() throws SQLException {
+                return (DataSource)createDs(dsf, DataSource.class, decryptedConfig);
+            }
+        });
+        // rotated credentials are set below the pool through the factory of whoever created it
+        credentials = SharedPools.getCredentials(key);
+        int references = SharedPools.getReferences(key);
+        if (references > 1) {
+            LOG.info("DataSource {} shares its pool with {} other DataSources", dsName, references - 1);
+        }
+        return new SharedDataSource(pool, key, quota, quotaTimeout);
+    }
+
     private Object createDs(DataSourceFactory dsf, Class<?> type, Dictionary decryptedConfig) throws SQLException {
         Properties props = toProperties(decryptedConfig);
         if (type == DataSource.class) {
@@ -137,22 +823,37 @@ public class DataSourceRegistration implements Closeable {
         }
     }
 
-    private Properties toProperties(Dictionary dict) {
+    private static Properties toProperties(Dictionary dict) {
         Properties props = new Properties();
         Enumeration keys = dict.keys();
         while (keys.hasMoreElements()) {
             final String originalKey = (String) keys.nextElement();
-            final String unhiddenKey = unhide(originalKey);
-            if (shouldForwardToDataSourceFactory(unhiddenKey)) {
-                props.put(unhiddenKey, dict.get(originalKey));
-            } else if (unhiddenKey.startsWith(CONFIG_KEY_PREFIX)) {
-                props.put(unhiddenKey.substring(CONFIG_KEY_PREFIX.length()), dict.get(originalKey));
+            final String forwardedKey = getForwardedKey(originalKey);
+            if (forwardedKey != null) {
+                props.put(forwardedKey, dict.get(originalKey));
             }
         }
         return props;
     }
 
-    private boolean shouldForwardToDataSourceFactory(String key) {
+    /**
+     * @return key under which a config value is passed to the DataSourceFactory or null if it
+     *         is not passed on
+     */
+    private static String getForwardedKey(String key) {
+        if (HIDDEN_OPTION_KEYS.contains(key)) {
+            return null;
+        }
+        String unhiddenKey = unhide(key);
+        if (shouldForwardToDataSourceFactory(unhiddenKey)) {
+            return unhiddenKey;
+        } else if (unhiddenKey.startsWith(CONFIG_KEY_PREFIX)) {
+            return unhiddenKey.substring(CONFIG_KEY_PREFIX.length());
+        }
+        return null;
+    }
+
+    private static boolean shouldForwardToDataSourceFactory(String key) {
         // only forward local configuration keys (i. e. those without a dot)
         // exception: the DATASOURCE_TYPE key (as legacy).
         boolean shouldForward = (!key.contains(".") && !NOT_FORWARDED_KEYS.contains(key));
@@ -175,11 +876,11 @@ public class DataSourceRegistration implements Closeable {
         return filtered;
     }
 
-    private String unhide(String key) {
+    private static String unhide(String key) {
         return isHidden(key) ? key.substring(1) : key;
     }
 
-    private boolean isHidden(String key) {
+    private static boolean isHidden(String key) {
         return key != null && key.startsWith(".");
     }
 
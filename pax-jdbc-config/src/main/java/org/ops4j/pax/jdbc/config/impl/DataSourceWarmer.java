@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens connections of a new DataSource before it is registered, so that its pool is filled and
+ * the first requests do not pay for opening connections. All connections are held until each of
+ * them is open, otherwise a pool would hand out the same connection again and again.
+ */
+class DataSourceWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataSourceWarmer.class);
+
+    /**
+     * Connections opened at the same time, so that a large pool does not start a thread and a
+     * connect per connection at once.
+     */
+    static final int MAX_THREADS = 4;
+
+    private final String dsName;
+    private final int connections;
+    private final long timeoutMillis;
+    private final boolean validate;
+    private final String sql;
+
+    /**
+     * @param connections number of connections to open, at most {@link #MAX_THREADS} at a time
+     * @param timeoutMillis time after which the DataSource is registered anyway
+     * @param validate check each connection with {@link Connection#isValid(int)}
+     * @param sql statements separated by semicolons to run on one connection, e.g. to prime
+     *            server side caches, or null
+     */
+    DataSourceWarmer(String dsName, int connections, long timeoutMillis, boolean validate, String sql) {
+        this.dsName = dsName;
+        this.connections = connections;
+        this.timeoutMillis = timeoutMillis;
+        this.validate = validate;
+        this.sql = sql;
+    }
+
+    /**
+     * @return true if all connections were opened
+     */
+    boolean warmUp(final DataSource ds) {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, MAX_THREADS), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pax-jdbc-warmup-" + dsName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<Connection>> opened = new ArrayList<>(connections);
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        boolean warm = true;
+        try {
+            for (int i = 0; i < connections; i++) {
+                final boolean runSql = i == 0 && sql != null;
+                opened.add(executor.submit(new Callable<Connection>() {
+
+                    @Override
+                    public Connection call() throws SQLException {
+                        // connections still queued after the timeout are not opened anymore
+                        return abandoned.get() ? null : open(ds, runSql);
+                    }
+                }));
+            }
+            long deadline = start + timeoutMillis;
+            for (Future<Connection> future : opened) {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    warm = false;
+                    LOG.warn("Warm up of DataSource " + dsName + " failed: " + e.getCause().getMessage(), e.getCause());
+                } catch (TimeoutException e) {
+                    warm = false;
+                    LOG.warn("Warm up of DataSource {} did not finish within {} ms", dsName, timeoutMillis);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            warm = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            abandoned.set(true);
+            closeWhenOpen(opened, executor);
+            executor.shutdown();
+        }
+        if (warm) {
+            LOG.debug("Warmed up {} connections of DataSource {} in {} ms", connections, dsName,
+                System.currentTimeMillis() - start);
+        }
+        return warm;
+    }
+
+    private Connection open(DataSource ds, boolean runSql) throws SQLException {
+        Connection connection = ds.getConnection();
+        try {
+            if (validate && !connection.isValid((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)))) {
+                throw new SQLException("Connection is not valid");
+            }
+            if (runSql) {
+                runSql(connection);
+            }
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void runSql(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String part : sql.split(";")) {
+                if (!part.trim().isEmpty()) {
+                    statement.execute(part.trim());
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the connections. Those still being opened after the timeout are closed by the warm
+     * up threads once they are open.
+     */
+    private void closeWhenOpen(List<Future<Connection>> opened, ExecutorService executor) {
+        for (final Future<Connection> future : opened) {
+            if (future.isDone()) {
+                close(future);
+            } else {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        close(future);
+                    }
+                });
+            }
+        }
+    }
+
+    private void close(Future<Connection> future) {
+        try {
+            Connection connection = future.get();
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (ExecutionException e) {
+            // already reported
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            LOG.debug("Error closing warm up connection of DataSource " + dsName + ": " + e.getMessage());
+        }
+    }
+}
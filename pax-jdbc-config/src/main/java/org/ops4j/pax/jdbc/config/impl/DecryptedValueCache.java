@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of decrypted configuration values, keyed by StringEncryptor and cipher text.
+ * Entries expire after a time to live and are dropped when their StringEncryptor changes. Each
+ * change starts a new generation of the StringEncryptor, and values decrypted by an earlier
+ * generation are not stored, so a decryption racing with a change does not put a stale value.
+ * The plain texts are kept in char arrays that are wiped when an entry is dropped.
+ */
+class DecryptedValueCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Value> entries;
+    private final Map<String, Long> generations;
+
+    /**
+     * @param maxEntries maximum number of cached values, the least recently used one is dropped
+     *            first
+     * @param ttlMillis time after which a value is decrypted again
+     */
+    DecryptedValueCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.generations = new HashMap<String, Long>();
+        this.entries = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                if (size() > DecryptedValueCache.this.maxEntries) {
+                    eldest.getValue().clear();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param encryptorKey key of the StringEncryptor in {@link StringEncryptorTracker}
+     * @param cipherText cipher text
+     * @return plain text or null if not cached or expired
+     */
+    synchronized String get(String encryptorKey, String cipherText) {
+        final Key key = new Key(encryptorKey, cipherText);
+        final Value value = entries.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (System.nanoTime() - value.created > ttlNanos) {
+            entries.remove(key);
+            value.clear();
+            return null;
+        }
+        return new String(value.plainText);
+    }
+
+    /**
+     * @param encryptorKey key of the StringEncryptor in {@link StringEncryptorTracker}
+     * @return current generation of the StringEncryptor, to be read before it is looked up for
+     *         decrypting a value to {@link #put}
+     */
+    synchronized long getGeneration(String encryptorKey) {
+        final Long generation = generations.get(encryptorKey);
+        return generation != null ? generation : 0L;
+    }
+
+    /**
+     * Store a decrypted value unless the StringEncryptor changed since the given generation.
+     */
+    synchronized void put(String encryptorKey, long generation, String cipherText, String plainText) {
+        if (generation != getGeneration(encryptorKey)) {
+            return;
+        }
+        final Value previous = entries.put(new Key(encryptorKey, cipherText), new Value(plainText.toCharArray()));
+        if (previous != null) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Drop the values decrypted by a StringEncryptor.
+     *
+     * @param encryptorKey key of the StringEncryptor in {@link StringEncryptorTracker}
+     */
+    synchronized void invalidate(String encryptorKey) {
+        generations.put(encryptorKey, getGeneration(encryptorKey) + 1);
+        for (Iterator<Map.Entry<Key, Value>> it = entries.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Key, Value> entry = it.next();
+            if (entry.getKey().encryptorKey.equals(encryptorKey)) {
+                entry.getValue().clear();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (Value value : entries.values()) {
+            value.clear();
+        }
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+
+        private final String encryptorKey;
+        private final String cipherText;
+
+        Key(String encryptorKey, String cipherText) {
+            this.encryptorKey = encryptorKey;
+            this.cipherText = cipherText;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return encryptorKey.equals(other.encryptorKey) && cipherText.equals(other.cipherText);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * encryptorKey.hashCode() + cipherText.hashCode();
+        }
+    }
+
+    private static final class Value {
+
+        private final char[] plainText;
+        private final long created;
+
+        Value(char[] plainText) {
+            this.plainText = plainText;
+            this.created = System.nanoTime();
+        }
+
+        void clear() {
+            Arrays.fill(plainText, '\0');
+        }
+    }
+}
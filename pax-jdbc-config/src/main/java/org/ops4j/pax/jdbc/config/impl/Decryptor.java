@@ -18,7 +18,9 @@ package org.ops4j.pax.jdbc.config.impl;
 
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Set;
 
 import org.jasypt.encryption.StringEncryptor;
 
@@ -32,6 +34,7 @@ public class Decryptor {
     private static final char ALIAS_SEPARATOR = ',';
 
     private final StringEncryptorTracker encryptorServiceTracker;
+    private final DecryptedValueCache decryptedValues;
 
     /**
      * Create new decryptor instance.
@@ -39,7 +42,18 @@ public class Decryptor {
      * @param tracker custom StringEncryptor tracker the supports aliases
      */
     public Decryptor(final StringEncryptorTracker tracker) {
+        this(tracker, null);
+    }
+
+    /**
+     * Create new decryptor instance that remembers decrypted values.
+     *
+     * @param tracker custom StringEncryptor tracker the supports aliases
+     * @param decryptedValues cache of decrypted values, null to decrypt every time
+     */
+    Decryptor(final StringEncryptorTracker tracker, final DecryptedValueCache decryptedValues) {
         this.encryptorServiceTracker = tracker;
+        this.decryptedValues = decryptedValues;
     }
 
     /**
@@ -66,6 +80,24 @@ public class Decryptor {
         return decryptedConfig;
     }
 
+    /**
+     * Collect the aliases of the StringEncryptors needed to decrypt a configuration.
+     *
+     * @param config configuration to decrypt
+     * @return aliases, null stands for the StringEncryptor without alias
+     */
+    @SuppressWarnings("rawtypes")
+    static Set<String> getAliases(final Dictionary config) {
+        Set<String> aliases = new HashSet<>();
+        for (Enumeration e = config.elements(); e.hasMoreElements();) {
+            final Object value = e.nextElement();
+            if (value instanceof String && isEncryptedValue((String) value)) {
+                aliases.add(getAlias(getArgument((String) value)));
+            }
+        }
+        return aliases;
+    }
+
     /**
      * Decrypt encrypted configuration value. Alias is optional and separated with ALIAS_SEPARATOR character.
      *
@@ -73,14 +105,39 @@ public class Decryptor {
      * @return decrypted (plain text) configuration value
      */
     private String decryptValue(final String value) {
-        final String argument = value.substring(ENCRYPTED_PROPERTY_PREFIX.length(),
-                value.length() - ENCRYPTED_PROPERTY_SUFFIX.length());
+        final String argument = getArgument(value);
         final int aliasPos = argument.indexOf(ALIAS_SEPARATOR);
         final String cipherText = aliasPos > -1 ? argument.substring(0, aliasPos) : argument;
-        final String alias = aliasPos > -1 ? argument.substring(aliasPos + 1).trim() : null;
+        final String alias = getAlias(argument);
+
+        if (decryptedValues == null) {
+            StringEncryptor encryptor = encryptorServiceTracker.getStringEncryptor(alias);
+            return encryptor != null ? encryptor.decrypt(cipherText) : null;
+        }
+        final String encryptorKey = StringEncryptorTracker.getKey(alias);
+        String plainText = decryptedValues.get(encryptorKey, cipherText);
+        if (plainText == null) {
+            final long generation = decryptedValues.getGeneration(encryptorKey);
+            StringEncryptor encryptor = encryptorServiceTracker.getStringEncryptor(alias);
+            if (encryptor == null) {
+                return null;
+            }
+            plainText = encryptor.decrypt(cipherText);
+            if (plainText != null) {
+                decryptedValues.put(encryptorKey, generation, cipherText, plainText);
+            }
+        }
+        return plainText;
+    }
 
-        StringEncryptor encryptor = encryptorServiceTracker.getStringEncryptor(alias);
-        return encryptor != null ? encryptor.decrypt(cipherText) : null;
+    private static String getArgument(final String value) {
+        return value.substring(ENCRYPTED_PROPERTY_PREFIX.length(),
+                value.length() - ENCRYPTED_PROPERTY_SUFFIX.length());
+    }
+
+    private static String getAlias(final String argument) {
+        final int aliasPos = argument.indexOf(ALIAS_SEPARATOR);
+        return aliasPos > -1 ? argument.substring(aliasPos + 1).trim() : null;
     }
 
     /**
@@ -90,6 +147,10 @@ public class Decryptor {
      * @return <code>true</code> if value is encrypted, <code>false</code> otherwise
      */
     public boolean isEncrypted(String value) {
+        return isEncryptedValue(value);
+    }
+
+    private static boolean isEncryptedValue(String value) {
         return value.startsWith(ENCRYPTED_PROPERTY_PREFIX)
                 && value.endsWith(ENCRYPTED_PROPERTY_SUFFIX);
     }
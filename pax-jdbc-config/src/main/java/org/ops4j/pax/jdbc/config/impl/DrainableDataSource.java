@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionCloseHandler;
+import org.ops4j.pax.jdbc.pool.common.impl.DelegatingDataSource;
+
+/**
+ * DataSource wrapper that counts the connections handed out and not yet closed, so that the
+ * underlying pool can be closed once they were returned.
+ */
+public class DrainableDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final Object lock = new Object();
+    private int inUse;
+
+    DrainableDataSource(DataSource delegate) {
+        super(delegate);
+    }
+
+    int getInUse() {
+        synchronized (lock) {
+            return inUse;
+        }
+    }
+
+    /**
+     * Wait until all connections handed out were closed.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true if no connection is in use anymore
+     */
+    boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (inUse > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(delegate.getConnection(username, password));
+    }
+
+    private Connection track(Connection connection) {
+        synchronized (lock) {
+            inUse++;
+        }
+        return new ConnectionCloseHandler(connection) {
+
+            @Override
+            protected void closed() {
+                returned();
+            }
+        }.createProxy();
+    }
+
+    private void returned() {
+        synchronized (lock) {
+            if (--inUse == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closeDelegate();
+    }
+}
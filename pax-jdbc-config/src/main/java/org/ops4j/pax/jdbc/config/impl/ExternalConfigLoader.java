@@ -20,9 +20,15 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +42,20 @@ public class ExternalConfigLoader {
     private static final String EXTERNAL_PROPERTY_PREFIX = "FILE(";
     private static final String EXTERNAL_PROPERTY_SUFFIX = ")";
 
+    /**
+     * Contents of the referenced files by path, shared by all configs. Null if files are read
+     * every time.
+     */
+    private volatile Map<String, String> contents;
+
+    /**
+     * Keep the contents of referenced files instead of reading them for every config. Only
+     * valid if changed files are passed to {@link #reload}.
+     */
+    void enableCache() {
+        contents = new ConcurrentHashMap<>();
+    }
+
     /**
      * Resolve external configuration value references.
      *
@@ -49,9 +69,7 @@ public class ExternalConfigLoader {
             final String key = (String) e.nextElement();
             String value = String.valueOf(config.get(key));
             if (config.get(key) instanceof String && isExternal(value)) {
-                final String argument = value.substring(EXTERNAL_PROPERTY_PREFIX.length(),
-                        value.length() - EXTERNAL_PROPERTY_SUFFIX.length());
-                final String loadedValue = readFile(argument, Charset.defaultCharset());
+                final String loadedValue = load(getPath(value));
                 if (loadedValue != null) {
                     loadedConfig.put(key, loadedValue);
                 }
@@ -62,6 +80,91 @@ public class ExternalConfigLoader {
         return loadedConfig;
     }
 
+    /**
+     * Collect the files referenced by a configuration.
+     *
+     * @param config configuration with external references
+     * @return paths of the referenced files
+     */
+    @SuppressWarnings("rawtypes")
+    static Set<String> getReferencedFiles(final Dictionary config) {
+        Set<String> files = new HashSet<>();
+        for (Enumeration e = config.elements(); e.hasMoreElements();) {
+            final Object value = e.nextElement();
+            if (value instanceof String && isExternal((String) value)) {
+                files.add(getPath((String) value));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Read files again that may have changed. Files that can not be read are skipped.
+     *
+     * @param files paths of the files
+     * @return paths of the files whose contents changed
+     */
+    Set<String> reload(final Collection<String> files) {
+        Set<String> changed = new HashSet<>();
+        final Map<String, String> cache = contents;
+        for (String file : files) {
+            final String current = readFile(file, Charset.defaultCharset());
+            if (current == null) {
+                // keep the previous contents, the file may be replaced right now
+                continue;
+            }
+            final String previous = cache != null ? cache.put(file, current) : null;
+            if (!current.equals(previous)) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Drop the cached contents of files so that they are read again on the next resolve.
+     *
+     * @param files paths of the files
+     */
+    void invalidate(final Collection<String> files) {
+        final Map<String, String> cache = contents;
+        if (cache != null) {
+            cache.keySet().removeAll(files);
+        }
+    }
+
+    /**
+     * Drop the cached contents of files that are no longer referenced.
+     *
+     * @param files paths of the referenced files
+     */
+    void retain(final Set<String> files) {
+        final Map<String, String> cache = contents;
+        if (cache != null) {
+            cache.keySet().retainAll(files);
+        }
+    }
+
+    private String load(final String path) {
+        final Map<String, String> cache = contents;
+        if (cache == null) {
+            return readFile(path, Charset.defaultCharset());
+        }
+        String value = cache.get(path);
+        if (value == null) {
+            value = readFile(path, Charset.defaultCharset());
+            if (value != null) {
+                cache.put(path, value);
+            }
+        }
+        return value;
+    }
+
+    private static String getPath(final String value) {
+        return value.substring(EXTERNAL_PROPERTY_PREFIX.length(),
+                value.length() - EXTERNAL_PROPERTY_SUFFIX.length());
+    }
+
     /**
      * Load file contents and return it as String.
      *
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out connection permits to the consumers of a DataSource. Each consumer may hold up to
+ * a quota of connections. When all permits of the pool are taken, waiting consumers are served
+ * by weighted fair queueing: every grant advances the virtual time of a consumer by the inverse
+ * of its weight, and the waiting consumer with the lowest virtual time is served next. A
+ * consumer with twice the weight thus gets twice the connections of a busy neighbour.
+ * <p>
+ * Consumers with waiting threads and free quota are kept in a queue ordered by virtual time.
+ * Permits are granted by the thread that frees them, and only the thread that got the permit
+ * is woken. Threads wait on a {@link ReentrantLock}, so virtual threads do not pin their
+ * carrier threads.
+ */
+class FairConnectionScheduler {
+
+    private final int capacity;
+    private final int quota;
+    private final long timeoutMillis;
+    private final ReentrantLock lock;
+    // consumers with waiting threads that may get a connection, by virtual time
+    private final PriorityQueue<Consumer> ready;
+    private int waiting;
+    private int inUse;
+    private double virtualClock;
+
+    /**
+     * @param capacity connections handed out to all consumers together, 0 for no limit
+     * @param quota connections one consumer may hold, 0 for no limit
+     * @param timeoutMillis time to wait for a connection
+     */
+    FairConnectionScheduler(int capacity, int quota, long timeoutMillis) {
+        this.capacity = capacity;
+        this.quota = quota;
+        this.timeoutMillis = timeoutMillis;
+        this.lock = new ReentrantLock();
+        this.ready = new PriorityQueue<Consumer>(11, new Comparator<Consumer>() {
+
+            @Override
+            public int compare(Consumer c1, Consumer c2) {
+                return Double.compare(c1.virtualTime, c2.virtualTime);
+            }
+        });
+    }
+
+    Consumer createConsumer(String name, int weight) {
+        return new Consumer(name, Math.max(1, weight));
+    }
+
+    /**
+     * Wait until the consumer may open a connection.
+     *
+     * @throws SQLTransientConnectionException if no permit was granted within the timeout
+     */
+    void acquire(Consumer consumer) throws SQLException {
+        lock.lock();
+        try {
+            if (consumer.waiters.isEmpty()) {
+                // a consumer that was idle does not get credit for the time it did not compete
+                consumer.virtualTime = Math.max(consumer.virtualTime, virtualClock);
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            consumer.waiters.add(waiter);
+            waiting++;
+            schedule(consumer);
+            dispatch();
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        cancel(consumer, waiter);
+                        throw new SQLTransientConnectionException(getBusyMessage(consumer));
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // keep the permit, the caller releases it with the connection
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                cancel(consumer, waiter);
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(Consumer consumer) {
+        lock.lock();
+        try {
+            consumer.inUse--;
+            inUse--;
+            schedule(consumer);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInUse() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grant the free permits to the waiting threads of the consumers with the lowest virtual
+     * time. Called with the lock held.
+     */
+    private void dispatch() {
+        while (!ready.isEmpty() && (capacity <= 0 || inUse < capacity)) {
+            Consumer consumer = ready.poll();
+            consumer.scheduled = false;
+            Waiter waiter = consumer.waiters.poll();
+            waiting--;
+            consumer.inUse++;
+            inUse++;
+            virtualClock = consumer.virtualTime;
+            consumer.virtualTime += 1.0 / consumer.weight;
+            waiter.granted = true;
+            waiter.condition.signal();
+            schedule(consumer);
+        }
+    }
+
+    /**
+     * Queue the consumer if it has waiting threads and free quota. Its virtual time must not
+     * change while it is queued.
+     */
+    private void schedule(Consumer consumer) {
+        if (!consumer.scheduled && !consumer.waiters.isEmpty() && hasQuota(consumer)) {
+            consumer.scheduled = true;
+            ready.add(consumer);
+        }
+    }
+
+    private void cancel(Consumer consumer, Waiter waiter) {
+        consumer.waiters.remove(waiter);
+        waiting--;
+        if (consumer.scheduled && consumer.waiters.isEmpty()) {
+            ready.remove(consumer);
+            consumer.scheduled = false;
+        }
+    }
+
+    private boolean hasQuota(Consumer consumer) {
+        return quota <= 0 || consumer.inUse < quota;
+    }
+
+    private String getBusyMessage(Consumer consumer) {
+        if (!hasQuota(consumer)) {
+            return "All " + quota + " connections allowed for " + consumer.name + " are in use";
+        }
+        return "No connection available for " + consumer.name + " within " + timeoutMillis + " ms";
+    }
+
+    /**
+     * A thread waiting for a permit.
+     */
+    private static final class Waiter {
+
+        private final Condition condition;
+        private boolean granted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Connection usage of one consumer. Guarded by the lock of the scheduler.
+     */
+    static final class Consumer {
+
+        private final String name;
+        private final int weight;
+        private final Queue<Waiter> waiters;
+        private int inUse;
+        private double virtualTime;
+        private boolean scheduled;
+
+        private Consumer(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+            this.waiters = new ArrayDeque<Waiter>();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of positive long values with logarithmic buckets in the style of
+ * HdrHistogram. Each power of two range is split into 16 linear sub buckets, so a value is
+ * recorded with a relative error below 1/16. Values from 0 to 2^40 are covered, larger values are
+ * counted in the last bucket. Bucket counts are striped by thread like {@link StripedCounter}.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] counts;
+    private final StripedCounter total;
+    private final StripedCounter sum;
+    private final AtomicLong max;
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray[StripedCounter.STRIPES];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.total = new StripedCounter();
+        this.sum = new StripedCounter();
+        this.max = new AtomicLong();
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[StripedCounter.stripe()].incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    long getCount() {
+        return total.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    long getSum() {
+        return sum.sum();
+    }
+
+    long getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return highest value of the bucket containing the percentile, 0 if nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                merged[i] += c;
+                count += c;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param bounds ascending upper bounds
+     * @return for each bound the number of values up to it. A bucket is counted for a bound if
+     *         its highest value is not above the bound, so counts are exact for bounds at bucket
+     *         boundaries and slightly low otherwise.
+     */
+    long[] getCumulativeCounts(long[] bounds) {
+        long[] cumulative = new long[bounds.length];
+        for (AtomicLongArray stripe : counts) {
+            int b = 0;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && b < bounds.length; i++) {
+                while (b < bounds.length && highestValue(i) > bounds[b]) {
+                    cumulative[b++] += seen;
+                }
+                seen += stripe.get(i);
+            }
+            while (b < bounds.length) {
+                cumulative[b++] += seen;
+            }
+        }
+        return cumulative;
+    }
+
+    void reset() {
+        for (AtomicLongArray stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowestValue(bucket + 1) - 1;
+    }
+}
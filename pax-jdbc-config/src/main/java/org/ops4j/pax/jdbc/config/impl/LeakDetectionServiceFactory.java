@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.LeakDetector;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Registers a DataSource so that each consuming bundle gets a view whose connections are
+ * tracked by a {@link LeakDetector}, which reports leaked connections with the bundle that took
+ * them. The DataSource may itself be a {@link ServiceFactory}, e.g. a
+ * {@link ConsumerServiceFactory}.
+ */
+@SuppressWarnings("rawtypes")
+class LeakDetectionServiceFactory implements ServiceFactory {
+
+    private final Object delegate;
+    private final LeakDetector detector;
+
+    LeakDetectionServiceFactory(Object delegate, LeakDetector detector) {
+        this.delegate = delegate;
+        this.detector = detector;
+    }
+
+    @Override
+    public Object getService(Bundle bundle, ServiceRegistration registration) {
+        Object ds = delegate instanceof ServiceFactory
+            ? ((ServiceFactory)delegate).getService(bundle, registration) : delegate;
+        return detector.wrap((DataSource)ds, bundle.getSymbolicName() + " [" + bundle.getBundleId() + "]");
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+        // open connections stay tracked until they are closed
+    }
+}
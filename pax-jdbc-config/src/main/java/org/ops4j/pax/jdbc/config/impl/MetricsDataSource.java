@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionCloseHandler;
+import org.ops4j.pax.jdbc.pool.common.impl.DelegatingDataSource;
+
+/**
+ * DataSource wrapper that records how long {@link #getConnection()} takes and how long each
+ * connection is held until it is closed.
+ */
+public class MetricsDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final DataSourceMetricsImpl metrics;
+
+    MetricsDataSource(DataSource delegate, DataSourceMetricsImpl metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    DataSourceMetricsImpl getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return track(delegate.getConnection(), start);
+        } catch (SQLException | RuntimeException e) {
+            metrics.acquireFailed();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return track(delegate.getConnection(username, password), start);
+        } catch (SQLException | RuntimeException e) {
+            metrics.acquireFailed();
+            throw e;
+        }
+    }
+
+    private Connection track(Connection connection, long start) {
+        final long acquiredAt = System.nanoTime();
+        metrics.acquired(acquiredAt - start);
+        return new ConnectionCloseHandler(connection) {
+
+            @Override
+            protected void closed() {
+                metrics.released(System.nanoTime() - acquiredAt);
+            }
+        }.createProxy();
+    }
+
+    @Override
+    public void close() throws Exception {
+        closeDelegate();
+    }
+}
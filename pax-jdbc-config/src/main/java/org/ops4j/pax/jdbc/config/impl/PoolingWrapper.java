@@ -18,6 +18,8 @@ package org.ops4j.pax.jdbc.config.impl;
 
 import java.sql.Driver;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import javax.sql.ConnectionPoolDataSource;
@@ -26,9 +28,17 @@ import javax.sql.XADataSource;
 
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
 import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class PoolingWrapper implements DataSourceFactory {
-    
+
+    // keys of pax-jdbc DriverDataSourceFactory that make the unpooled DataSource keep
+    // connections open, which the pool does not close
+    private static final List<String> PREFETCH_KEYS = Arrays.asList("prefetch", "prefetchMaxAge");
+
+    private static final Logger LOG = LoggerFactory.getLogger(PoolingWrapper.class);
+
     private PooledDataSourceFactory pdsf;
     private DataSourceFactory dsf;
 
@@ -37,9 +47,43 @@ public class PoolingWrapper implements DataSourceFactory {
         this.dsf = dsf;
     }
 
+    PooledDataSourceFactory getPooledDataSourceFactory() {
+        return pdsf;
+    }
+
+    DataSourceFactory getDataSourceFactory() {
+        return dsf;
+    }
+
+    /**
+     * @return wrapper using the same pooling support for the DataSources of another factory
+     */
+    PoolingWrapper withDataSourceFactory(DataSourceFactory dsf) {
+        return new PoolingWrapper(pdsf, dsf);
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
-        return pdsf.create(dsf, props);
+        return pdsf.create(dsf, withoutPrefetch(props));
+    }
+
+    /**
+     * Pools do not close the DataSource they take their connections from, so its spare
+     * connections would stay open after the pool is closed. The pool keeps connections open
+     * itself anyway.
+     */
+    private static Properties withoutPrefetch(Properties props) {
+        if (props.getProperty(PREFETCH_KEYS.get(0)) == null) {
+            return props;
+        }
+        LOG.warn("Ignoring {} for a pooled DataSource, configure the minimum idle connections of the pool instead",
+            PREFETCH_KEYS.get(0));
+        Properties filtered = new Properties();
+        filtered.putAll(props);
+        for (String key : PREFETCH_KEYS) {
+            filtered.remove(key);
+        }
+        return filtered;
     }
 
     @Override
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directories of secret files and reports the files of a directory once it was quiet
+ * for the debounce time after a change. Whole directories are reported because secrets mounted by
+ * Kubernetes are replaced by swapping a symbolic link, which shows up as an event for the link and
+ * not for the files. Listeners have to check themselves whether a reported file really changed.
+ */
+class SecretFileWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SecretFileWatcher.class);
+
+    interface Listener {
+
+        /**
+         * @param files watched files that may have changed, as they were passed to {@link #watch}
+         */
+        void changed(Set<String> files);
+    }
+
+    private final Listener listener;
+    private final long debounceMillis;
+
+    /**
+     * Watched files by directory and the watch keys of the directories. Guarded by this.
+     */
+    private final Map<Path, Set<String>> files;
+    private final Map<Path, WatchKey> keys;
+
+    /**
+     * Time of the last change of each directory not reported yet. Only used by the watch thread.
+     */
+    private final Map<Path, Long> changed;
+
+    private WatchService watchService;
+    private Thread thread;
+    private boolean closed;
+
+    SecretFileWatcher(Listener listener, long debounceMillis) {
+        this.listener = listener;
+        this.debounceMillis = debounceMillis;
+        this.files = new HashMap<Path, Set<String>>();
+        this.keys = new HashMap<Path, WatchKey>();
+        this.changed = new HashMap<Path, Long>();
+    }
+
+    /**
+     * Watch exactly the given files from now on.
+     *
+     * @param watched paths of the files
+     */
+    synchronized void watch(Set<String> watched) {
+        if (closed) {
+            return;
+        }
+        Map<Path, Set<String>> byDir = new HashMap<Path, Set<String>>();
+        for (String file : watched) {
+            Path dir = Paths.get(file).toAbsolutePath().normalize().getParent();
+            if (dir == null) {
+                continue;
+            }
+            Set<String> dirFiles = byDir.get(dir);
+            if (dirFiles == null) {
+                dirFiles = new HashSet<String>();
+                byDir.put(dir, dirFiles);
+            }
+            dirFiles.add(file);
+        }
+        for (Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, WatchKey> entry = it.next();
+            if (!byDir.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        files.clear();
+        for (Map.Entry<Path, Set<String>> entry : byDir.entrySet()) {
+            Path dir = entry.getKey();
+            try {
+                if (!keys.containsKey(dir)) {
+                    keys.put(dir, dir.register(getWatchService(), StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                }
+                files.put(dir, entry.getValue());
+            } catch (IOException e) {
+                LOG.warn("Can not watch secret files in " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    processEvents();
+                }
+            }, "pax-jdbc-secret-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return watchService;
+    }
+
+    private void processEvents() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        try {
+            while (true) {
+                WatchKey key = changed.isEmpty() ? service.take()
+                    : service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    changed.put((Path) key.watchable(), System.nanoTime());
+                    key.reset();
+                }
+                Set<String> quiet = takeQuiet();
+                if (!quiet.isEmpty()) {
+                    try {
+                        listener.changed(quiet);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Error refreshing secret files " + quiet, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching secret files");
+        }
+    }
+
+    /**
+     * @return files of the directories that did not change within the debounce time
+     */
+    private Set<String> takeQuiet() {
+        long now = System.nanoTime();
+        Set<String> quiet = new HashSet<String>();
+        for (Iterator<Map.Entry<Path, Long>> it = changed.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (now - entry.getValue() >= TimeUnit.MILLISECONDS.toNanos(debounceMillis)) {
+                it.remove();
+                synchronized (this) {
+                    Set<String> dirFiles = files.get(entry.getKey());
+                    if (dirFiles != null) {
+                        quiet.addAll(dirFiles);
+                    }
+                }
+            }
+        }
+        return quiet;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        keys.clear();
+        files.clear();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing watch service: " + e.getMessage());
+            }
+            thread.interrupt();
+        }
+    }
+}
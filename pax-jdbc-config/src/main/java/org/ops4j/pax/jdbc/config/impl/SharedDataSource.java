@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionCloseHandler;
+import org.ops4j.pax.jdbc.pool.common.impl.DelegatingDataSource;
+
+/**
+ * Logical DataSource on a pool shared with other DataSources. Closing it releases the pool
+ * instead of closing it. Optionally limits the connections this DataSource may hold at the same
+ * time, so that it can not take all connections of the shared pool.
+ */
+public class SharedDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final SharedPools.Key key;
+    private final int quotaSize;
+    private final Semaphore quota;
+    private final long quotaTimeoutMillis;
+    private final AtomicBoolean closed;
+
+    /**
+     * @param quota maximum number of connections in use, 0 for no limit
+     * @param quotaTimeoutMillis time to wait for a connection when the quota is used up
+     */
+    SharedDataSource(DataSource delegate, SharedPools.Key key, int quota, long quotaTimeoutMillis) {
+        super(delegate);
+        this.key = key;
+        this.quotaSize = quota;
+        this.quota = quota > 0 ? new Semaphore(quota, true) : null;
+        this.quotaTimeoutMillis = quotaTimeoutMillis;
+        this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * @return the shared pool
+     */
+    DataSource getPool() {
+        return delegate;
+    }
+
+    /**
+     * @return settings the shared pool was acquired with
+     */
+    SharedPools.Key getKey() {
+        return key;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return track(delegate.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return track(delegate.getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws SQLException {
+        if (quota == null) {
+            return;
+        }
+        try {
+            if (!quota.tryAcquire(quotaTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("All " + quotaSize + " connections allowed for this DataSource are in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    private void release() {
+        if (quota != null) {
+            quota.release();
+        }
+    }
+
+    private Connection track(Connection connection) {
+        if (quota == null) {
+            return connection;
+        }
+        return new ConnectionCloseHandler(connection) {
+
+            @Override
+            protected void closed() {
+                release();
+            }
+        }.createProxy();
+    }
+
+    /**
+     * Release the shared pool, it is closed when no other DataSource uses it anymore.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            SharedPools.release(key);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pools shared by DataSources with the same physical connection settings. Each pool is
+ * reference counted and closed when the last DataSource using it is closed.
+ */
+final class SharedPools {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedPools.class);
+
+    private static final Map<Key, Entry> POOLS = new HashMap<>();
+
+    private SharedPools() {
+    }
+
+    interface PoolFactory {
+
+        DataSource create() throws SQLException;
+    }
+
+    /**
+     * Publishes the statistics of a shared pool for one of the DataSources using it. Only one
+     * DataSource of a pool publishes them at a time, so that they are not counted once per
+     * DataSource.
+     */
+    interface StatisticsPublisher {
+
+        void publish();
+
+        void unpublish();
+    }
+
+    /**
+     * Get the pool for the given settings, creating it if no other DataSource uses it yet. The
+     * pool is created outside of the lock of all pools, other DataSources with the same
+     * settings wait for it meanwhile.
+     *
+     * @param credentials factory below the pool that can set rotated credentials, kept for all
+     *            DataSources using the pool if this one creates it
+     * @return the pool, to be released with {@link #release} when no longer used
+     */
+    static DataSource acquire(Key key, CredentialsDataSourceFactory credentials, PoolFactory factory)
+        throws SQLException {
+        Entry entry;
+        boolean create;
+        synchronized (POOLS) {
+            entry = POOLS.get(key);
+            create = entry == null;
+            if (create) {
+                entry = new Entry(credentials);
+                POOLS.put(key, entry);
+            }
+            entry.references++;
+        }
+        if (create) {
+            try {
+                entry.complete(factory.create(), null);
+            } catch (SQLException | RuntimeException e) {
+                synchronized (POOLS) {
+                    if (POOLS.get(key) == entry) {
+                        POOLS.remove(key);
+                    }
+                }
+                entry.complete(null, e);
+                throw e;
+            }
+        }
+        try {
+            return entry.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(key, entry);
+            throw new SQLException("Interrupted while waiting for the shared pool", e);
+        }
+    }
+
+    static int getReferences(Key key) {
+        synchronized (POOLS) {
+            Entry entry = POOLS.get(key);
+            return entry != null ? entry.references : 0;
+        }
+    }
+
+    /**
+     * @return factory below the pool that can set rotated credentials, null if there is none
+     */
+    static CredentialsDataSourceFactory getCredentials(Key key) {
+        synchronized (POOLS) {
+            Entry entry = POOLS.get(key);
+            return entry != null ? entry.credentials : null;
+        }
+    }
+
+    /**
+     * Offer to publish the statistics of a pool. The first DataSource still using the pool
+     * publishes them.
+     */
+    static void addStatisticsPublisher(Key key, StatisticsPublisher publisher) {
+        Entry entry;
+        synchronized (POOLS) {
+            entry = POOLS.get(key);
+        }
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            entry.publishers.add(publisher);
+            if (entry.publishers.size() == 1) {
+                publisher.publish();
+            }
+        }
+    }
+
+    /**
+     * Withdraw an offer to publish the statistics of a pool, handing the statistics over to the
+     * next DataSource using the pool if this one published them.
+     */
+    static void removeStatisticsPublisher(Key key, StatisticsPublisher publisher) {
+        Entry entry;
+        synchronized (POOLS) {
+            entry = POOLS.get(key);
+        }
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            int index = entry.publishers.indexOf(publisher);
+            if (index < 0) {
+                return;
+            }
+            entry.publishers.remove(index);
+            if (index == 0) {
+                publisher.unpublish();
+                if (!entry.publishers.isEmpty()) {
+                    entry.publishers.get(0).publish();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop using a pool and close it if no other DataSource uses it anymore.
+     */
+    static void release(Key key) {
+        Entry entry;
+        synchronized (POOLS) {
+            entry = POOLS.get(key);
+        }
+        if (entry != null) {
+            release(key, entry);
+        }
+    }
+
+    private static void release(Key key, Entry entry) {
+        synchronized (POOLS) {
+            if (--entry.references > 0) {
+                return;
+            }
+            if (POOLS.get(key) == entry) {
+                POOLS.remove(key);
+            }
+        }
+        DataSource pool = entry.pool;
+        if (pool instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) pool).close();
+            } catch (Exception e) {
+                LOG.warn("Error closing shared pool " + pool.getClass() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Physical connection settings: the pooling support, the driver and the properties passed
+     * to them. The factories are compared by identity.
+     */
+    static final class Key {
+
+        private final Object pooledDataSourceFactory;
+        private final Object dataSourceFactory;
+        private final Properties props;
+
+        Key(Object pooledDataSourceFactory, Object dataSourceFactory, Properties props) {
+            this.pooledDataSourceFactory = pooledDataSourceFactory;
+            this.dataSourceFactory = dataSourceFactory;
+            this.props = props;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pooledDataSourceFactory == other.pooledDataSourceFactory
+                && dataSourceFactory == other.dataSourceFactory && props.equals(other.props);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(pooledDataSourceFactory)
+                + System.identityHashCode(dataSourceFactory)) + props.hashCode();
+        }
+    }
+
+    /**
+     * A pool that is created or already available.
+     */
+    private static final class Entry {
+
+        private final CredentialsDataSourceFactory credentials;
+        private final CountDownLatch created;
+        private final List<StatisticsPublisher> publishers;
+        private volatile DataSource pool;
+        private volatile Exception failure;
+        private int references;
+
+        Entry(CredentialsDataSourceFactory credentials) {
+            this.credentials = credentials;
+            this.created = new CountDownLatch(1);
+            this.publishers = new ArrayList<>();
+        }
+
+        void complete(DataSource pool, Exception failure) {
+            this.pool = pool;
+            this.failure = failure;
+            created.countDown();
+        }
+
+        DataSource await() throws SQLException, InterruptedException {
+            created.await();
+            if (failure instanceof SQLException) {
+                throw new SQLException("Creating the shared pool failed: " + failure.getMessage(), failure);
+            } else if (failure != null) {
+                throw new SQLException("Creating the shared pool failed: " + failure, failure);
+            }
+            return pool;
+        }
+    }
+}
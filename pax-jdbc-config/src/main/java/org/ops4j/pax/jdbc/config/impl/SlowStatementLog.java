@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ops4j.pax.jdbc.config.StatementSummary;
+
+/**
+ * Keeps the slowest executions seen. Each thread stripe holds its own top N guarded by its own
+ * lock, and an execution faster than the fastest entry of a full stripe is rejected with a single
+ * volatile read, so the common case takes no lock.
+ */
+class SlowStatementLog {
+
+    private final int size;
+    private final Stripe[] stripes;
+
+    SlowStatementLog(int size) {
+        this.size = size;
+        this.stripes = new Stripe[StripedCounter.STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(size);
+        }
+    }
+
+    void offer(String shape, long nanos) {
+        Stripe stripe = stripes[StripedCounter.stripe()];
+        if (nanos > stripe.threshold) {
+            stripe.offer(shape, nanos);
+        }
+    }
+
+    /**
+     * @return the slowest executions of all stripes, slowest first
+     */
+    List<StatementSummary> getSlowest() {
+        List<StatementSummary> all = new ArrayList<StatementSummary>();
+        for (Stripe stripe : stripes) {
+            stripe.copyTo(all);
+        }
+        Collections.sort(all, new Comparator<StatementSummary>() {
+
+            @Override
+            public int compare(StatementSummary s1, StatementSummary s2) {
+                return s1.getMaxTime() < s2.getMaxTime() ? 1
+                    : s1.getMaxTime() == s2.getMaxTime() ? 0 : -1;
+            }
+        });
+        return all.size() > size ? new ArrayList<StatementSummary>(all.subList(0, size)) : all;
+    }
+
+    void reset() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    private static final class Stripe {
+
+        private final String[] shapes;
+        private final long[] nanos;
+        private int count;
+        /** fastest entry once the stripe is full, below which offers are rejected */
+        private volatile long threshold;
+
+        Stripe(int size) {
+            this.shapes = new String[size];
+            this.nanos = new long[size];
+        }
+
+        synchronized void offer(String shape, long time) {
+            if (count < nanos.length) {
+                shapes[count] = shape;
+                nanos[count] = time;
+                count++;
+            } else {
+                int min = indexOfMin();
+                if (time <= nanos[min]) {
+                    return;
+                }
+                shapes[min] = shape;
+                nanos[min] = time;
+            }
+            if (count == nanos.length) {
+                threshold = nanos[indexOfMin()];
+            }
+        }
+
+        private int indexOfMin() {
+            int min = 0;
+            for (int i = 1; i < count; i++) {
+                if (nanos[i] < nanos[min]) {
+                    min = i;
+                }
+            }
+            return min;
+        }
+
+        synchronized void copyTo(List<StatementSummary> target) {
+            for (int i = 0; i < count; i++) {
+                long micros = nanos[i] / 1000;
+                target.add(new StatementSummary(shapes[i], 1, micros, micros, 0));
+            }
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < count; i++) {
+                shapes[i] = null;
+            }
+            count = 0;
+            threshold = 0;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+/**
+ * Reduces SQL text to its shape, so that executions differing only in literal values are counted
+ * together. String and numeric literals become <code>?</code>, lists of parameters like
+ * <code>IN (?, ?, ?)</code> become <code>(?)</code> and whitespace is collapsed.
+ */
+final class SqlShape {
+
+    static final int MAX_LENGTH = 2048;
+
+    private SqlShape() {
+    }
+
+    static String of(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        int length = sql.length();
+        StringBuilder shape = new StringBuilder(Math.min(length, MAX_LENGTH));
+        int i = 0;
+        while (i < length && shape.length() < MAX_LENGTH) {
+            char ch = sql.charAt(i);
+            if (ch == '\'') {
+                i = skipString(sql, i + 1);
+                appendParameter(shape);
+            } else if (isNumberStart(sql, i)) {
+                i = skipNumber(sql, i);
+                appendParameter(shape);
+            } else if (Character.isWhitespace(ch)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (shape.length() > 0 && i < length) {
+                    shape.append(' ');
+                }
+            } else if (ch == '?') {
+                i++;
+                appendParameter(shape);
+            } else {
+                shape.append(ch);
+                i++;
+            }
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Append a parameter, folding a list like "(?, ?" into "(?".
+     */
+    private static void appendParameter(StringBuilder shape) {
+        int end = shape.length();
+        int pos = end - 1;
+        while (pos >= 0 && shape.charAt(pos) == ' ') {
+            pos--;
+        }
+        if (pos >= 0 && shape.charAt(pos) == ',') {
+            int prev = pos - 1;
+            while (prev >= 0 && shape.charAt(prev) == ' ') {
+                prev--;
+            }
+            if (prev >= 1 && shape.charAt(prev) == '?' && isListStart(shape, prev - 1)) {
+                shape.setLength(prev + 1);
+                return;
+            }
+        }
+        shape.append('?');
+    }
+
+    private static boolean isListStart(StringBuilder shape, int pos) {
+        while (pos >= 0 && shape.charAt(pos) == ' ') {
+            pos--;
+        }
+        return pos >= 0 && shape.charAt(pos) == '(';
+    }
+
+    private static int skipString(String sql, int i) {
+        int length = sql.length();
+        while (i < length) {
+            if (sql.charAt(i) == '\'') {
+                if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    private static boolean isNumberStart(String sql, int i) {
+        char ch = sql.charAt(i);
+        boolean digit = ch >= '0' && ch <= '9';
+        if (!digit && !(ch == '-' || ch == '.')) {
+            return false;
+        }
+        if (!digit) {
+            if (i + 1 >= sql.length()) {
+                return false;
+            }
+            char next = sql.charAt(i + 1);
+            if (next < '0' || next > '9') {
+                return false;
+            }
+            if (ch == '-' && i > 0 && isOperand(sql.charAt(i - 1))) {
+                // subtraction, not a negative literal
+                return false;
+            }
+        }
+        // digits inside identifiers like T1 or column2 belong to the identifier
+        return i == 0 || !isIdentifierPart(sql.charAt(i - 1));
+    }
+
+    private static boolean isOperand(char ch) {
+        return isIdentifierPart(ch) || ch == ')' || ch == '?';
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$' || ch == '"' || ch == '.';
+    }
+
+    private static int skipNumber(String sql, int i) {
+        int length = sql.length();
+        i++;
+        while (i < length) {
+            char ch = sql.charAt(i);
+            if (ch >= '0' && ch <= '9' || ch == '.') {
+                i++;
+            } else if ((ch == 'e' || ch == 'E') && i + 1 < length) {
+                i++;
+                if (sql.charAt(i) == '+' || sql.charAt(i) == '-') {
+                    i++;
+                }
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+}
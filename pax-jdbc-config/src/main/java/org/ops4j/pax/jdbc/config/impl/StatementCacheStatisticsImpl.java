@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import org.ops4j.pax.jdbc.config.StatementCacheStatistics;
+
+class StatementCacheStatisticsImpl implements StatementCacheStatistics {
+
+    private final String dataSourceName;
+    private final int size;
+    private final StripedCounter hits;
+    private final StripedCounter misses;
+    private final StripedCounter evictions;
+    private final StripedCounter cached;
+
+    StatementCacheStatisticsImpl(String dataSourceName, int size) {
+        this.dataSourceName = dataSourceName;
+        this.size = size;
+        this.hits = new StripedCounter();
+        this.misses = new StripedCounter();
+        this.evictions = new StripedCounter();
+        this.cached = new StripedCounter();
+    }
+
+    void hit() {
+        hits.increment();
+        cached.decrement();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void cached() {
+        cached.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+        cached.decrement();
+    }
+
+    void discarded(int count) {
+        cached.add(-count);
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getCached() {
+        return cached.sum();
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+}
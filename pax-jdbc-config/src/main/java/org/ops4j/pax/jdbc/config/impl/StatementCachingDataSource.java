@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DataSource whose connections keep closed prepared and callable statements in a per connection
+ * LRU cache and hand them out again when the same SQL is prepared with the same options.
+ * Statements are only really closed when evicted or when the connection is closed. When a
+ * statement is returned its result set is closed, parameters, batch and warnings are cleared and
+ * settings like the fetch size are restored to the values it was prepared with. Statements whose
+ * cursor name or escape processing was changed are closed instead, as those cannot be read back.
+ */
+public class StatementCachingDataSource implements DataSource, AutoCloseable {
+
+    private static Logger LOG = LoggerFactory.getLogger(StatementCachingDataSource.class);
+
+    private final DataSource delegate;
+    private final StatementCacheStatisticsImpl statistics;
+
+    StatementCachingDataSource(DataSource delegate, StatementCacheStatisticsImpl statistics) {
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(delegate.getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { Connection.class }, new ConnectionHandler(connection));
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("this datasource does not use java.util.logging");
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Identifies a statement by its SQL and the options it was prepared with.
+     */
+    private static final class Key {
+
+        private final String method;
+        private final Object[] args;
+        private final int hash;
+
+        Key(String method, Object[] args) {
+            this.method = method;
+            this.args = args;
+            this.hash = 31 * method.hashCode() + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && method.equals(other.method) && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final Map<Key, PreparedStatement> idle;
+        private boolean closed;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+            this.idle = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if (("prepareStatement".equals(name) || "prepareCall".equals(name)) && isCacheable(args)) {
+                return prepare((Connection) proxy, method, args);
+            } else if ("close".equals(name) && noArgs) {
+                closeIdle();
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            }
+            return StatementCachingDataSource.invoke(connection, method, args);
+        }
+
+        /**
+         * Only statements prepared with SQL and int options are cached, not those asking for
+         * generated key columns by index or name.
+         */
+        private boolean isCacheable(Object[] args) {
+            for (int i = 1; i < args.length; i++) {
+                if (!(args[i] instanceof Integer)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Object prepare(Connection proxy, Method method, Object[] args) throws Throwable {
+            Key key = new Key(method.getName(), args);
+            PreparedStatement statement;
+            synchronized (this) {
+                statement = idle.remove(key);
+            }
+            if (statement != null) {
+                statistics.hit();
+            } else {
+                statistics.miss();
+                statement = (PreparedStatement) StatementCachingDataSource.invoke(connection, method, args);
+            }
+            Class<?> iface = statement instanceof CallableStatement && "prepareCall".equals(method.getName())
+                ? CallableStatement.class : PreparedStatement.class;
+            return Proxy.newProxyInstance(StatementCachingDataSource.class.getClassLoader(),
+                new Class<?>[] { iface }, new StatementHandler(this, proxy, statement, key));
+        }
+
+        /**
+         * Put a statement the application closed back into the cache, evicting the least recently
+         * used statement if the cache is full.
+         */
+        void release(Key key, PreparedStatement statement) {
+            List<PreparedStatement> toClose = new ArrayList<PreparedStatement>(1);
+            synchronized (this) {
+                if (closed) {
+                    toClose.add(statement);
+                } else {
+                    PreparedStatement previous = idle.put(key, statement);
+                    statistics.cached();
+                    if (previous != null) {
+                        // the same SQL was prepared twice on this connection
+                        toClose.add(previous);
+                        statistics.discarded(1);
+                    }
+                    Iterator<PreparedStatement> it = idle.values().iterator();
+                    while (idle.size() > statistics.getSize() && it.hasNext()) {
+                        toClose.add(it.next());
+                        it.remove();
+                        statistics.evicted();
+                    }
+                }
+            }
+            closeAll(toClose);
+        }
+
+        private void closeIdle() {
+            List<PreparedStatement> toClose;
+            synchronized (this) {
+                closed = true;
+                toClose = new ArrayList<PreparedStatement>(idle.values());
+                idle.clear();
+            }
+            statistics.discarded(toClose.size());
+            closeAll(toClose);
+        }
+
+        private void closeAll(List<PreparedStatement> statements) {
+            for (PreparedStatement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    LOG.debug("Error closing cached statement: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle on a cached statement given to the application. Closing the handle returns the
+     * statement to the cache, the handle itself cannot be used afterwards.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final ConnectionHandler owner;
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final Key key;
+        private boolean closed;
+        // last result sets handed out, closed when the statement is returned
+        private ResultSet results;
+        private ResultSet generatedKeys;
+        // values the changed settings had when the statement was prepared
+        private Map<String, Object> originalSettings;
+        private boolean notResettable;
+
+        StatementHandler(ConnectionHandler owner, Connection connection, PreparedStatement statement, Key key) {
+            this.owner = owner;
+            this.connection = connection;
+            this.statement = statement;
+            this.key = key;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if ("close".equals(name) && noArgs) {
+                if (!closed) {
+                    closed = true;
+                    reset();
+                }
+                return null;
+            } else if ("isClosed".equals(name) && noArgs) {
+                return closed || statement.isClosed();
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name) && noArgs) {
+                return statement.toString();
+            } else if (closed) {
+                throw new SQLException("Statement is closed");
+            } else if ("getConnection".equals(name)) {
+                return connection;
+            } else if (name.startsWith("set") && args != null && args.length == 1) {
+                recordSetting(name);
+            }
+            Object result = StatementCachingDataSource.invoke(statement, method, args);
+            if (result instanceof ResultSet) {
+                if ("getGeneratedKeys".equals(name)) {
+                    generatedKeys = (ResultSet) result;
+                } else {
+                    results = (ResultSet) result;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Remember the value of a statement setting before the application changes it the first
+         * time.
+         */
+        private void recordSetting(String setter) throws SQLException {
+            if ("setCursorName".equals(setter) || "setEscapeProcessing".equals(setter)
+                || "setLargeMaxRows".equals(setter)) {
+                notResettable = true;
+                return;
+            }
+            if (originalSettings != null && originalSettings.containsKey(setter)) {
+                return;
+            }
+            Object original;
+            switch (setter) {
+            case "setMaxRows":
+                original = statement.getMaxRows();
+                break;
+            case "setQueryTimeout":
+                original = statement.getQueryTimeout();
+                break;
+            case "setFetchSize":
+                original = statement.getFetchSize();
+                break;
+            case "setFetchDirection":
+                original = statement.getFetchDirection();
+                break;
+            case "setMaxFieldSize":
+                original = statement.getMaxFieldSize();
+                break;
+            case "setPoolable":
+                original = statement.isPoolable();
+                break;
+            default:
+                // parameters, cleared on return
+                return;
+            }
+            if (originalSettings == null) {
+                originalSettings = new HashMap<String, Object>(4);
+            }
+            originalSettings.put(setter, original);
+        }
+
+        private void restoreSettings() throws SQLException {
+            if (originalSettings == null) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : originalSettings.entrySet()) {
+                Object value = entry.getValue();
+                switch (entry.getKey()) {
+                case "setMaxRows":
+                    statement.setMaxRows((Integer) value);
+                    break;
+                case "setQueryTimeout":
+                    statement.setQueryTimeout((Integer) value);
+                    break;
+                case "setFetchSize":
+                    statement.setFetchSize((Integer) value);
+                    break;
+                case "setFetchDirection":
+                    statement.setFetchDirection((Integer) value);
+                    break;
+                case "setMaxFieldSize":
+                    statement.setMaxFieldSize((Integer) value);
+                    break;
+                case "setPoolable":
+                    statement.setPoolable((Boolean) value);
+                    break;
+                default:
+                    throw new IllegalStateException(entry.getKey());
+                }
+            }
+        }
+
+        /**
+         * Clear state the next user must not see and return the statement to the cache. A
+         * statement that fails to reset or whose settings cannot be restored is closed instead.
+         */
+        private void reset() {
+            try {
+                if (statement.isClosed()) {
+                    return;
+                }
+                if (notResettable) {
+                    throw new SQLException("settings that cannot be restored were changed");
+                }
+                if (results != null) {
+                    results.close();
+                }
+                if (generatedKeys != null) {
+                    generatedKeys.close();
+                }
+                restoreSettings();
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+            } catch (SQLException e) {
+                LOG.debug("Not caching statement that failed to reset: " + e.getMessage());
+                try {
+                    statement.close();
+                } catch (SQLException e2) {
+                    LOG.debug("Error closing statement: " + e2.getMessage());
+                }
+                return;
+            }
+            owner.release(key, statement);
+        }
+    }
+}
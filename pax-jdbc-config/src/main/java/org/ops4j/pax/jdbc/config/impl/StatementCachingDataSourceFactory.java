@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.XADataSource;
+
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps the DataSources created by a DataSourceFactory in a {@link StatementCachingDataSource}.
+ * Placed below the pool, so that statements are cached per physical connection whichever pool
+ * is used.
+ */
+public class StatementCachingDataSourceFactory implements DataSourceFactory {
+
+    private static Logger LOG = LoggerFactory.getLogger(StatementCachingDataSourceFactory.class);
+
+    private final DataSourceFactory dsf;
+    private final StatementCacheStatisticsImpl statistics;
+
+    StatementCachingDataSourceFactory(DataSourceFactory dsf, StatementCacheStatisticsImpl statistics) {
+        this.dsf = dsf;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public DataSource createDataSource(Properties props) throws SQLException {
+        return new StatementCachingDataSource(dsf.createDataSource(props), statistics);
+    }
+
+    @Override
+    public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props) throws SQLException {
+        return dsf.createConnectionPoolDataSource(props);
+    }
+
+    @Override
+    public XADataSource createXADataSource(Properties props) throws SQLException {
+        LOG.info("Statement cache is not supported for XA connections of DataSource {}", statistics.getDataSourceName());
+        return dsf.createXADataSource(props);
+    }
+
+    @Override
+    public Driver createDriver(Properties props) throws SQLException {
+        return dsf.createDriver(props);
+    }
+
+}
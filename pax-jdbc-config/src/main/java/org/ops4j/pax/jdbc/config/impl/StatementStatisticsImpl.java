@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ops4j.pax.jdbc.config.StatementStatistics;
+import org.ops4j.pax.jdbc.config.StatementSummary;
+
+/**
+ * Collects the execution times recorded by {@link StatementStatsDataSource}. The number of SQL
+ * shapes is bounded, executions of further shapes are counted under {@link #OTHER}. The shapes of
+ * SQL strings seen before are cached, so statements executed again are not parsed again.
+ */
+class StatementStatisticsImpl implements StatementStatistics {
+
+    static final String OTHER = "<other>";
+
+    /** Number of distinct SQL strings cached per shape, as strings differing in literals share one. */
+    private static final int SQL_PER_SHAPE = 4;
+
+    private final String dataSourceName;
+    private final int maxShapes;
+    private final ConcurrentMap<String, ShapeStats> shapes;
+    private final ConcurrentMap<String, ShapeStats> bySql;
+    private final AtomicInteger shapeCount;
+    private final SlowStatementLog slowest;
+
+    StatementStatisticsImpl(String dataSourceName, int top, int maxShapes) {
+        this.dataSourceName = dataSourceName;
+        this.maxShapes = maxShapes;
+        this.shapes = new ConcurrentHashMap<String, ShapeStats>(16, 0.75f, StripedCounter.STRIPES);
+        this.bySql = new ConcurrentHashMap<String, ShapeStats>(16, 0.75f, StripedCounter.STRIPES);
+        this.shapeCount = new AtomicInteger();
+        this.slowest = new SlowStatementLog(top);
+    }
+
+    /**
+     * Get the statistics to record executions of a SQL string in. Looked up once per prepared
+     * statement and once per execution of a plain statement.
+     */
+    ShapeStats getBySql(String sql) {
+        if (sql == null) {
+            return get(SqlShape.of(null));
+        }
+        ShapeStats stats = bySql.get(sql);
+        if (stats == null) {
+            stats = get(SqlShape.of(sql));
+            // SQL with inlined literals would fill the cache without bound
+            if (bySql.size() < maxShapes * SQL_PER_SHAPE) {
+                bySql.putIfAbsent(sql, stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the statistics to record executions of a shape in.
+     */
+    ShapeStats get(String shape) {
+        ShapeStats stats = shapes.get(shape);
+        if (stats != null) {
+            return stats;
+        }
+        if (shapeCount.get() >= maxShapes) {
+            shape = OTHER;
+            stats = shapes.get(OTHER);
+            if (stats != null) {
+                return stats;
+            }
+        }
+        stats = new ShapeStats(shape);
+        ShapeStats existing = shapes.putIfAbsent(shape, stats);
+        if (existing != null) {
+            return existing;
+        }
+        shapeCount.incrementAndGet();
+        return stats;
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Override
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    @Override
+    public List<StatementSummary> getSlowestStatements() {
+        return slowest.getSlowest();
+    }
+
+    @Override
+    public List<StatementSummary> getShapeSummaries() {
+        List<StatementSummary> summaries = new ArrayList<StatementSummary>(shapes.size());
+        for (Map.Entry<String, ShapeStats> entry : shapes.entrySet()) {
+            StatementSummary summary = entry.getValue().summary();
+            if (summary.getCount() > 0) {
+                summaries.add(summary);
+            }
+        }
+        Collections.sort(summaries, new Comparator<StatementSummary>() {
+
+            @Override
+            public int compare(StatementSummary s1, StatementSummary s2) {
+                return s1.getTotalTime() < s2.getTotalTime() ? 1
+                    : s1.getTotalTime() == s2.getTotalTime() ? 0 : -1;
+            }
+        });
+        return summaries;
+    }
+
+    /**
+     * Zero the counters. The shapes stay registered, as statements prepared before keep
+     * recording into them.
+     */
+    @Override
+    public void reset() {
+        for (ShapeStats stats : shapes.values()) {
+            stats.reset();
+        }
+        slowest.reset();
+    }
+
+    /**
+     * Counters of one SQL shape.
+     */
+    final class ShapeStats {
+
+        private final String shape;
+        private final StripedCounter count;
+        private final StripedCounter totalNanos;
+        private final StripedCounter fetchNanos;
+        private final AtomicLong maxNanos;
+
+        ShapeStats(String shape) {
+            this.shape = shape;
+            this.count = new StripedCounter();
+            this.totalNanos = new StripedCounter();
+            this.fetchNanos = new StripedCounter();
+            this.maxNanos = new AtomicLong();
+        }
+
+        String getShape() {
+            return shape;
+        }
+
+        void executed(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+            slowest.offer(shape, nanos);
+        }
+
+        void fetched(long nanos) {
+            fetchNanos.add(nanos);
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            fetchNanos.reset();
+            maxNanos.set(0);
+        }
+
+        StatementSummary summary() {
+            return new StatementSummary(shape, count.sum(), totalNanos.sum() / 1000,
+                maxNanos.get() / 1000, fetchNanos.sum() / 1000);
+        }
+    }
+}
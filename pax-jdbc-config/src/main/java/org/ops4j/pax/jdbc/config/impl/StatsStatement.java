@@ -0,0 +1,522 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+import org.ops4j.pax.jdbc.config.impl.StatementStatisticsImpl.ShapeStats;
+
+/**
+ * Statement of a {@link StatsConnection}. Times the executions, also the failed ones, and the
+ * time the results are read: from the execution until the result set is closed or its last row
+ * was read. The time of results that are neither is counted until the statement is executed
+ * again or closed. Plain statements look up their SQL shape on each execution, prepared
+ * statements once when prepared.
+ */
+class StatsStatement implements Statement {
+
+    private final Statement delegate;
+    private final Connection connection;
+    final StatementStatisticsImpl statistics;
+    ShapeStats stats;
+    // results of the last execution that are still read, null if there are none
+    private Results results;
+
+    StatsStatement(Statement delegate, Connection connection, StatementStatisticsImpl statistics,
+        ShapeStats stats) {
+        this.delegate = delegate;
+        this.connection = connection;
+        this.statistics = statistics;
+        this.stats = stats;
+    }
+
+    /**
+     * @return start of the execution, after recording the time spent reading the previous results
+     */
+    final long beforeExecute() {
+        endResults();
+        return System.nanoTime();
+    }
+
+    /**
+     * @return start of the execution of a plain statement, whose shape is looked up only after
+     *         the previous results were recorded under the previous shape
+     */
+    private long beforeExecute(String sql) {
+        endResults();
+        stats = statistics.getBySql(sql);
+        return System.nanoTime();
+    }
+
+    /**
+     * Record an execution, called in a finally block so that failed executions are counted.
+     */
+    final void afterExecute(long start) {
+        if (stats != null) {
+            stats.executed(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return result set that records the time until it is read, or closed
+     */
+    final ResultSet track(ResultSet resultSet) {
+        if (resultSet == null || stats == null) {
+            return resultSet;
+        }
+        if (results != null) {
+            if (results.delegate == resultSet) {
+                return results.proxy;
+            }
+            results.end();
+        }
+        results = new Results(resultSet, stats);
+        return results.proxy;
+    }
+
+    private void endResults() {
+        if (results != null) {
+            results.end();
+            results = null;
+        }
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return track(delegate.executeQuery(sql));
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.executeUpdate(sql);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.executeUpdate(sql, autoGeneratedKeys);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.executeUpdate(sql, columnIndexes);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.executeUpdate(sql, columnNames);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.execute(sql);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.execute(sql, autoGeneratedKeys);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.execute(sql, columnIndexes);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return delegate.execute(sql, columnNames);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        long start = beforeExecute();
+        try {
+            return delegate.executeBatch();
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        if (!(this instanceof PreparedStatement)) {
+            stats = statistics.getBySql(sql);
+        }
+        delegate.addBatch(sql);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        endResults();
+        delegate.close();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    // JDBC 4.2 methods, declared without @Override and called reflectively as this is compiled for
+    // Java 7. Without them the defaults of the interfaces would throw.
+
+    public long executeLargeUpdate(String sql) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return (Long) invokeJdbc42(Statement.class, "executeLargeUpdate", new Class<?>[] { String.class }, sql);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return (Long) invokeJdbc42(Statement.class, "executeLargeUpdate", new Class<?>[] { String.class, int.class }, sql, autoGeneratedKeys);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return (Long) invokeJdbc42(Statement.class, "executeLargeUpdate", new Class<?>[] { String.class, int[].class }, sql, columnIndexes);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        long start = beforeExecute(sql);
+        try {
+            return (Long) invokeJdbc42(Statement.class, "executeLargeUpdate", new Class<?>[] { String.class, String[].class }, sql, columnNames);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    public long[] executeLargeBatch() throws SQLException {
+        long start = beforeExecute();
+        try {
+            return (long[]) invokeJdbc42(Statement.class, "executeLargeBatch", new Class<?>[0]);
+        } finally {
+            afterExecute(start);
+        }
+    }
+
+    public long getLargeUpdateCount() throws SQLException {
+        return (Long) invokeJdbc42(Statement.class, "getLargeUpdateCount", new Class<?>[0]);
+    }
+
+    public void setLargeMaxRows(long max) throws SQLException {
+        invokeJdbc42(Statement.class, "setLargeMaxRows", new Class<?>[] { long.class }, max);
+    }
+
+    public long getLargeMaxRows() throws SQLException {
+        return (Long) invokeJdbc42(Statement.class, "getLargeMaxRows", new Class<?>[0]);
+    }
+
+    final Object invokeJdbc42(Class<?> iface, String name, Class<?>[] types, Object... args) throws SQLException {
+        Method method;
+        try {
+            method = iface.getMethod(name, types);
+        } catch (NoSuchMethodException e) {
+            throw new SQLFeatureNotSupportedException(name + " is not supported before Java 8", e);
+        }
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return track(delegate.getResultSet());
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        endResults();
+        return delegate.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate.clearBatch();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        if (current != KEEP_CURRENT_RESULT) {
+            endResults();
+        }
+        return delegate.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate.getGeneratedKeys();
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate.isCloseOnCompletion();
+    }
+
+    /**
+     * Result set of an execution. Records the time from the execution until the last row was
+     * read or the result set was closed. Returns the statement wrapper as its statement.
+     */
+    private final class Results implements InvocationHandler {
+
+        private final ResultSet delegate;
+        private final ShapeStats stats;
+        private final ResultSet proxy;
+        private final long since;
+        private boolean ended;
+
+        Results(ResultSet delegate, ShapeStats stats) {
+            this.delegate = delegate;
+            this.stats = stats;
+            this.proxy = (ResultSet) Proxy.newProxyInstance(StatsStatement.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, this);
+            this.since = System.nanoTime();
+        }
+
+        void end() {
+            if (!ended) {
+                ended = true;
+                stats.fetched(System.nanoTime() - since);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if ("getStatement".equals(name) && noArgs) {
+                return StatsStatement.this;
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            } else if ("close".equals(name) && noArgs) {
+                end();
+            }
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if ("next".equals(name) && Boolean.FALSE.equals(result)) {
+                end();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jasypt.encryption.StringEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of looking up a StringEncryptor by alias. Completes when a StringEncryptor with the
+ * alias is registered. Listeners added to it run on the thread that completes it, so a config
+ * can be processed once its StringEncryptor is there without a thread waiting for it.
+ */
+class StringEncryptorFuture implements Future<StringEncryptor> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StringEncryptorFuture.class);
+
+    private final StringEncryptorTracker tracker;
+    private final String key;
+    private final CountDownLatch done;
+    private List<Runnable> listeners;
+    private volatile StringEncryptor encryptor;
+    private volatile boolean cancelled;
+
+    /**
+     * @param tracker tracker to remove a cancelled future from, null if already completed
+     * @param key key of the alias in the tracker
+     */
+    StringEncryptorFuture(StringEncryptorTracker tracker, String key) {
+        this.tracker = tracker;
+        this.key = key;
+        this.done = new CountDownLatch(1);
+        this.listeners = new ArrayList<Runnable>();
+    }
+
+    static StringEncryptorFuture completed(StringEncryptor encryptor) {
+        StringEncryptorFuture future = new StringEncryptorFuture(null, null);
+        future.complete(encryptor);
+        return future;
+    }
+
+    /**
+     * Set the StringEncryptor and run the listeners.
+     */
+    void complete(StringEncryptor encryptor) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            this.encryptor = encryptor;
+            toRun = listeners;
+            listeners = null;
+            done.countDown();
+        }
+        for (Runnable listener : toRun) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Error notifying about StringEncryptor " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Run a listener once the StringEncryptor is available, right away if it already is.
+     * Listeners of a cancelled future never run.
+     */
+    void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        if (!cancelled) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Stop waiting for the StringEncryptor and drop the listeners.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            listeners = null;
+            done.countDown();
+        }
+        if (tracker != null) {
+            tracker.discard(key, this);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public StringEncryptor get() throws InterruptedException {
+        done.await();
+        return getDone();
+    }
+
+    @Override
+    public StringEncryptor get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getDone();
+    }
+
+    private StringEncryptor getDone() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return encryptor;
+    }
+}
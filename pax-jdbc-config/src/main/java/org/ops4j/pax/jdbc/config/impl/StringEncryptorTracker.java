@@ -16,11 +16,17 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.jasypt.encryption.StringEncryptor;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -43,8 +49,22 @@ public class StringEncryptorTracker extends ServiceTracker {
 
     private final transient Map<String, StringEncryptor> encryptors = Collections.synchronizedSortedMap(new TreeMap<String, StringEncryptor>());
 
+    /**
+     * Futures waiting for a StringEncryptor, by internal store key. Guarded by itself.
+     */
+    private final Map<String, List<StringEncryptorFuture>> waiting = new HashMap<>();
+    private int waitingCount;
+
+    /**
+     * Values decrypted by the tracked StringEncryptors, null if not cached.
+     */
+    private volatile DecryptedValueCache decryptedValues;
+
     static long ENCRYPTOR_SERVICE_TIMEOUT = 30000L;
 
+    // upper bound for futures waiting at the same time, further lookups fail right away
+    static int MAX_WAITING = 1024;
+
     /**
      * Create new StringEncryptor service tracker instance.
      *
@@ -55,7 +75,17 @@ public class StringEncryptorTracker extends ServiceTracker {
     }
 
     /**
-     * Add a StringEncryptor service and store it for Decryptor too. Waiting threads are notified too for a given alias.
+     * Set the cache of decrypted values to drop the values of a StringEncryptor when it is
+     * modified or removed.
+     *
+     * @param decryptedValues cache shared with the Decryptor
+     */
+    void setDecryptedValueCache(final DecryptedValueCache decryptedValues) {
+        this.decryptedValues = decryptedValues;
+    }
+
+    /**
+     * Add a StringEncryptor service and store it for Decryptor too. Futures waiting for the alias are completed.
      *
      * @param reference OSGi service reference
      * @return OSGi service
@@ -66,18 +96,16 @@ public class StringEncryptorTracker extends ServiceTracker {
         final StringEncryptor stringEncryptor = (StringEncryptor) super.addingService(reference);
 
         encryptors.put(key, stringEncryptor);
-
-        final Object lockObject = LockObject.get(key);
-        synchronized (lockObject) {
-            lockObject.notify();
-        }
+        // after the put, so that a value decrypted with a replaced StringEncryptor is not cached
+        invalidate(key);
+        completeWaiting(key, stringEncryptor);
 
         return stringEncryptor;
     }
 
     /**
-     * Modify a StringEncryptor service. Internal store is also updated because alias could be changed. Waiting threads
-     * are notified too for a given alias.
+     * Modify a StringEncryptor service. Internal store is also updated because alias could be changed. Futures
+     * waiting for the alias are completed.
      *
      * @param reference OSGi service reference
      * @param service OSGi service
@@ -88,19 +116,23 @@ public class StringEncryptorTracker extends ServiceTracker {
 
         final StringEncryptor stringEncryptor = (StringEncryptor) service;
 
+        final List<String> previousKeys = new ArrayList<String>();
         for (Iterator<Map.Entry<String, StringEncryptor>> it = encryptors.entrySet().iterator(); it.hasNext();) {
             final Map.Entry<String, StringEncryptor> entry = it.next();
             if (service.equals(entry.getValue())) {
+                previousKeys.add(entry.getKey());
                 it.remove();
             }
         }
 
         encryptors.put(key, stringEncryptor);
-
-        final Object lockObject = LockObject.get(key);
-        synchronized (lockObject) {
-            lockObject.notify();
+        // invalidate after changing the store, so that decryptions that looked up the previous
+        // StringEncryptor can not cache their values any more
+        for (String previousKey : previousKeys) {
+            invalidate(previousKey);
         }
+        invalidate(key);
+        completeWaiting(key, stringEncryptor);
 
         super.modifiedService(reference, service);
     }
@@ -115,6 +147,7 @@ public class StringEncryptorTracker extends ServiceTracker {
     public void removedService(final ServiceReference reference, Object service) {
         final String key = getAlias(reference);
         encryptors.remove(key);
+        invalidate(key);
 
         super.removedService(reference, service);
     }
@@ -137,10 +170,41 @@ public class StringEncryptorTracker extends ServiceTracker {
      * @param alias OSGi service property (alias)
      * @return internal store key
      */
-    private static String getKey(final String alias) {
+    static String getKey(final String alias) {
         return alias != null ? "A" + alias : "X";
     }
 
+    /**
+     * Look up the StringEncryptor for a given alias without blocking.
+     *
+     * @param alias alias of the StringEncryptor (null value is supported too)
+     * @return future that completes when the StringEncryptor is available. It is already
+     *         completed if the StringEncryptor is available now, or with null if too many
+     *         lookups are waiting.
+     */
+    public StringEncryptorFuture getStringEncryptorFuture(final String alias) {
+        final String key = getKey(alias);
+        synchronized (waiting) {
+            final StringEncryptor encryptor = encryptors.get(key);
+            if (encryptor != null) {
+                return StringEncryptorFuture.completed(encryptor);
+            }
+            if (waitingCount >= MAX_WAITING) {
+                LOG.warn("Too many lookups waiting for StringEncryptor services, not waiting for alias: " + alias);
+                return StringEncryptorFuture.completed(null);
+            }
+            final StringEncryptorFuture future = new StringEncryptorFuture(this, key);
+            List<StringEncryptorFuture> futures = waiting.get(key);
+            if (futures == null) {
+                futures = new ArrayList<>();
+                waiting.put(key, futures);
+            }
+            futures.add(future);
+            waitingCount++;
+            return future;
+        }
+    }
+
     /**
      * Get StringEncryptor for a given alias. Thread is waiting for a specific time if service is not available yet.
      *
@@ -148,62 +212,87 @@ public class StringEncryptorTracker extends ServiceTracker {
      * @return StringEncryptor instance
      */
     public StringEncryptor getStringEncryptor(final String alias) {
-        final String key = getKey(alias);
-        StringEncryptor encryptor = encryptors.get(key);
+        final StringEncryptorFuture future = getStringEncryptorFuture(alias);
+        if (!future.isDone() && LOG.isDebugEnabled()) {
+            LOG.debug("Waiting for StringEncryptor with alias: " + alias);
+        }
+
+        StringEncryptor encryptor = null;
+        try {
+            encryptor = future.get(ENCRYPTOR_SERVICE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | CancellationException ex) {
+            future.cancel(false);
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            LOG.warn("Waiting for String encryptor service is interrupted, alias: " + alias);
+        }
 
         if (encryptor == null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Waiting for StringEncryptor with alias: " + alias);
-            }
-            final LockObject lockObject = LockObject.get(key);
-            synchronized (lockObject) {
-                try {
-                    lockObject.wait(ENCRYPTOR_SERVICE_TIMEOUT);
-                } catch (InterruptedException ex) {
-                    LOG.warn("Waiting for String encryptor service is interrupted, alias: " + alias);
-                }
-            }
+            LOG.warn("StringEncryptor service it not available with alias: " + alias);
+        }
 
-            // retry if notified/timed out
-            encryptor = encryptors.get(key);
+        return encryptor;
+    }
 
-            if (encryptor == null) {
-                LOG.warn("StringEncryptor service it not available with alias: " + alias);
+    /**
+     * Complete the futures waiting for a StringEncryptor. Their listeners run on the calling thread.
+     */
+    private void completeWaiting(final String key, final StringEncryptor stringEncryptor) {
+        final List<StringEncryptorFuture> futures;
+        synchronized (waiting) {
+            futures = waiting.remove(key);
+            if (futures == null) {
+                return;
             }
+            waitingCount -= futures.size();
         }
+        for (StringEncryptorFuture future : futures) {
+            future.complete(stringEncryptor);
+        }
+    }
 
-        return encryptor;
+    private void invalidate(final String key) {
+        final DecryptedValueCache cache = decryptedValues;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
     }
 
     /**
-     * Cleanup cached services.
+     * Forget a cancelled future.
      */
-    @Override
-    public void close() {
-        super.close();
-        encryptors.clear();
+    void discard(final String key, final StringEncryptorFuture future) {
+        synchronized (waiting) {
+            final List<StringEncryptorFuture> futures = waiting.get(key);
+            if (futures != null && futures.remove(future)) {
+                waitingCount--;
+                if (futures.isEmpty()) {
+                    waiting.remove(key);
+                }
+            }
+        }
     }
 
     /**
-     * Lock objects used to notify waiting threads for StringEncryptor with a specific alias.
+     * Cleanup cached services and decrypted values and cancel waiting futures.
      */
-    private static class LockObject {
-
-        private static final Map<String, LockObject> LOCKS = new HashMap<>();
-
-        /**
-         * Get lock object for a given key (alias).
-         *
-         * @param key StringEncryptor key, null value is not supported
-         * @return lock object
-         */
-        static synchronized LockObject get(final String key) {
-            LockObject lock = LOCKS.get(key);
-            if (lock == null) {
-                lock = new LockObject();
-                LOCKS.put(key, lock);
+    @Override
+    public void close() {
+        super.close();
+        encryptors.clear();
+        final DecryptedValueCache cache = decryptedValues;
+        if (cache != null) {
+            cache.clear();
+        }
+        final List<StringEncryptorFuture> futures = new ArrayList<>();
+        synchronized (waiting) {
+            for (List<StringEncryptorFuture> list : waiting.values()) {
+                futures.addAll(list);
             }
-            return lock;
+        }
+        for (StringEncryptorFuture future : futures) {
+            future.cancel(false);
         }
     }
 }
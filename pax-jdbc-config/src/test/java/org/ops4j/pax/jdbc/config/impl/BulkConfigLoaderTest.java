@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.service.cm.ManagedServiceFactory;
+
+@SuppressWarnings("rawtypes")
+public class BulkConfigLoaderTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    private final ManagedServiceFactory target = new ManagedServiceFactory() {
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void updated(String pid, Dictionary config) {
+            calls.add("updated " + pid + " " + config.get("dataSourceName") + " " + config.get("url"));
+        }
+
+        @Override
+        public void deleted(String pid) {
+            calls.add("deleted " + pid);
+        }
+    };
+
+    @Test
+    public void testReloadChangedEntries() throws IOException {
+        File file = File.createTempFile("datasources-", ".properties");
+        file.deleteOnExit();
+        write(file, "a.url=jdbc:h2:mem:a\nb.url=jdbc:h2:mem:b\nb.dataSourceName=tenantB\nc.url=jdbc:h2:mem:c\n");
+        BulkConfigLoader loader = new BulkConfigLoader(file.toPath(), target);
+        loader.load();
+        assertEquals(3, calls.size());
+
+        calls.clear();
+        write(file, "a.url=jdbc:h2:mem:a\nb.url=jdbc:h2:mem:b2\nb.dataSourceName=tenantB\n");
+        loader.load();
+        String pid = file.toPath().toAbsolutePath().normalize() + "#";
+        assertEquals(2, calls.size());
+        assertEquals(true, calls.contains("deleted " + pid + "c"));
+        assertEquals(true, calls.contains("updated " + pid + "b tenantB jdbc:h2:mem:b2"));
+
+        calls.clear();
+        loader.load();
+        assertEquals(0, calls.size());
+        // same size, different content
+        write(file, "a.url=jdbc:h2:mem:x\nb.url=jdbc:h2:mem:b2\nb.dataSourceName=tenantB\n");
+        loader.load();
+        assertEquals(1, calls.size());
+
+        calls.clear();
+        loader.close();
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testSameFileNameInOtherDirectory() throws IOException {
+        File dir1 = Files.createTempDirectory("bulk-").toFile();
+        File dir2 = Files.createTempDirectory("bulk-").toFile();
+        File file1 = new File(dir1, "datasources.properties");
+        File file2 = new File(dir2, "datasources.properties");
+        dir1.deleteOnExit();
+        dir2.deleteOnExit();
+        file1.deleteOnExit();
+        file2.deleteOnExit();
+        write(file1, "a.url=jdbc:h2:mem:a1\n");
+        write(file2, "a.url=jdbc:h2:mem:a2\n");
+        BulkConfigLoader loader1 = new BulkConfigLoader(file1.toPath(), target);
+        BulkConfigLoader loader2 = new BulkConfigLoader(file2.toPath(), target);
+        loader1.load();
+        loader2.load();
+        String pid1 = file1.toPath().toAbsolutePath().normalize() + "#a";
+        String pid2 = file2.toPath().toAbsolutePath().normalize() + "#a";
+        assertEquals(2, calls.size());
+        assertEquals(true, calls.contains("updated " + pid1 + " a jdbc:h2:mem:a1"));
+        assertEquals(true, calls.contains("updated " + pid2 + " a jdbc:h2:mem:a2"));
+
+        calls.clear();
+        loader1.close();
+        assertEquals(1, calls.size());
+        assertEquals("deleted " + pid1, calls.get(0));
+        loader2.close();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class ConfigUpdateQueueTest {
+
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private final List<String> applied = new ArrayList<String>();
+
+    private final Executor executor = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    @Test
+    public void testPendingChangeIsReplaced() {
+        ConfigUpdateQueue queue = new ConfigUpdateQueue(executor);
+        queue.submit("pid1", change("pid1 v1"));
+        queue.submit("pid1", change("pid1 v2"));
+        queue.submit("pid2", change("pid2 v1"));
+        assertEquals(2, tasks.size());
+        runAll();
+        assertEquals("[pid1 v2, pid2 v1]", applied.toString());
+    }
+
+    @Test
+    public void testChangesOfPidRunInOrder() {
+        final ConfigUpdateQueue queue = new ConfigUpdateQueue(executor);
+        queue.submit("pid1", new Runnable() {
+
+            @Override
+            public void run() {
+                applied.add("pid1 v1");
+                // submitted while the first change runs
+                queue.submit("pid1", change("pid1 deleted"));
+            }
+        });
+        runAll();
+        assertEquals("[pid1 v1, pid1 deleted]", applied.toString());
+        assertEquals(0, tasks.size());
+    }
+
+    @Test
+    public void testFailingChangeDoesNotBlockPid() {
+        ConfigUpdateQueue queue = new ConfigUpdateQueue(executor);
+        queue.submit("pid1", new Runnable() {
+
+            @Override
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        runAll();
+        queue.submit("pid1", change("pid1 v2"));
+        runAll();
+        assertEquals("[pid1 v2]", applied.toString());
+    }
+
+    private Runnable change(final String name) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                applied.add(name);
+            }
+        };
+    }
+
+    private void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -18,24 +18,31 @@ package org.ops4j.pax.jdbc.config.impl;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.matches;
 import static org.junit.Assert.assertEquals;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.jasypt.encryption.StringEncryptor;
 import org.junit.Assert;
 import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -246,6 +253,8 @@ public class DataSourceConfigManagerTest {
         final String KEY_HIDDEN_JDBC_PASSWORD = "." + DataSourceFactory.JDBC_PASSWORD;
         final String KEY_NONLOCAL_PROPERTY = "nonlocal.property";
         final String KEY_LOCAL_PROPERTY = "localproperty";
+        // driver property with the name of a hidden option
+        final String KEY_DRIVER_PROPERTY = "metrics";
         final String KEY_DATASOURCE_TYPE = "dataSourceType";
         final String KEY_POOL_PROPERTY = "pool.maxTotal";
         final String KEY_FACTORY_PROPERTY = "factory.poolStatements";
@@ -262,6 +271,7 @@ public class DataSourceConfigManagerTest {
         properties.put(DataSourceFactory.JDBC_USER, user);
         properties.put(KEY_HIDDEN_JDBC_PASSWORD, password);
         properties.put(KEY_LOCAL_PROPERTY, VALUE_LOCAL_PROPERTY);
+        properties.put(KEY_DRIVER_PROPERTY, "true");
         properties.put(KEY_NONLOCAL_PROPERTY, "something");
         properties.put(KEY_POOL_PROPERTY, poolMaxTotal);
         properties.put(KEY_FACTORY_PROPERTY, factoryPoolStatements);
@@ -276,6 +286,7 @@ public class DataSourceConfigManagerTest {
         expectedDataSourceProperties.put(DataSourceFactory.JDBC_USER, user);
         expectedDataSourceProperties.put(DataSourceFactory.JDBC_PASSWORD, password);
         expectedDataSourceProperties.put(KEY_LOCAL_PROPERTY, VALUE_LOCAL_PROPERTY);
+        expectedDataSourceProperties.put(KEY_DRIVER_PROPERTY, "true");
         expectedDataSourceProperties.put(KEY_POOL_PROPERTY, poolMaxTotal);
         expectedDataSourceProperties.put(KEY_FACTORY_PROPERTY, factoryPoolStatements);
 
@@ -299,6 +310,252 @@ public class DataSourceConfigManagerTest {
         c.verify();
     }
 
+    /**
+     * With hot swap the new DataSource is registered with a higher ranking before the previous
+     * one is unregistered, and gets its configured ranking back afterwards.
+     */
+    @Test
+    public void testHotSwap() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        String expectedFilter = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+        ServiceReference ref = c.createMock(ServiceReference.class);
+        ServiceReference[] refs = new ServiceReference[] { ref };
+        Decryptor decryptor = c.createMock(Decryptor.class);
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader());
+
+        // initial config
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(expectedFilter));
+        expect(context.getServiceReferences((String) null, expectedFilter)).andReturn(refs);
+        expect(context.getService(ref)).andReturn(dsf);
+        DataSource ds1 = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds1);
+        Connection connection1 = c.createMock(Connection.class);
+        expect(ds1.getConnection()).andReturn(connection1);
+        connection1.close();
+        ServiceRegistration sreg1 = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(anyString(), anyObject(), anyObject(Dictionary.class))).andReturn(sreg1);
+        Dictionary<String, String> properties1 = createHotSwapConfig("sa");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties1);
+
+        c.replay();
+        dsManager.updated(TESTPID, properties1);
+        c.verify();
+
+        // updated config
+        c.reset();
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(expectedFilter));
+        expect(context.getServiceReferences((String) null, expectedFilter)).andReturn(refs);
+        expect(context.getService(ref)).andReturn(dsf);
+        DataSource ds2 = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds2);
+        Connection connection2 = c.createMock(Connection.class);
+        expect(ds2.getConnection()).andReturn(connection2);
+        connection2.close();
+        ServiceRegistration sreg2 = c.createMock(ServiceRegistration.class);
+        Capture<Dictionary> registeredProps = new Capture<Dictionary>();
+        expect(context.registerService(anyString(), anyObject(), capture(registeredProps))).andReturn(sreg2);
+        Dictionary<String, String> properties2 = createHotSwapConfig("other");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties2);
+
+        // previous DataSource is closed only after the new one is registered
+        context.removeServiceListener(EasyMock.anyObject(ServiceListener.class));
+        expect(context.ungetService(ref)).andReturn(true);
+        sreg1.unregister();
+        Capture<Dictionary> updatedProps = new Capture<Dictionary>();
+        sreg2.setProperties(capture(updatedProps));
+
+        c.replay();
+        dsManager.updated(TESTPID, properties2);
+        c.verify();
+
+        assertEquals(1, registeredProps.getValue().get(Constants.SERVICE_RANKING));
+        Assert.assertNull(updatedProps.getValue().get(Constants.SERVICE_RANKING));
+    }
+
+    /**
+     * If the new DataSource can not be warmed up, it is closed and the previous one is kept.
+     */
+    @Test
+    public void testHotSwapKeepsPreviousOnFailedWarmUp() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        String expectedFilter = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+        ServiceReference ref = c.createMock(ServiceReference.class);
+        ServiceReference[] refs = new ServiceReference[] { ref };
+        Decryptor decryptor = c.createMock(Decryptor.class);
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader());
+
+        // initial config
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(expectedFilter));
+        expect(context.getServiceReferences((String) null, expectedFilter)).andReturn(refs);
+        expect(context.getService(ref)).andReturn(dsf);
+        DataSource ds1 = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds1);
+        Connection connection1 = c.createMock(Connection.class);
+        expect(ds1.getConnection()).andReturn(connection1);
+        connection1.close();
+        ServiceRegistration sreg1 = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(anyString(), anyObject(), anyObject(Dictionary.class))).andReturn(sreg1);
+        Dictionary<String, String> properties1 = createHotSwapConfig("sa");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties1);
+
+        c.replay();
+        dsManager.updated(TESTPID, properties1);
+        c.verify();
+
+        // updated config whose database does not accept connections
+        c.reset();
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(expectedFilter));
+        expect(context.getServiceReferences((String) null, expectedFilter)).andReturn(refs);
+        expect(context.getService(ref)).andReturn(dsf);
+        DataSource ds2 = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds2);
+        expect(ds2.getConnection()).andThrow(new SQLException("Connection refused"));
+        ServiceRegistration sreg2 = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(anyString(), anyObject(), anyObject(Dictionary.class))).andReturn(sreg2);
+        Dictionary<String, String> properties2 = createHotSwapConfig("other");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties2);
+
+        // only the new DataSource is closed
+        context.removeServiceListener(EasyMock.anyObject(ServiceListener.class));
+        expect(context.ungetService(ref)).andReturn(true);
+        sreg2.unregister();
+
+        c.replay();
+        dsManager.updated(TESTPID, properties2);
+        c.verify();
+    }
+
+    /**
+     * If the DataSourceFactory of the update is not registered yet, the update replaces the
+     * previous DataSource as without hot swap instead of being dropped.
+     */
+    @Test
+    public void testHotSwapWithMissingDriverReplacesPrevious() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        String expectedFilter = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+        String missingFilter = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.example.Driver))";
+        ServiceReference ref = c.createMock(ServiceReference.class);
+        ServiceReference[] refs = new ServiceReference[] { ref };
+        Decryptor decryptor = c.createMock(Decryptor.class);
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader());
+
+        // initial config
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(expectedFilter));
+        expect(context.getServiceReferences((String) null, expectedFilter)).andReturn(refs);
+        expect(context.getService(ref)).andReturn(dsf);
+        DataSource ds1 = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds1);
+        Connection connection1 = c.createMock(Connection.class);
+        expect(ds1.getConnection()).andReturn(connection1);
+        connection1.close();
+        ServiceRegistration sreg1 = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(anyString(), anyObject(), anyObject(Dictionary.class))).andReturn(sreg1);
+        Dictionary<String, String> properties1 = createHotSwapConfig("sa");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties1);
+
+        c.replay();
+        dsManager.updated(TESTPID, properties1);
+        c.verify();
+
+        // updated config naming a driver that is not installed yet
+        c.reset();
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(missingFilter));
+        expect(context.getServiceReferences((String) null, missingFilter)).andReturn(null);
+        Dictionary<String, String> properties2 = createHotSwapConfig("sa");
+        properties2.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "org.example.Driver");
+        expect(decryptor.decrypt(anyObject(Dictionary.class))).andReturn(properties2);
+        context.removeServiceListener(EasyMock.anyObject(ServiceListener.class));
+        expect(context.ungetService(ref)).andReturn(true);
+        sreg1.unregister();
+
+        c.replay();
+        dsManager.updated(TESTPID, properties2);
+        c.verify();
+
+        // the tracker of the update is kept and waits for the driver
+        c.reset();
+        context.removeServiceListener(EasyMock.anyObject(ServiceListener.class));
+        c.replay();
+        dsManager.deleted(TESTPID);
+        c.verify();
+    }
+
+    private Dictionary<String, String> createHotSwapConfig(String user) {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, H2_DRIVER_CLASS);
+        properties.put(DataSourceFactory.JDBC_USER, user);
+        properties.put(DataSourceRegistration.HOT_SWAP, "true");
+        return properties;
+    }
+
+    /**
+     * An update that only changes tunable pool settings is applied to the live pool.
+     */
+    @Test
+    public void testRetune() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        String pdsfFilter = "(&(objectClass=org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory)(pool=native)(xa=false))";
+        String dsfFilter = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(pdsfFilter));
+        ServiceReference pdsfRef = c.createMock(ServiceReference.class);
+        expect(context.getServiceReferences((String) null, pdsfFilter)).andReturn(new ServiceReference[] { pdsfRef });
+        TunablePooledDataSourceFactory pdsf = c.createMock(TunablePooledDataSourceFactory.class);
+        expect(context.getService(pdsfRef)).andReturn(pdsf);
+
+        context.addServiceListener(EasyMock.anyObject(ServiceListener.class), EasyMock.eq(dsfFilter));
+        ServiceReference dsfRef = c.createMock(ServiceReference.class);
+        expect(context.getServiceReferences((String) null, dsfFilter)).andReturn(new ServiceReference[] { dsfRef });
+        DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        expect(context.getService(dsfRef)).andReturn(dsf);
+
+        DataSource ds = c.createMock(DataSource.class);
+        expect(pdsf.create(eq(dsf), anyObject(Properties.class))).andReturn(ds);
+        ServiceRegistration sreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(anyString(), eq(ds), anyObject(Dictionary.class))).andReturn(sreg);
+
+        Decryptor decryptor = new Decryptor(c.createMock(StringEncryptorTracker.class));
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, decryptor, new ExternalConfigLoader());
+
+        c.replay();
+        dsManager.updated(TESTPID, createPooledConfig("8"));
+        c.verify();
+
+        c.reset();
+        expect(pdsf.isTunable("pool.maxTotal")).andReturn(true);
+        Properties expectedPoolProps = new Properties();
+        expectedPoolProps.put(DataSourceFactory.JDBC_DATABASE_NAME, "mydbname");
+        expectedPoolProps.put("pool.maxTotal", "16");
+        pdsf.tune(ds, expectedPoolProps);
+        Capture<Dictionary> updatedProps = new Capture<Dictionary>();
+        sreg.setProperties(capture(updatedProps));
+
+        c.replay();
+        dsManager.updated(TESTPID, createPooledConfig("16"));
+        c.verify();
+
+        assertEquals("16", updatedProps.getValue().get("pool.maxTotal"));
+        assertEquals("test", updatedProps.getValue().get(DataSourceRegistration.JNDI_SERVICE_NAME));
+    }
+
+    private Dictionary<String, String> createPooledConfig(String maxTotal) {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, H2_DRIVER_CLASS);
+        properties.put(DataSourceFactory.JDBC_DATABASE_NAME, "mydbname");
+        properties.put(PooledDataSourceFactory.POOL_KEY, "native");
+        properties.put("pool.maxTotal", maxTotal);
+        return properties;
+    }
+
     private Decryptor createDecryptor(IMocksControl c) throws Exception {
         StringEncryptor encryptor = c.createMock(StringEncryptor.class);
         expect(encryptor.decrypt(matches("ciphertext"))).andReturn("plaintext");
@@ -21,9 +21,12 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.same;
 import static org.junit.Assert.assertEquals;
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Properties;
@@ -35,7 +38,12 @@ import javax.sql.XADataSource;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
+import org.junit.Assert;
 import org.junit.Test;
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceRegistration;
@@ -96,6 +104,51 @@ public class DataSourceRegistrationTest {
         c.verify();
     }
 
+    @Test
+    public void testPublishedWithMetrics() throws SQLException {
+        Capture<DataSource> capturedDs = new Capture<DataSource>();
+
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+
+        DataSource ds = c.createMock(DataSource.class);
+        expect(dsf.createDataSource(anyObject(Properties.class))).andReturn(ds);
+        Connection connection = c.createMock(Connection.class);
+        expect(ds.getConnection()).andReturn(connection);
+        connection.close();
+
+        // Expect the instrumented DataSource and its metrics are registered as services
+        ServiceRegistration dsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(DataSource.class.getName()), capture(capturedDs),
+            anyObject(Dictionary.class))).andReturn(dsSreg);
+        ServiceRegistration metricsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(DataSourceMetrics.class.getName()),
+            anyObject(DataSourceMetrics.class), anyObject(Dictionary.class))).andReturn(metricsSreg);
+        metricsSreg.unregister();
+        expectLastCall();
+        dsSreg.unregister();
+        expectLastCall();
+
+        c.replay();
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "metricsTest");
+        properties.put(DataSourceRegistration.METRICS, "true");
+        DataSourceRegistration publisher = new DataSourceRegistration(context, dsf, properties, properties);
+
+        MetricsDataSource metricsDs = (MetricsDataSource) capturedDs.getValue();
+        DataSourceMetrics metrics = metricsDs.getMetrics();
+        Connection wrapped = metricsDs.getConnection();
+        assertEquals(1, metrics.getInUse());
+        wrapped.close();
+        wrapped.close();
+        assertEquals(0, metrics.getInUse());
+        assertEquals(1, metrics.getAcquired());
+        assertEquals(0, metrics.getAcquireFailures());
+        publisher.close();
+        c.verify();
+    }
+
     @Test
     public void testPublishedConnectionPoolDS() throws ConfigurationException,
         InvalidSyntaxException, SQLException {
@@ -155,6 +208,186 @@ public class DataSourceRegistrationTest {
         c.verify();
     }
 
+    @Test
+    public void testSharedPool() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = c.createMock(PooledDataSourceFactory.class);
+        PoolingWrapper poolingWrapper = new PoolingWrapper(pdsf, dsf);
+
+        // Expect only one pool for both DataSources, closed with the last of them
+        CloseableDataSource pool = c.createMock(CloseableDataSource.class);
+        expect(pdsf.create(anyObject(DataSourceFactory.class), anyObject(Properties.class))).andReturn(pool);
+        Connection connection = c.createMock(Connection.class);
+        expect(pool.getConnection()).andReturn(connection);
+        connection.close();
+        expectLastCall();
+
+        Capture<DataSource> capturedDs = new Capture<DataSource>();
+        ServiceRegistration dsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(DataSource.class.getName()), capture(capturedDs),
+            anyObject(Dictionary.class))).andReturn(dsSreg).times(2);
+        dsSreg.unregister();
+        expectLastCall().times(2);
+
+        c.replay();
+        DataSourceRegistration first = new DataSourceRegistration(context, poolingWrapper,
+            createSharedConfig("first", "1"), createSharedConfig("first", "1"));
+        DataSourceRegistration second = new DataSourceRegistration(context, poolingWrapper,
+            createSharedConfig("second", "1"), createSharedConfig("second", "1"));
+
+        DataSource secondDs = capturedDs.getValue();
+        Connection wrapped = secondDs.getConnection();
+        try {
+            secondDs.getConnection();
+            Assert.fail("Quota of 1 connection exceeded");
+        } catch (SQLTransientConnectionException e) {
+            // expected
+        }
+        wrapped.close();
+
+        first.close();
+        c.verify();
+
+        c.reset();
+        dsSreg.unregister();
+        expectLastCall();
+        pool.close();
+        expectLastCall();
+        c.replay();
+        second.close();
+        c.verify();
+    }
+
+    @Test
+    public void testSharedPoolStatisticsPublishedOnce() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        MonitoredPooledDataSourceFactory pdsf = c.createMock(MonitoredPooledDataSourceFactory.class);
+        PoolingWrapper poolingWrapper = new PoolingWrapper(pdsf, dsf);
+
+        CloseableDataSource pool = c.createMock(CloseableDataSource.class);
+        expect(pdsf.create(anyObject(DataSourceFactory.class), anyObject(Properties.class))).andReturn(pool);
+        PoolStatistics statistics = c.createMock(PoolStatistics.class);
+        expect(pdsf.getStatistics(pool)).andReturn(statistics).times(2);
+
+        ServiceRegistration dsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(DataSource.class.getName()), anyObject(),
+            anyObject(Dictionary.class))).andReturn(dsSreg).times(2);
+        Capture<Dictionary> capturedProps = new Capture<Dictionary>();
+        ServiceRegistration statisticsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(PoolStatistics.class.getName()), same(statistics),
+            capture(capturedProps))).andReturn(statisticsSreg);
+
+        c.replay();
+        DataSourceRegistration first = new DataSourceRegistration(context, poolingWrapper,
+            createSharedConfig("first", "0"), createSharedConfig("first", "0"));
+        DataSourceRegistration second = new DataSourceRegistration(context, poolingWrapper,
+            createSharedConfig("second", "0"), createSharedConfig("second", "0"));
+        c.verify();
+        assertEquals("first", capturedProps.getValue().get(PoolStatistics.DATASOURCE_NAME));
+
+        // the statistics move to the DataSource that still uses the pool
+        c.reset();
+        dsSreg.unregister();
+        expectLastCall();
+        statisticsSreg.unregister();
+        expectLastCall();
+        expect(context.registerService(eq(PoolStatistics.class.getName()), same(statistics),
+            capture(capturedProps))).andReturn(statisticsSreg);
+        c.replay();
+        first.close();
+        c.verify();
+        assertEquals("second", capturedProps.getValue().get(PoolStatistics.DATASOURCE_NAME));
+
+        c.reset();
+        dsSreg.unregister();
+        expectLastCall();
+        statisticsSreg.unregister();
+        expectLastCall();
+        pool.close();
+        expectLastCall();
+        c.replay();
+        second.close();
+        c.verify();
+    }
+
+    private static Dictionary<String, String> createSharedConfig(String name, String quota) {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, name);
+        properties.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:shared");
+        properties.put(DataSourceRegistration.SHARED_POOL, "true");
+        properties.put(DataSourceRegistration.SHARED_POOL_QUOTA, quota);
+        properties.put(DataSourceRegistration.SHARED_POOL_QUOTA_TIMEOUT, "10");
+        return properties;
+    }
+
+    interface CloseableDataSource extends DataSource, AutoCloseable {
+    }
+
+    @Test
+    public void testPoolStatistics() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        MonitoredPooledDataSourceFactory pdsf = c.createMock(MonitoredPooledDataSourceFactory.class);
+        PoolingWrapper poolingWrapper = new PoolingWrapper(pdsf, dsf);
+
+        CloseableDataSource pool = c.createMock(CloseableDataSource.class);
+        expect(pdsf.create(anyObject(DataSourceFactory.class), anyObject(Properties.class))).andReturn(pool);
+        PoolStatistics statistics = c.createMock(PoolStatistics.class);
+        expect(pdsf.getStatistics(pool)).andReturn(statistics);
+
+        ServiceRegistration dsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(DataSource.class.getName()), same(pool),
+            anyObject(Dictionary.class))).andReturn(dsSreg);
+        Capture<Dictionary> capturedProps = new Capture<Dictionary>();
+        ServiceRegistration statisticsSreg = c.createMock(ServiceRegistration.class);
+        expect(context.registerService(eq(PoolStatistics.class.getName()), same(statistics),
+            capture(capturedProps))).andReturn(statisticsSreg);
+
+        c.replay();
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        DataSourceRegistration registration = new DataSourceRegistration(context, poolingWrapper, properties, properties);
+        c.verify();
+        assertEquals("test", capturedProps.getValue().get(PoolStatistics.DATASOURCE_NAME));
+
+        c.reset();
+        dsSreg.unregister();
+        expectLastCall();
+        statisticsSreg.unregister();
+        expectLastCall();
+        pool.close();
+        expectLastCall();
+        c.replay();
+        registration.close();
+        c.verify();
+    }
+
+    @SuppressWarnings("resource")
+    @Test
+    public void testInvalidSettingFailsBeforePoolIsCreated() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext context = c.createMock(BundleContext.class);
+        // no DataSource is expected to be created
+        final DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        c.replay();
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceRegistration.LEAK_DETECTION_THRESHOLD, "1000");
+        properties.put(DataSourceRegistration.LEAK_DETECTION_SAMPLE_RATE, "2");
+        try {
+            new DataSourceRegistration(context, dsf, properties, properties);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        c.verify();
+    }
+
     @SuppressWarnings("resource")
     @Test(expected = IllegalArgumentException.class)
     public void testError() throws ConfigurationException, InvalidSyntaxException, SQLException {
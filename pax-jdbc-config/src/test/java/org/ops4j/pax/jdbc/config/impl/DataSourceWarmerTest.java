@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+
+public class DataSourceWarmerTest {
+
+    @Test
+    public void testWarmUp() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        expect(ds.getConnection()).andReturn(connection).times(3);
+        expect(connection.isValid(anyInt())).andReturn(true).times(3);
+        expect(connection.createStatement()).andReturn(statement);
+        expect(statement.execute("select 1")).andReturn(true);
+        expect(statement.execute("select 2")).andReturn(true);
+        statement.close();
+        expectLastCall();
+        connection.close();
+        expectLastCall().times(3);
+        c.replay();
+
+        assertTrue(new DataSourceWarmer("test", 3, 10000, true, "select 1; select 2;").warmUp(ds));
+        c.verify();
+    }
+
+    @Test
+    public void testInvalidConnection() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        expect(ds.getConnection()).andReturn(connection);
+        expect(connection.isValid(anyInt())).andReturn(false);
+        connection.close();
+        expectLastCall();
+        c.replay();
+
+        assertFalse(new DataSourceWarmer("test", 1, 10000, true, null).warmUp(ds));
+        c.verify();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DecryptedValueCacheTest {
+
+    @Test
+    public void testGet() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, 60000);
+        cache.put("Aalias", 0, "cipher", "secret");
+        assertEquals("secret", cache.get("Aalias", "cipher"));
+        assertNull(cache.get("X", "cipher"));
+        assertNull(cache.get("Aalias", "other"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        DecryptedValueCache cache = new DecryptedValueCache(10, 1);
+        cache.put("X", 0, "cipher", "secret");
+        Thread.sleep(10);
+        assertNull(cache.get("X", "cipher"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        DecryptedValueCache cache = new DecryptedValueCache(2, 60000);
+        cache.put("X", 0, "c1", "p1");
+        cache.put("X", 0, "c2", "p2");
+        cache.get("X", "c1");
+        cache.put("X", 0, "c3", "p3");
+        assertEquals(2, cache.size());
+        assertEquals("p1", cache.get("X", "c1"));
+        assertNull(cache.get("X", "c2"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, 60000);
+        cache.put("Aalias", 0, "c1", "p1");
+        cache.put("Aalias", 0, "c2", "p2");
+        cache.put("X", 0, "c1", "p3");
+        cache.invalidate("Aalias");
+        assertEquals(1, cache.size());
+        assertEquals("p3", cache.get("X", "c1"));
+    }
+
+    @Test
+    public void testValueOfPreviousEncryptorNotCached() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, 60000);
+        long generation = cache.getGeneration("Aalias");
+        // the StringEncryptor changes while a value is being decrypted with the previous one
+        cache.invalidate("Aalias");
+        cache.put("Aalias", generation, "cipher", "stale");
+        assertNull(cache.get("Aalias", "cipher"));
+        cache.put("Aalias", cache.getGeneration("Aalias"), "cipher", "secret");
+        assertEquals("secret", cache.get("Aalias", "cipher"));
+    }
+}
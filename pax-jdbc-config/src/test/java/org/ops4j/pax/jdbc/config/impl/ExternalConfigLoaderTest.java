@@ -20,10 +20,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Set;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 public class ExternalConfigLoaderTest {
@@ -62,6 +65,31 @@ public class ExternalConfigLoaderTest {
         assertEquals("2000", loadedConfig.get("timeout"));
     }
 
+    @Test
+    public void testCachedExternalConfig() throws IOException {
+        final String myExternalPassword = createExternalSecret("password");
+
+        Dictionary<String, Object> dsProps = new Hashtable<>();
+        dsProps.put("password", "FILE(" + myExternalPassword + ")");
+
+        final ExternalConfigLoader externalConfigLoader = new ExternalConfigLoader();
+        externalConfigLoader.enableCache();
+        assertEquals(Collections.singleton(myExternalPassword), ExternalConfigLoader.getReferencedFiles(dsProps));
+        assertEquals("password", externalConfigLoader.resolve(dsProps).get("password"));
+
+        Files.write(Paths.get(myExternalPassword), "rotated".getBytes());
+        assertEquals("password", externalConfigLoader.resolve(dsProps).get("password"));
+
+        final Set<String> files = Collections.singleton(myExternalPassword);
+        assertEquals(files, externalConfigLoader.reload(files));
+        assertEquals("rotated", externalConfigLoader.resolve(dsProps).get("password"));
+        assertTrue(externalConfigLoader.reload(files).isEmpty());
+
+        Files.write(Paths.get(myExternalPassword), "updated".getBytes());
+        externalConfigLoader.invalidate(files);
+        assertEquals("updated", externalConfigLoader.resolve(dsProps).get("password"));
+    }
+
     public static String createExternalSecret(final String value) {
         try {
             final File file = File.createTempFile("externalPaxJdbcConfig-", ".secret");
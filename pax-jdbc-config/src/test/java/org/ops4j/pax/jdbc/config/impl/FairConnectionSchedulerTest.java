@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FairConnectionSchedulerTest {
+
+    @Test(expected = SQLTransientConnectionException.class)
+    public void testQuota() throws SQLException {
+        FairConnectionScheduler scheduler = new FairConnectionScheduler(0, 2, 10);
+        FairConnectionScheduler.Consumer consumer = scheduler.createConsumer("a", 1);
+        scheduler.acquire(consumer);
+        scheduler.acquire(consumer);
+        assertEquals(2, scheduler.getInUse());
+        scheduler.acquire(consumer);
+    }
+
+    @Test
+    public void testQuotaOfOtherConsumer() throws SQLException {
+        FairConnectionScheduler scheduler = new FairConnectionScheduler(0, 1, 10);
+        scheduler.acquire(scheduler.createConsumer("a", 1));
+        scheduler.acquire(scheduler.createConsumer("b", 1));
+        assertEquals(2, scheduler.getInUse());
+    }
+
+    @Test
+    public void testTimedOutWaiterIsRemoved() throws SQLException {
+        FairConnectionScheduler scheduler = new FairConnectionScheduler(1, 0, 10);
+        FairConnectionScheduler.Consumer consumer = scheduler.createConsumer("a", 1);
+        scheduler.acquire(consumer);
+        try {
+            scheduler.acquire(consumer);
+            fail("Expected SQLTransientConnectionException");
+        } catch (SQLTransientConnectionException e) {
+            // expected
+        }
+        assertEquals(0, scheduler.getWaiting());
+        scheduler.release(consumer);
+        scheduler.acquire(consumer);
+        assertEquals(1, scheduler.getInUse());
+    }
+
+    @Test
+    public void testLeastServedConsumerIsNext() throws Exception {
+        final FairConnectionScheduler scheduler = new FairConnectionScheduler(1, 0, 10000);
+        final FairConnectionScheduler.Consumer a = scheduler.createConsumer("a", 1);
+        final FairConnectionScheduler.Consumer b = scheduler.createConsumer("b", 1);
+        final List<String> granted = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.acquire(a);
+
+        // a already had a connection, so b is served first although a asked before
+        Thread waitingA = acquireLater(scheduler, a, "a", granted);
+        awaitWaiting(scheduler, 1);
+        Thread waitingB = acquireLater(scheduler, b, "b", granted);
+        awaitWaiting(scheduler, 2);
+
+        scheduler.release(a);
+        waitingB.join(5000);
+        assertEquals(Collections.singletonList("b"), granted);
+        scheduler.release(b);
+        waitingA.join(5000);
+        assertEquals(2, granted.size());
+        assertEquals("a", granted.get(1));
+    }
+
+    private static Thread acquireLater(final FairConnectionScheduler scheduler,
+        final FairConnectionScheduler.Consumer consumer, final String name, final List<String> granted) {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(consumer);
+                    granted.add(name);
+                } catch (SQLException e) {
+                    granted.add(e.getMessage());
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(FairConnectionScheduler scheduler, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.getWaiting() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.getWaiting());
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SqlShapeTest {
+
+    @Test
+    public void testLiteralsReplaced() {
+        assertEquals("select * from T1 where id = ? and name=?",
+            SqlShape.of("select * from T1 where id = 42 and name='O''Brien'"));
+        assertEquals("update t set v = v - ? where k = ?",
+            SqlShape.of("update  t set v = v - 1\n where k = 'a'"));
+    }
+
+    @Test
+    public void testParameterListsFolded() {
+        assertEquals("select a from t where id in (?)",
+            SqlShape.of("select a from t where id in (1, 2, 3)"));
+        assertEquals("insert into t values (?)", SqlShape.of("insert into t values (?, ?, ?)"));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+
+public class StatementCachingDataSourceTest {
+
+    @Test
+    public void testStatementReused() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        PreparedStatement statement = c.createMock(PreparedStatement.class);
+        expect(ds.getConnection()).andReturn(connection);
+        expect(connection.prepareStatement("select 1")).andReturn(statement).once();
+        expect(statement.isClosed()).andReturn(false).anyTimes();
+        statement.clearParameters();
+        expectLastCall().times(2);
+        statement.clearBatch();
+        expectLastCall().times(2);
+        statement.clearWarnings();
+        expectLastCall().times(2);
+        statement.close();
+        expectLastCall();
+        connection.close();
+        expectLastCall();
+
+        StatementCacheStatisticsImpl statistics = new StatementCacheStatisticsImpl("test", 10);
+        StatementCachingDataSource cachingDs = new StatementCachingDataSource(ds, statistics);
+        c.replay();
+        Connection wrapped = cachingDs.getConnection();
+        PreparedStatement first = wrapped.prepareStatement("select 1");
+        first.close();
+        assertTrue(first.isClosed());
+        PreparedStatement second = wrapped.prepareStatement("select 1");
+        second.close();
+        assertEquals(1, statistics.getCached());
+        wrapped.close();
+        c.verify();
+
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(0, statistics.getCached());
+    }
+
+    @Test
+    public void testConnectionEqualsItself() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        expect(ds.getConnection()).andReturn(connection);
+
+        StatementCachingDataSource cachingDs = new StatementCachingDataSource(ds, new StatementCacheStatisticsImpl("test", 10));
+        c.replay();
+        Connection wrapped = cachingDs.getConnection();
+        assertTrue(wrapped.equals(wrapped));
+        assertFalse(wrapped.equals(connection));
+        assertEquals(System.identityHashCode(wrapped), wrapped.hashCode());
+        c.verify();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        PreparedStatement statement1 = c.createMock(PreparedStatement.class);
+        PreparedStatement statement2 = c.createMock(PreparedStatement.class);
+        expect(ds.getConnection()).andReturn(connection);
+        expect(connection.prepareStatement("select 1")).andReturn(statement1);
+        expect(connection.prepareStatement("select 2")).andReturn(statement2);
+        for (PreparedStatement statement : new PreparedStatement[] { statement1, statement2 }) {
+            expect(statement.isClosed()).andReturn(false).anyTimes();
+            statement.clearParameters();
+            expectLastCall();
+            statement.clearBatch();
+            expectLastCall();
+            statement.clearWarnings();
+            expectLastCall();
+        }
+        // cache size 1: closing the second statement evicts the first
+        statement1.close();
+        expectLastCall();
+
+        StatementCacheStatisticsImpl statistics = new StatementCacheStatisticsImpl("test", 1);
+        StatementCachingDataSource cachingDs = new StatementCachingDataSource(ds, statistics);
+        c.replay();
+        Connection wrapped = cachingDs.getConnection();
+        wrapped.prepareStatement("select 1").close();
+        wrapped.prepareStatement("select 2").close();
+        c.verify();
+
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(1, statistics.getCached());
+    }
+
+    @Test
+    public void testResultSetClosedAndSettingsRestored() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        PreparedStatement statement = c.createMock(PreparedStatement.class);
+        ResultSet resultSet = c.createMock(ResultSet.class);
+        expect(ds.getConnection()).andReturn(connection);
+        expect(connection.prepareStatement("select 1")).andReturn(statement);
+        expect(statement.isClosed()).andReturn(false).anyTimes();
+        expect(statement.getFetchSize()).andReturn(0);
+        statement.setFetchSize(500);
+        expectLastCall();
+        expect(statement.executeQuery()).andReturn(resultSet);
+        resultSet.close();
+        expectLastCall();
+        statement.setFetchSize(0);
+        expectLastCall();
+        statement.clearParameters();
+        expectLastCall();
+        statement.clearBatch();
+        expectLastCall();
+        statement.clearWarnings();
+        expectLastCall();
+
+        StatementCacheStatisticsImpl statistics = new StatementCacheStatisticsImpl("test", 10);
+        StatementCachingDataSource cachingDs = new StatementCachingDataSource(ds, statistics);
+        c.replay();
+        PreparedStatement prepared = cachingDs.getConnection().prepareStatement("select 1");
+        prepared.setFetchSize(500);
+        prepared.executeQuery();
+        prepared.close();
+        c.verify();
+
+        assertEquals(1, statistics.getCached());
+    }
+
+    @Test
+    public void testStatementWithCursorNameNotCached() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        PreparedStatement statement = c.createMock(PreparedStatement.class);
+        expect(ds.getConnection()).andReturn(connection);
+        expect(connection.prepareStatement("select 1")).andReturn(statement);
+        expect(statement.isClosed()).andReturn(false).anyTimes();
+        statement.setCursorName("c1");
+        expectLastCall();
+        statement.close();
+        expectLastCall();
+
+        StatementCacheStatisticsImpl statistics = new StatementCacheStatisticsImpl("test", 10);
+        StatementCachingDataSource cachingDs = new StatementCachingDataSource(ds, statistics);
+        c.replay();
+        PreparedStatement prepared = cachingDs.getConnection().prepareStatement("select 1");
+        prepared.setCursorName("c1");
+        prepared.close();
+        c.verify();
+
+        assertEquals(0, statistics.getCached());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.config.StatementSummary;
+
+public class StatementStatsDataSourceTest {
+
+    private static final String SQL = "select name from person where id = ?";
+
+    @Test
+    public void testCountsStatementsPreparedBeforeReset() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        PreparedStatement statement = c.createMock(PreparedStatement.class);
+        ResultSet resultSet = c.createMock(ResultSet.class);
+        expect(pool.getConnection()).andReturn(connection);
+        expect(connection.prepareStatement(SQL)).andReturn(statement);
+        expect(statement.executeQuery()).andReturn(resultSet).times(2);
+        statement.close();
+        expectLastCall();
+        c.replay();
+
+        StatementStatisticsImpl statistics = new StatementStatisticsImpl("test", 10, 10);
+        Connection wrapped = new StatementStatsDataSource(pool, statistics).getConnection();
+        PreparedStatement prepared = wrapped.prepareStatement(SQL);
+        assertSame(wrapped, prepared.getConnection());
+        assertSame(prepared, prepared.executeQuery().getStatement());
+        statistics.reset();
+        prepared.executeQuery();
+        prepared.close();
+
+        assertEquals(1, statistics.getShapeSummaries().size());
+        StatementSummary summary = statistics.getShapeSummaries().get(0);
+        assertEquals(SQL, summary.getSql());
+        assertEquals(1, summary.getCount());
+        c.verify();
+    }
+
+    @Test
+    public void testFailedExecutionsAreCounted() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        expect(pool.getConnection()).andReturn(connection);
+        expect(connection.createStatement()).andReturn(statement);
+        expect(statement.executeQuery("select 1")).andThrow(new SQLTimeoutException("Query timed out"));
+        c.replay();
+
+        StatementStatisticsImpl statistics = new StatementStatisticsImpl("test", 10, 10);
+        Statement wrapped = new StatementStatsDataSource(pool, statistics).getConnection().createStatement();
+        try {
+            wrapped.executeQuery("select 1");
+            fail("Expected SQLTimeoutException");
+        } catch (SQLTimeoutException e) {
+            // expected
+        }
+        assertEquals(1, statistics.getShapeSummaries().get(0).getCount());
+        assertEquals(1, statistics.getSlowestStatements().size());
+        c.verify();
+    }
+
+    /**
+     * Reading the results ends with the last row, not when the statement is executed again.
+     */
+    @Test
+    public void testFetchEndsWithLastRow() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        ResultSet resultSet = c.createMock(ResultSet.class);
+        expect(pool.getConnection()).andReturn(connection);
+        expect(connection.createStatement()).andReturn(statement);
+        expect(statement.executeQuery("select name from person")).andReturn(resultSet);
+        expect(resultSet.next()).andReturn(true);
+        expect(resultSet.next()).andReturn(false);
+        expect(statement.executeUpdate("delete from person")).andReturn(1);
+        c.replay();
+
+        StatementStatisticsImpl statistics = new StatementStatisticsImpl("test", 10, 10);
+        Statement wrapped = new StatementStatsDataSource(pool, statistics).getConnection().createStatement();
+        ResultSet rs = wrapped.executeQuery("select name from person");
+        while (rs.next()) {
+            Thread.sleep(2);
+        }
+        long fetched = getSummary(statistics, "select name from person").getFetchTime();
+        assertTrue(fetched >= 2000);
+        // time after the last row is not counted
+        Thread.sleep(10);
+        wrapped.executeUpdate("delete from person");
+        assertEquals(fetched, getSummary(statistics, "select name from person").getFetchTime());
+        assertEquals(0, getSummary(statistics, "delete from person").getFetchTime());
+        c.verify();
+    }
+
+    private static StatementSummary getSummary(StatementStatisticsImpl statistics, String sql) {
+        for (StatementSummary summary : statistics.getShapeSummaries()) {
+            if (summary.getSql().equals(sql)) {
+                return summary;
+            }
+        }
+        throw new AssertionError("No statistics for " + sql);
+    }
+
+    @Test
+    public void testSqlIsParsedOnce() {
+        StatementStatisticsImpl statistics = new StatementStatisticsImpl("test", 10, 10);
+        assertSame(statistics.getBySql("select 1"), statistics.getBySql("select 1"));
+        assertSame(statistics.getBySql("select 1"), statistics.getBySql("select 2"));
+        assertEquals(1, statistics.getShapeCount());
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.jasypt.encryption.StringEncryptor;
@@ -169,6 +171,49 @@ public class StringEncryporTrackerTest {
         assertEquals(stringEncryptor, availableStringEncryptor);
     }
 
+    @Test
+    public void testStringEncryptorFuture() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+
+        final String alias = "testAlias";
+
+        final StringEncryptor stringEncryptor = new TestStringEncryptor();
+
+        BundleContext context = c.createMock(BundleContext.class);
+        EasyMock.expect(context.getService(EasyMock.anyObject(ServiceReference.class))).andReturn(stringEncryptor);
+        EasyMock.expect(context.createFilter(EasyMock.anyString())).andReturn(c.createMock(Filter.class));
+
+        ServiceReference reference = c.createMock(ServiceReference.class);
+        EasyMock.expect(reference.getProperty(EasyMock.eq(StringEncryptorTracker.ALIAS_PROPERTY_KEY))).andReturn(alias).atLeastOnce();
+
+        c.replay();
+
+        StringEncryptorTracker tracker = new StringEncryptorTracker(context);
+        StringEncryptorFuture future = tracker.getStringEncryptorFuture(alias);
+        StringEncryptorFuture cancelled = tracker.getStringEncryptorFuture(alias);
+        final AtomicInteger notified = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        };
+        future.addListener(listener);
+        cancelled.addListener(listener);
+        Assert.assertFalse(future.isDone());
+
+        cancelled.cancel(false);
+        tracker.addingService(reference);
+
+        c.verify();
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertTrue(cancelled.isCancelled());
+        assertEquals(1, notified.get());
+        assertEquals(stringEncryptor, future.get());
+        Assert.assertTrue(tracker.getStringEncryptorFuture(alias).isDone());
+    }
+
     @Test
     public void testStringEncryptorWithoutAlias() throws InvalidSyntaxException {
         IMocksControl c = EasyMock.createControl();
@@ -26,6 +26,7 @@ import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
+import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 public class DB2DataSourceFactory implements DataSourceFactory {
@@ -82,7 +83,7 @@ public class DB2DataSourceFactory implements DataSourceFactory {
         for (Map.Entry<Object, Object> e: properties.entrySet()) {
             map.put(e.getKey().toString(), e.getValue());
         }
-        BeanConfig.configure(ds, new HashMap<String, Object>(map));
+        BeanConfig.configure(ds, map);
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.metrics.impl;
+
+import java.net.InetSocketAddress;
+
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the pool statistics and connection metrics of all DataSources in the Prometheus text
+ * format. Pool counts are available for every pooled DataSource, acquire and hold time
+ * histograms for DataSources configured with <code>.metrics=true</code>.
+ */
+public class Activator implements BundleActivator {
+
+    /**
+     * Framework property for the port of the metrics endpoint.
+     */
+    public static final String PORT = "org.ops4j.pax.jdbc.metrics.port";
+
+    /**
+     * Framework property for the address the metrics endpoint listens on. Use
+     * <code>0.0.0.0</code> to listen on all interfaces.
+     */
+    public static final String HOST = "org.ops4j.pax.jdbc.metrics.host";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Activator.class);
+    private static final int DEFAULT_PORT = 9400;
+    private static final String DEFAULT_HOST = "localhost";
+
+    private ServiceTracker<PoolStatistics, PoolStatistics> statisticsTracker;
+    private ServiceTracker<DataSourceMetrics, DataSourceMetrics> metricsTracker;
+    private MetricsHttpServer server;
+
+    @Override
+    public void start(BundleContext context) throws Exception {
+        final PoolMetricsCollector collector = new PoolMetricsCollector();
+        String host = context.getProperty(HOST);
+        InetSocketAddress address = new InetSocketAddress(host != null ? host.trim() : DEFAULT_HOST,
+            getPort(context));
+        server = new MetricsHttpServer(address, collector);
+        statisticsTracker = new ServiceTracker<PoolStatistics, PoolStatistics>(context, PoolStatistics.class, null) {
+
+            @Override
+            public PoolStatistics addingService(ServiceReference<PoolStatistics> reference) {
+                PoolStatistics stats = super.addingService(reference);
+                collector.addStatistics(getName(reference), stats);
+                return stats;
+            }
+
+            @Override
+            public void removedService(ServiceReference<PoolStatistics> reference, PoolStatistics stats) {
+                collector.removeStatistics(getName(reference), stats);
+                super.removedService(reference, stats);
+            }
+        };
+        metricsTracker = new ServiceTracker<DataSourceMetrics, DataSourceMetrics>(context, DataSourceMetrics.class, null) {
+
+            @Override
+            public DataSourceMetrics addingService(ServiceReference<DataSourceMetrics> reference) {
+                DataSourceMetrics metrics = super.addingService(reference);
+                collector.addMetrics(getName(reference), metrics);
+                return metrics;
+            }
+
+            @Override
+            public void removedService(ServiceReference<DataSourceMetrics> reference, DataSourceMetrics metrics) {
+                collector.removeMetrics(getName(reference), metrics);
+                super.removedService(reference, metrics);
+            }
+        };
+        statisticsTracker.open();
+        metricsTracker.open();
+        server.start();
+        LOG.info("Serving DataSource metrics on http://{}:{}/metrics", address.getHostString(), server.getPort());
+    }
+
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        server.close();
+        metricsTracker.close();
+        statisticsTracker.close();
+    }
+
+    private static String getName(ServiceReference<?> reference) {
+        Object name = reference.getProperty(PoolStatistics.DATASOURCE_NAME);
+        return name != null ? name.toString() : "service-" + reference.getProperty(Constants.SERVICE_ID);
+    }
+
+    private static int getPort(BundleContext context) {
+        String port = context.getProperty(PORT);
+        if (port == null) {
+            return DEFAULT_PORT;
+        }
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for {}: {}", PORT, port);
+            return DEFAULT_PORT;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.metrics.impl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal HTTP server answering <code>GET /metrics</code> with the output of a
+ * {@link PoolMetricsCollector}. Accepted connections are served by a few daemon threads, which is
+ * enough for a few scrapers and needs no HTTP service in the framework. Each request has to be
+ * read within five seconds, so slow clients can not hold on to the threads.
+ */
+class MetricsHttpServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsHttpServer.class);
+    private static final int REQUEST_TIMEOUT = 5000;
+    private static final int WORKERS = 4;
+    private static final int MAX_HEADER_LINES = 100;
+
+    private final ServerSocket serverSocket;
+    private final PoolMetricsCollector collector;
+    private final Thread thread;
+    private final ThreadPoolExecutor workers;
+
+    MetricsHttpServer(InetSocketAddress address, PoolMetricsCollector collector) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address);
+        this.collector = collector;
+        this.thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "pax-jdbc-metrics-http");
+        this.thread.setDaemon(true);
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(WORKERS), new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread worker = new Thread(r, "pax-jdbc-metrics-http-" + count.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                }
+            });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.debug("Error accepting metrics request: " + e.getMessage());
+                }
+                continue;
+            } catch (IOException e) {
+                LOG.warn("Error accepting metrics request: " + e.getMessage(), e);
+                continue;
+            }
+            try {
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Too many metrics requests, closing connection from " + socket.getRemoteSocketAddress());
+                try {
+                    socket.close();
+                } catch (IOException e1) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT);
+        try (Socket s = socket) {
+            handle(s, deadline);
+        } catch (SocketTimeoutException e) {
+            LOG.debug("Error serving metrics: " + e.getMessage());
+        } catch (SocketException e) {
+            if (!serverSocket.isClosed()) {
+                LOG.debug("Error serving metrics: " + e.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Error serving metrics: " + e.getMessage(), e);
+        }
+    }
+
+    private void handle(Socket socket, long deadline) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new DeadlineInputStream(socket, deadline),
+            StandardCharsets.ISO_8859_1));
+        String requestLine = in.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // the headers are not needed but have to be read before answering
+        String line = in.readLine();
+        for (int i = 0; line != null && !line.isEmpty() && i < MAX_HEADER_LINES; i++) {
+            line = in.readLine();
+        }
+        String[] parts = requestLine.split(" ");
+        OutputStream out = socket.getOutputStream();
+        if (parts.length < 2) {
+            respond(out, "400 Bad Request", "text/plain", "Bad request\n", true);
+            return;
+        }
+        String method = parts[0];
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        boolean head = "HEAD".equals(method);
+        if (!"GET".equals(method) && !head) {
+            respond(out, "405 Method Not Allowed", "text/plain", "Method not allowed\n", true);
+        } else if (!"/metrics".equals(path) && !"/".equals(path)) {
+            respond(out, "404 Not Found", "text/plain", "Not found\n", !head);
+        } else {
+            respond(out, "200 OK", PoolMetricsCollector.CONTENT_TYPE, collector.scrape(), !head);
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body,
+        boolean withBody) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + "\r\n"
+            + "Content-Type: " + contentType + "\r\n"
+            + "Content-Length: " + content.length + "\r\n"
+            + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        if (withBody) {
+            out.write(content);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing metrics server socket: " + e.getMessage());
+        }
+        // requests being served end at their deadline
+        workers.shutdown();
+    }
+
+    /**
+     * Limits the time of all reads together to the deadline of the request, while the socket
+     * timeout only limits each read.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+
+        private final Socket socket;
+        private final long deadline;
+
+        DeadlineInputStream(Socket socket, long deadline) throws IOException {
+            super(socket.getInputStream());
+            this.socket = socket;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setTimeout();
+            return super.read(b, off, len);
+        }
+
+        private void setTimeout() throws IOException {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Request not read within " + REQUEST_TIMEOUT + " ms");
+            }
+            socket.setSoTimeout((int) remaining);
+        }
+    }
+}
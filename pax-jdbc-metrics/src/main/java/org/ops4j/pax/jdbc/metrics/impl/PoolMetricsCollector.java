@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.metrics.impl;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+
+/**
+ * Renders the {@link PoolStatistics} and {@link DataSourceMetrics} of all DataSources in the
+ * Prometheus text format. Pool counts are exported as gauges, acquire and hold times as
+ * histograms in seconds. Nothing is stored between scrapes, the values are read from the
+ * services, whose histograms have a fixed size.
+ */
+class PoolMetricsCollector {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // histogram bounds in microseconds, from 100 us to 10 s, the last one gives the total count
+    private static final long[] BOUNDS = {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+        1000000, 2500000, 5000000, 10000000, Long.MAX_VALUE
+    };
+    private static final String LABEL = "datasource";
+
+    private final ConcurrentMap<String, PoolStatistics> statistics;
+    private final ConcurrentMap<String, DataSourceMetrics> metrics;
+
+    PoolMetricsCollector() {
+        this.statistics = new ConcurrentHashMap<String, PoolStatistics>();
+        this.metrics = new ConcurrentHashMap<String, DataSourceMetrics>();
+    }
+
+    void addStatistics(String dsName, PoolStatistics stats) {
+        statistics.put(dsName, stats);
+    }
+
+    /**
+     * Remove the statistics unless another DataSource of the same name replaced them already,
+     * e.g. with hot swap.
+     */
+    void removeStatistics(String dsName, PoolStatistics stats) {
+        statistics.remove(dsName, stats);
+    }
+
+    void addMetrics(String dsName, DataSourceMetrics dsMetrics) {
+        metrics.put(dsName, dsMetrics);
+    }
+
+    void removeMetrics(String dsName, DataSourceMetrics dsMetrics) {
+        metrics.remove(dsName, dsMetrics);
+    }
+
+    String scrape() {
+        StringBuilder out = new StringBuilder();
+        // sorted, so that series of a DataSource keep their position between scrapes
+        Map<String, PoolStatistics> stats = new TreeMap<String, PoolStatistics>(statistics);
+        Map<String, DataSourceMetrics> dsMetrics = new TreeMap<String, DataSourceMetrics>(metrics);
+        if (!stats.isEmpty()) {
+            writePoolGauges(out, stats);
+        }
+        if (!dsMetrics.isEmpty()) {
+            writeMetrics(out, dsMetrics);
+        }
+        return out.toString();
+    }
+
+    private static void writePoolGauges(StringBuilder out, Map<String, PoolStatistics> stats) {
+        header(out, "pax_jdbc_pool_active_connections", "gauge", "Connections handed out by the pool");
+        for (Map.Entry<String, PoolStatistics> entry : stats.entrySet()) {
+            gauge(out, "pax_jdbc_pool_active_connections", entry.getKey(), entry.getValue().getActiveConnections());
+        }
+        header(out, "pax_jdbc_pool_idle_connections", "gauge", "Open connections waiting in the pool");
+        for (Map.Entry<String, PoolStatistics> entry : stats.entrySet()) {
+            gauge(out, "pax_jdbc_pool_idle_connections", entry.getKey(), entry.getValue().getIdleConnections());
+        }
+        header(out, "pax_jdbc_pool_waiting_threads", "gauge", "Threads waiting for a connection");
+        for (Map.Entry<String, PoolStatistics> entry : stats.entrySet()) {
+            gauge(out, "pax_jdbc_pool_waiting_threads", entry.getKey(), entry.getValue().getWaitingThreads());
+        }
+        header(out, "pax_jdbc_pool_max_connections", "gauge", "Maximum size of the pool");
+        for (Map.Entry<String, PoolStatistics> entry : stats.entrySet()) {
+            gauge(out, "pax_jdbc_pool_max_connections", entry.getKey(), entry.getValue().getMaxConnections());
+        }
+    }
+
+    private static void writeMetrics(StringBuilder out, Map<String, DataSourceMetrics> dsMetrics) {
+        header(out, "pax_jdbc_connections_in_use", "gauge", "Connections taken from the DataSource and not yet closed");
+        for (Map.Entry<String, DataSourceMetrics> entry : dsMetrics.entrySet()) {
+            gauge(out, "pax_jdbc_connections_in_use", entry.getKey(), entry.getValue().getInUse());
+        }
+        header(out, "pax_jdbc_connection_acquire_failures_total", "counter", "Failed attempts to get a connection");
+        for (Map.Entry<String, DataSourceMetrics> entry : dsMetrics.entrySet()) {
+            sample(out, "pax_jdbc_connection_acquire_failures_total", entry.getKey(), null,
+                Long.toString(entry.getValue().getAcquireFailures()));
+        }
+        header(out, "pax_jdbc_connection_acquire_seconds", "histogram", "Time to get a connection");
+        for (Map.Entry<String, DataSourceMetrics> entry : dsMetrics.entrySet()) {
+            DataSourceMetrics m = entry.getValue();
+            histogram(out, "pax_jdbc_connection_acquire_seconds", entry.getKey(),
+                m.getAcquireTimeCounts(BOUNDS), m.getAcquireTimeSum());
+        }
+        header(out, "pax_jdbc_connection_hold_seconds", "histogram", "Time a connection was in use");
+        for (Map.Entry<String, DataSourceMetrics> entry : dsMetrics.entrySet()) {
+            DataSourceMetrics m = entry.getValue();
+            histogram(out, "pax_jdbc_connection_hold_seconds", entry.getKey(),
+                m.getHoldTimeCounts(BOUNDS), m.getHoldTimeSum());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Counts the pool does not expose are left out.
+     */
+    private static void gauge(StringBuilder out, String name, String dsName, long value) {
+        if (value >= 0) {
+            sample(out, name, dsName, null, Long.toString(value));
+        }
+    }
+
+    /**
+     * @param counts cumulative counts for {@link #BOUNDS}, read in one pass so they are consistent
+     * @param sumMicros sum of all values in microseconds
+     */
+    private static void histogram(StringBuilder out, String name, String dsName, long[] counts, long sumMicros) {
+        int last = BOUNDS.length - 1;
+        for (int i = 0; i < last; i++) {
+            sample(out, name + "_bucket", dsName, toSeconds(BOUNDS[i]), Long.toString(counts[i]));
+        }
+        String total = Long.toString(counts[last]);
+        sample(out, name + "_bucket", dsName, "+Inf", total);
+        sample(out, name + "_sum", dsName, null, toSeconds(sumMicros));
+        sample(out, name + "_count", dsName, null, total);
+    }
+
+    private static void sample(StringBuilder out, String name, String dsName, String le, String value) {
+        out.append(name).append('{').append(LABEL).append("=\"");
+        escape(out, dsName);
+        out.append('"');
+        if (le != null) {
+            out.append(",le=\"").append(le).append('"');
+        }
+        out.append("} ").append(value).append('\n');
+    }
+
+    private static String toSeconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' || ch == '"') {
+                out.append('\\').append(ch);
+            } else if (ch == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(ch);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.metrics.impl;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.config.DataSourceMetrics;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+
+public class PoolMetricsCollectorTest {
+
+    @Test
+    public void testScrape() {
+        IMocksControl c = EasyMock.createControl();
+        PoolStatistics stats = c.createMock(PoolStatistics.class);
+        expect(stats.getActiveConnections()).andReturn(3);
+        expect(stats.getIdleConnections()).andReturn(2);
+        expect(stats.getWaitingThreads()).andReturn(0);
+        expect(stats.getMaxConnections()).andReturn(-1);
+        DataSourceMetrics metrics = c.createMock(DataSourceMetrics.class);
+        expect(metrics.getInUse()).andReturn(3L);
+        expect(metrics.getAcquireFailures()).andReturn(1L);
+        long[] counts = new long[17];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = i < 3 ? 4 : 5;
+        }
+        expect(metrics.getAcquireTimeCounts(anyObject(long[].class))).andReturn(counts);
+        expect(metrics.getAcquireTimeSum()).andReturn(1500000L);
+        expect(metrics.getHoldTimeCounts(anyObject(long[].class))).andReturn(new long[17]);
+        expect(metrics.getHoldTimeSum()).andReturn(0L);
+        c.replay();
+
+        PoolMetricsCollector collector = new PoolMetricsCollector();
+        collector.addStatistics("my \"ds\"", stats);
+        collector.addMetrics("my \"ds\"", metrics);
+        String text = collector.scrape();
+        c.verify();
+
+        assertTrue(text, text.contains("# TYPE pax_jdbc_pool_active_connections gauge\n"
+            + "pax_jdbc_pool_active_connections{datasource=\"my \\\"ds\\\"\"} 3\n"));
+        assertTrue(text, text.contains("pax_jdbc_pool_idle_connections{datasource=\"my \\\"ds\\\"\"} 2\n"));
+        // not exposed by the pool
+        assertTrue(text, !text.contains("pax_jdbc_pool_max_connections{"));
+        assertTrue(text, text.contains("pax_jdbc_connection_acquire_failures_total{datasource=\"my \\\"ds\\\"\"} 1\n"));
+        assertTrue(text, text.contains("pax_jdbc_connection_acquire_seconds_bucket{datasource=\"my \\\"ds\\\"\",le=\"0.0005\"} 4\n"
+            + "pax_jdbc_connection_acquire_seconds_bucket{datasource=\"my \\\"ds\\\"\",le=\"0.001\"} 5\n"));
+        assertTrue(text, text.contains("pax_jdbc_connection_acquire_seconds_bucket{datasource=\"my \\\"ds\\\"\",le=\"10\"} 5\n"
+            + "pax_jdbc_connection_acquire_seconds_bucket{datasource=\"my \\\"ds\\\"\",le=\"+Inf\"} 5\n"
+            + "pax_jdbc_connection_acquire_seconds_sum{datasource=\"my \\\"ds\\\"\"} 1.5\n"
+            + "pax_jdbc_connection_acquire_seconds_count{datasource=\"my \\\"ds\\\"\"} 5\n"));
+
+        collector.removeStatistics("my \"ds\"", stats);
+        collector.removeMetrics("my \"ds\"", metrics);
+        assertEquals("", collector.scrape());
+    }
+
+    @Test
+    public void testKeepsReplacement() {
+        IMocksControl c = EasyMock.createControl();
+        PoolStatistics old = c.createMock(PoolStatistics.class);
+        PoolStatistics replacement = c.createMock(PoolStatistics.class);
+        expect(replacement.getActiveConnections()).andReturn(1);
+        expect(replacement.getIdleConnections()).andReturn(1);
+        expect(replacement.getWaitingThreads()).andReturn(0);
+        expect(replacement.getMaxConnections()).andReturn(8);
+        c.replay();
+
+        PoolMetricsCollector collector = new PoolMetricsCollector();
+        collector.addStatistics("ds", old);
+        collector.addStatistics("ds", replacement);
+        collector.removeStatistics("ds", old);
+        assertTrue(collector.scrape().contains("pax_jdbc_pool_max_connections{datasource=\"ds\"} 8\n"));
+        c.verify();
+    }
+
+    @Test
+    public void testHttpServer() throws Exception {
+        PoolMetricsCollector collector = new PoolMetricsCollector();
+        MetricsHttpServer server = new MetricsHttpServer(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), collector);
+        server.start();
+        try {
+            String response = get(server.getPort(), "GET /metrics HTTP/1.1");
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertTrue(response, response.contains("Content-Type: " + PoolMetricsCollector.CONTENT_TYPE));
+            response = get(server.getPort(), "GET /other HTTP/1.1");
+            assertTrue(response, response.startsWith("HTTP/1.1 404 Not Found\r\n"));
+            response = get(server.getPort(), "POST /metrics HTTP/1.1");
+            assertTrue(response, response.startsWith("HTTP/1.1 405 Method Not Allowed\r\n"));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static String get(int port, String requestLine) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write((requestLine + "\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
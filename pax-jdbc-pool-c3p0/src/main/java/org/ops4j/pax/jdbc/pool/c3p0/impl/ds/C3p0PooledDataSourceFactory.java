@@ -20,7 +20,8 @@ import java.util.Properties;
 
 import javax.sql.DataSource;
 
-import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +36,7 @@ import com.mchange.v2.c3p0.PooledDataSource;
  * XADataSource and handles the XA Resources. This kind of DataSource can then for example be used
  * in persistence.xml as jta-data-source
  */
-public class C3p0PooledDataSourceFactory implements PooledDataSourceFactory {
+public class C3p0PooledDataSourceFactory implements MonitoredPooledDataSourceFactory {
     private static final Logger LOG = LoggerFactory.getLogger(C3p0PooledDataSourceFactory.class);
     protected static final String POOL_PREFIX = "c3p0.";
 
@@ -86,4 +87,50 @@ public class C3p0PooledDataSourceFactory implements PooledDataSourceFactory {
         }
     }
 
+    /**
+     * Counts are those of the default user. The maximum size is not exposed by c3p0 pools
+     * created with {@link DataSources}.
+     */
+    @Override
+    public PoolStatistics getStatistics(DataSource ds) {
+        if (!(ds instanceof PooledDataSource)) {
+            return null;
+        }
+        final PooledDataSource pds = (PooledDataSource) ds;
+        return new PoolStatistics() {
+
+            @Override
+            public int getActiveConnections() {
+                try {
+                    return pds.getNumBusyConnectionsDefaultUser();
+                } catch (SQLException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public int getIdleConnections() {
+                try {
+                    return pds.getNumIdleConnectionsDefaultUser();
+                } catch (SQLException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public int getWaitingThreads() {
+                try {
+                    return pds.getNumThreadsAwaitingCheckoutDefaultUser();
+                } catch (SQLException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public int getMaxConnections() {
+                return -1;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+import javax.sql.DataSource;
+
+/**
+ * PooledDataSourceFactory that can report the connection counts of the pools it created.
+ */
+public interface MonitoredPooledDataSourceFactory extends PooledDataSourceFactory {
+
+    /**
+     * @param ds DataSource returned by {@link #create} of this factory
+     * @return live view of the counts of the pool, or null if the DataSource was not created by
+     *         this factory
+     */
+    PoolStatistics getStatistics(DataSource ds);
+}
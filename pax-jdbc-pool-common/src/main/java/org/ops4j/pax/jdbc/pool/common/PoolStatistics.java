@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+/**
+ * Current connection counts of a pool, read from the pool itself. pax-jdbc-config registers it
+ * as a service with the property <code>dataSourceName</code> next to each pooled DataSource whose
+ * pool supports it.
+ * <p>
+ * The counts are read without locking the pool and may be slightly out of sync with each other.
+ * A count the pool does not expose is -1.
+ */
+public interface PoolStatistics {
+
+    String DATASOURCE_NAME = "dataSourceName";
+
+    /**
+     * @return number of connections handed out and not yet returned
+     */
+    int getActiveConnections();
+
+    /**
+     * @return number of open connections waiting in the pool
+     */
+    int getIdleConnections();
+
+    /**
+     * @return number of threads waiting for a connection
+     */
+    int getWaitingThreads();
+
+    /**
+     * @return maximum number of connections the pool opens
+     */
+    int getMaxConnections();
+}
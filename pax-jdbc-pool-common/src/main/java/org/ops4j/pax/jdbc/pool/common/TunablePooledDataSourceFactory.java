@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+/**
+ * PooledDataSourceFactory that can change settings of a pool it created while the pool is in
+ * use, so that a config update touching only these settings does not need a new pool.
+ */
+public interface TunablePooledDataSourceFactory extends PooledDataSourceFactory {
+
+    /**
+     * @param key config key as passed to {@link #create}, e.g. <code>pool.maxTotal</code>
+     * @return true if a changed value of the key can be applied by {@link #tune}
+     */
+    boolean isTunable(String key);
+
+    /**
+     * Apply the tunable settings of a config to a live pool.
+     *
+     * @param ds DataSource returned by {@link #create} of this factory
+     * @param config complete new config, tunable keys missing in it are reset to their defaults
+     */
+    void tune(DataSource ds, Properties config) throws SQLException;
+
+    /**
+     * @return tunable config key for the maximum number of connections of a pool
+     */
+    String getMaxPoolSizeKey();
+
+    /**
+     * @return tunable config key for the number of idle connections a pool keeps open, or null
+     *         if the pool does not support it
+     */
+    String getMinPoolSizeKey();
+}
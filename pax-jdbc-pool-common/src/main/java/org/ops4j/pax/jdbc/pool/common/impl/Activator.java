@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import static org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory.POOL_KEY;
+import static org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory.XA_KEY;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.ds.NativePooledDataSourceFactory;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Registers the built-in pool as {@link PooledDataSourceFactory} with <code>pool=native</code>.
+ */
+public class Activator implements BundleActivator {
+
+    private static final String NATIVE = "native";
+
+    private ServiceRegistration<PooledDataSourceFactory> registration;
+
+    @Override
+    public void start(BundleContext context) throws Exception {
+        NativePooledDataSourceFactory dsf = new NativePooledDataSourceFactory();
+        Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(POOL_KEY, NATIVE);
+        props.put(XA_KEY, "false");
+        registration = context.registerService(PooledDataSourceFactory.class, dsf, props);
+    }
+
+    /**
+     * The pools are closed by their owners, e.g. pax-jdbc-config, when the factory goes away.
+     */
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        if (registration != null) {
+            registration.unregister();
+            registration = null;
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts the size of a live pool to its load. Connections taken through
+ * {@link #getDataSource()} are measured, and in fixed intervals a {@link PoolSizePolicy} decides
+ * the new size from the time to get a connection, the number of connections in use and the
+ * time they are held. Sizes are applied with {@link TunablePooledDataSourceFactory#tune}.
+ */
+public class AdaptivePoolSizer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private final String name;
+    private final TunablePooledDataSourceFactory factory;
+    private final DataSource pool;
+    private final PoolSizePolicy policy;
+    private final MeasuredDataSource dataSource;
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong holdNanos = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private Properties config;
+    private volatile int size;
+    private int minIdle;
+    private long sampledAt;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param name name of the DataSource, used for logging and the thread name
+     * @param factory factory that created the pool
+     * @param pool DataSource returned by the factory
+     * @param config config the pool was created with
+     * @param policy decides the size of the pool
+     */
+    public AdaptivePoolSizer(String name, TunablePooledDataSourceFactory factory, DataSource pool,
+        Properties config, PoolSizePolicy policy) {
+        this.name = name;
+        this.factory = factory;
+        this.pool = pool;
+        this.policy = policy;
+        this.dataSource = new MeasuredDataSource();
+        this.config = config;
+        this.size = getInitialSize(config);
+        this.minIdle = -1;
+        this.sampledAt = System.nanoTime();
+    }
+
+    /**
+     * The configured size within the bounds of the policy, or the upper bound if no size is
+     * configured.
+     */
+    private int getInitialSize(Properties config) {
+        String configured = config.getProperty(factory.getMaxPoolSizeKey());
+        int initial = policy.getMaxSize();
+        if (configured != null) {
+            try {
+                initial = Integer.parseInt(configured.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for {} of DataSource {}: {}", factory.getMaxPoolSizeKey(), name, configured);
+            }
+        }
+        return Math.max(policy.getMinSize(), Math.min(policy.getMaxSize(), initial));
+    }
+
+    /**
+     * @return DataSource to hand out instead of the pool, so that its usage is measured. Closing
+     *         it closes this sizer and the pool.
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Apply the initial size and adjust the size in fixed intervals on a daemon thread.
+     *
+     * @param intervalMillis time between two adjustments
+     */
+    public synchronized void start(long intervalMillis) throws SQLException {
+        apply();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pax-jdbc-pool-sizer-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                adjust();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Take over a changed config of the pool, keeping the current size.
+     */
+    public synchronized void setConfig(Properties config) throws SQLException {
+        this.config = config;
+        apply();
+    }
+
+    /**
+     * Decide and apply the size for the usage since the last adjustment.
+     */
+    synchronized void adjust() {
+        PoolSample sample = sample();
+        int next = policy.nextSize(size, sample);
+        int nextMinIdle = policy.minIdle(next, sample);
+        if (next == size && nextMinIdle == minIdle) {
+            return;
+        }
+        LOG.debug("Resizing pool of DataSource {} from {} to {} connections, {}", name, size, next, sample);
+        int previousSize = size;
+        int previousMinIdle = minIdle;
+        size = next;
+        minIdle = nextMinIdle;
+        try {
+            apply();
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Can not resize pool of DataSource " + name + ": " + e.getMessage(), e);
+            size = previousSize;
+            minIdle = previousMinIdle;
+        }
+    }
+
+    PoolSample sample() {
+        long now = System.nanoTime();
+        long interval = now - sampledAt;
+        sampledAt = now;
+        return new PoolSample(interval, acquisitions.getAndSet(0), failures.getAndSet(0), connectFailures.getAndSet(0),
+            waitNanos.getAndSet(0), releases.getAndSet(0), holdNanos.getAndSet(0),
+            peakInUse.getAndSet(inUse.get()));
+    }
+
+    private void apply() throws SQLException {
+        Properties props = new Properties();
+        props.putAll(config);
+        props.setProperty(factory.getMaxPoolSizeKey(), Integer.toString(size));
+        String minKey = factory.getMinPoolSizeKey();
+        if (minKey != null && minIdle >= 0) {
+            props.setProperty(minKey, Integer.toString(minIdle));
+        }
+        factory.tune(pool, props);
+    }
+
+    /**
+     * Stop adjusting the size. The pool is not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void onAcquired(long startNanos) {
+        waitNanos.addAndGet(System.nanoTime() - startNanos);
+        acquisitions.incrementAndGet();
+        int current = inUse.incrementAndGet();
+        int peak;
+        do {
+            peak = peakInUse.get();
+        } while (current > peak && !peakInUse.compareAndSet(peak, current));
+    }
+
+    /**
+     * Count a failure as saturation only if all connections of the pool were in use. Otherwise
+     * the pool could not open a connection, e.g. during an outage, and a larger pool would not
+     * help.
+     */
+    private void onFailed(long startNanos) {
+        if (inUse.get() >= size) {
+            waitNanos.addAndGet(System.nanoTime() - startNanos);
+            failures.incrementAndGet();
+        } else {
+            connectFailures.incrementAndGet();
+        }
+    }
+
+    private void onReleased(long acquiredAt) {
+        holdNanos.addAndGet(System.nanoTime() - acquiredAt);
+        releases.incrementAndGet();
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * Measures the connections taken from the pool.
+     */
+    private final class MeasuredDataSource extends DelegatingDataSource implements AutoCloseable {
+
+        MeasuredDataSource() {
+            super(pool);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return track(delegate.getConnection(), start);
+            } catch (SQLException | RuntimeException e) {
+                onFailed(start);
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return track(delegate.getConnection(username, password), start);
+            } catch (SQLException | RuntimeException e) {
+                onFailed(start);
+                throw e;
+            }
+        }
+
+        private Connection track(Connection connection, long start) {
+            onAcquired(start);
+            final long acquiredAt = System.nanoTime();
+            return new ConnectionCloseHandler(connection) {
+
+                @Override
+                protected void closed() {
+                    onReleased(acquiredAt);
+                }
+            }.createProxy();
+        }
+
+        @Override
+        public void close() throws Exception {
+            AdaptivePoolSizer.this.close();
+            closeDelegate();
+        }
+    }
+}
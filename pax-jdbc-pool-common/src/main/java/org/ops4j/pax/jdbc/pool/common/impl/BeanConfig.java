@@ -15,33 +15,35 @@
  */
 package org.ops4j.pax.jdbc.pool.common.impl;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Configure a java bean from a given Map of properties.
+ * <p>
+ * The setters of a bean class are looked up once and kept together with a converter for their
+ * parameter type. The plans are held in a {@link ClassValue}, so they go away with the bean
+ * class when its bundle is uninstalled.
  */
 public class BeanConfig {
 
-    private Object bean;
-    private Map<String, Method> setters;
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
 
-    private BeanConfig(Object bean) {
-        this.bean = bean;
-        this.setters = findSettersForBean(bean);
-    }
+    private static final ClassValue<Map<String, Setter>> SETTERS = new ClassValue<Map<String, Setter>>() {
 
-    private static Map<String, Method> findSettersForBean(Object bean) {
-        Map<String, Method> setters = new HashMap<String, Method>();
-        for (Method method : bean.getClass().getMethods()) {
-            String name = method.getName();
-            if (name.startsWith("set") && method.getParameterTypes().length == 1) {
-                String key = name.substring(3, 4).toLowerCase() + name.substring(4);
-                setters.put(key, method);
-            }
+        @Override
+        protected Map<String, Setter> computeValue(Class<?> type) {
+            return findSetters(type);
         }
-        return setters;
+    };
+
+    private static final Map<Class<?>, Converter> CONVERTERS = createConverters();
+
+    private BeanConfig() {
     }
 
     /**
@@ -51,39 +53,233 @@ public class BeanConfig {
      *            bean to populate
      * @param props
      *            properties to set. The keys in the Map have to match the bean property names.
+     *            Values are Strings or already of the type of the property.
      */
-    public static void configure(Object bean, Map<String, String> props) {
-        BeanConfig beanConfig = new BeanConfig(bean);
-        for (String key : props.keySet()) {
-            beanConfig.trySetProperty(key, props.get(key));
+    public static void configure(Object bean, Map<String, ?> props) {
+        Map<String, Setter> setters = SETTERS.get(bean.getClass());
+        for (Map.Entry<String, ?> entry : props.entrySet()) {
+            trySetProperty(bean, setters, entry.getKey(), entry.getValue());
         }
     }
 
-    private void trySetProperty(String key, String value) {
+    private static void trySetProperty(Object bean, Map<String, Setter> setters, String key, Object value) {
         try {
-            Method method = setters.get(key);
-            if (method == null) {
+            Setter setter = setters.get(key);
+            if (setter == null) {
                 throw new IllegalArgumentException("No setter in " + bean.getClass()
                     + " for property " + key);
             }
-            Class<?> paramClass = method.getParameterTypes()[0];
-            if (paramClass == int.class || paramClass == Integer.class) {
-                method.invoke(bean, Integer.parseInt(value));
+            setter.set(bean, value);
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            // exceptions of the setter, as MethodHandle.invokeExact declares Throwable
+            throw new IllegalArgumentException("Error setting property " + key + ":"
+                + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, Setter> findSetters(Class<?> type) {
+        Map<String, Setter> setters = new HashMap<String, Setter>();
+        for (Method method : type.getMethods()) {
+            String name = method.getName();
+            if (name.startsWith("set") && name.length() > 3 && method.getParameterTypes().length == 1) {
+                String key = name.substring(3, 4).toLowerCase() + name.substring(4);
+                Setter setter = createSetter(method);
+                Setter existing = setters.get(key);
+                if (existing == null || setter.isPreferredTo(existing)) {
+                    setters.put(key, setter);
+                }
             }
-            else if (paramClass == long.class || paramClass == Long.class) {
-                method.invoke(bean, Long.parseLong(value));
+        }
+        return setters;
+    }
+
+    private static Setter createSetter(Method method) {
+        Class<?> paramClass = method.getParameterTypes()[0];
+        Converter converter = CONVERTERS.get(paramClass);
+        if (converter == null && paramClass.isEnum()) {
+            converter = new EnumConverter(paramClass);
+        }
+        MethodHandle handle = null;
+        if (converter != null) {
+            try {
+                handle = unreflect(method).asType(SETTER_TYPE);
+            }
+            catch (IllegalAccessException e) {
+                // not accessible, treated like a setter of an unsupported type
+                converter = null;
+            }
+        }
+        return new Setter(paramClass, handle, converter);
+    }
+
+    private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            // public method declared by a non public class
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        }
+    }
+
+    private static Map<Class<?>, Converter> createConverters() {
+        Map<Class<?>, Converter> converters = new HashMap<Class<?>, Converter>();
+        Converter intConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Integer.parseInt(value);
             }
-            else if (paramClass == boolean.class || paramClass == Boolean.class) {
-                method.invoke(bean, Boolean.parseBoolean(value));
+        };
+        Converter longConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Long.parseLong(value);
             }
-            else if (paramClass == String.class) {
-                method.invoke(bean, value);
+        };
+        Converter shortConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Short.parseShort(value);
+            }
+        };
+        Converter byteConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Byte.parseByte(value);
             }
+        };
+        Converter doubleConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Double.parseDouble(value);
+            }
+        };
+        Converter floatConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Float.parseFloat(value);
+            }
+        };
+        Converter booleanConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return Boolean.parseBoolean(value);
+            }
+        };
+        Converter charConverter = new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                if (value.length() != 1) {
+                    throw new IllegalArgumentException("Expected a single character but got " + value);
+                }
+                return value.charAt(0);
+            }
+        };
+        converters.put(int.class, intConverter);
+        converters.put(Integer.class, intConverter);
+        converters.put(long.class, longConverter);
+        converters.put(Long.class, longConverter);
+        converters.put(short.class, shortConverter);
+        converters.put(Short.class, shortConverter);
+        converters.put(byte.class, byteConverter);
+        converters.put(Byte.class, byteConverter);
+        converters.put(double.class, doubleConverter);
+        converters.put(Double.class, doubleConverter);
+        converters.put(float.class, floatConverter);
+        converters.put(Float.class, floatConverter);
+        converters.put(boolean.class, booleanConverter);
+        converters.put(Boolean.class, booleanConverter);
+        converters.put(char.class, charConverter);
+        converters.put(Character.class, charConverter);
+        converters.put(String.class, new Converter() {
+
+            @Override
+            public Object convert(String value) {
+                return value;
+            }
+        });
+        return converters;
+    }
+
+    private interface Converter {
+
+        Object convert(String value);
+    }
+
+    private static final class EnumConverter implements Converter {
+
+        private final Class<?> type;
+
+        EnumConverter(Class<?> type) {
+            this.type = type;
         }
-        catch (Exception e) {
-            throw new IllegalArgumentException("Error setting property " + key + ":"
-                + e.getMessage(), e);
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        public Object convert(String value) {
+            return Enum.valueOf((Class<Enum>) type, value.trim());
         }
     }
 
+    /**
+     * Setter of one property. Setters of unsupported parameter types have no handle and are
+     * skipped when configuring, as they always were.
+     */
+    private static final class Setter {
+
+        private final Class<?> type;
+        private final MethodHandle handle;
+        private final Converter converter;
+
+        Setter(Class<?> type, MethodHandle handle, Converter converter) {
+            this.type = type;
+            this.handle = handle;
+            this.converter = converter;
+        }
+
+        /**
+         * Of overloaded setters use one that can be called, preferring typed ones to String.
+         */
+        boolean isPreferredTo(Setter other) {
+            if (handle == null || other.handle == null) {
+                return other.handle == null && handle != null;
+            }
+            return other.type == String.class && type != String.class;
+        }
+
+        void set(Object bean, Object value) throws Throwable {
+            if (handle == null) {
+                return;
+            }
+            Object converted;
+            if (value == null || value instanceof String) {
+                converted = converter.convert((String) value);
+            }
+            else if (isInstance(value)) {
+                converted = value;
+            }
+            else {
+                throw new IllegalArgumentException("Can only populate String values, but is of type " + value.getClass());
+            }
+            handle.invokeExact(bean, converted);
+        }
+
+        private boolean isInstance(Object value) {
+            return type.isPrimitive() ? CONVERTERS.get(value.getClass()) == CONVERTERS.get(type)
+                : type.isInstance(value);
+        }
+    }
 }
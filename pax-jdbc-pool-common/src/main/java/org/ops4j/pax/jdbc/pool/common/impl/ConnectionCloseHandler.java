@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forwards all calls to a connection handed out by a wrapping DataSource and runs
+ * {@link #closed()} once when the connection is closed. Only the first close is forwarded, so
+ * that closing the connection from two threads does not return it to the pool twice, and
+ * {@link #closed()} runs after the connection was returned. Once closed the connection reports
+ * itself closed and rejects other calls, as the pool may have handed it out again. Statements,
+ * result sets and meta data return the proxy as their connection, so that closing it through
+ * them also runs {@link #closed()}.
+ */
+public abstract class ConnectionCloseHandler implements InvocationHandler {
+
+    private final Connection connection;
+    private final AtomicBoolean closed;
+
+    protected ConnectionCloseHandler(Connection connection) {
+        this.connection = connection;
+        this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * @return connection to hand out instead of the wrapped one
+     */
+    public Connection createProxy() {
+        return (Connection) Proxy.newProxyInstance(ConnectionCloseHandler.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, this);
+    }
+
+    /**
+     * Called once after the connection was closed, also if closing it failed.
+     */
+    protected abstract void closed();
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        boolean noArgs = args == null || args.length == 0;
+        if ("close".equals(name) && noArgs) {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    connection.close();
+                } finally {
+                    closed();
+                }
+            }
+            return null;
+        } else if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name) && noArgs) {
+            return System.identityHashCode(proxy);
+        } else if (closed.get() && method.getDeclaringClass() != Object.class) {
+            if ("isClosed".equals(name)) {
+                return true;
+            } else if ("isValid".equals(name)) {
+                return false;
+            }
+            throw new SQLException("Connection is closed");
+        }
+        Object result;
+        try {
+            result = method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        return wrap(result, method.getReturnType(), proxy, null);
+    }
+
+    /**
+     * @param statement proxy of the statement a result set belongs to, or null
+     */
+    private static Object wrap(Object result, Class<?> type, Object connection, Object statement) {
+        if (result == null || (type != Statement.class && type != PreparedStatement.class
+            && type != CallableStatement.class && type != ResultSet.class && type != DatabaseMetaData.class)) {
+            return result;
+        }
+        return Proxy.newProxyInstance(ConnectionCloseHandler.class.getClassLoader(), new Class<?>[] { type },
+            new ChildHandler(result, connection, statement));
+    }
+
+    /**
+     * Forwards all calls to a statement, result set or meta data, but returns the connection
+     * proxy and the wrapped statement.
+     */
+    private static final class ChildHandler implements InvocationHandler {
+
+        private final Object delegate;
+        private final Object connection;
+        private final Object statement;
+
+        ChildHandler(Object delegate, Object connection, Object statement) {
+            this.delegate = delegate;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if ("getConnection".equals(name) && noArgs) {
+                return connection;
+            } else if ("getStatement".equals(name) && noArgs && statement != null) {
+                return statement;
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            }
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            return wrap(result, method.getReturnType(), connection, delegate instanceof Statement ? proxy : null);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * Lets threads wait for a connection on a {@link Semaphore} in front of the pool instead of
+ * inside it. With no more permits than the pool has connections, the pool always has one
+ * available when it is asked, so its own waits, which often block in <code>synchronized</code>
+ * code, are not reached. Threads waiting on the semaphore are parked, which also unmounts
+ * virtual threads from their carrier threads. Works with the DataSource of any
+ * {@link org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory}.
+ */
+public class GatedDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final int permits;
+    private final Semaphore gate;
+    private final long timeoutMillis;
+
+    /**
+     * @param pool DataSource returned by the pool factory
+     * @param permits maximum number of connections in use, at most the maximum pool size
+     * @param timeoutMillis time to wait for a permit
+     */
+    public GatedDataSource(DataSource pool, int permits, long timeoutMillis) {
+        super(pool);
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Permits must be positive but are " + permits);
+        }
+        this.permits = permits;
+        this.gate = new Semaphore(permits, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return number of threads waiting for a permit, an estimate
+     */
+    public int getWaitingThreads() {
+        return gate.getQueueLength();
+    }
+
+    /**
+     * @return number of connections in use
+     */
+    public int getInUse() {
+        return permits - gate.availablePermits();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return track(delegate.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            gate.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return track(delegate.getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            gate.release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws SQLException {
+        try {
+            if (!gate.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timeout waiting for a connection after " + timeoutMillis
+                    + " ms, all " + permits + " connections are in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    private Connection track(Connection connection) {
+        return new ConnectionCloseHandler(connection) {
+
+            @Override
+            protected void closed() {
+                gate.release();
+            }
+        }.createProxy();
+    }
+
+    /**
+     * Close the pool.
+     */
+    @Override
+    public void close() throws Exception {
+        closeDelegate();
+    }
+}
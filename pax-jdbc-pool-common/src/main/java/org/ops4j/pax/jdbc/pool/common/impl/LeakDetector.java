@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports connections that are held longer than a threshold, independent of the pool
+ * implementation. Connections taken through {@link #wrap} are tracked until they are closed and
+ * checked in fixed intervals. Capturing the stack trace of the caller is the expensive part, so
+ * it is only done for a sample of the borrows.
+ */
+public class LeakDetector implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeakDetector.class);
+    private static final long MIN_INTERVAL = 100;
+
+    private final String name;
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final Map<Lease, Boolean> leases;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param name name of the DataSource, used for logging and the thread name
+     * @param thresholdMillis time after which a connection that was not closed is reported
+     * @param sampleRate fraction of the borrows whose stack trace is captured, from 0 to 1
+     */
+    public LeakDetector(String name, long thresholdMillis, double sampleRate) {
+        if (thresholdMillis <= 0) {
+            throw new IllegalArgumentException("Leak detection threshold must be positive but is " + thresholdMillis);
+        }
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Stack trace sample rate must be between 0 and 1 but is " + sampleRate);
+        }
+        this.name = name;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = sampleRate;
+        this.leases = new ConcurrentHashMap<Lease, Boolean>();
+    }
+
+    /**
+     * @param ds DataSource to take the connections from
+     * @param owner owner of the connections, e.g. the consuming bundle, shown in the reports
+     * @return DataSource whose connections are tracked
+     */
+    public DataSource wrap(DataSource ds, String owner) {
+        return new TrackedDataSource(ds, owner);
+    }
+
+    /**
+     * Check the open connections in fixed intervals on a daemon thread, by default every half
+     * threshold.
+     */
+    public synchronized void start() {
+        long interval = Math.max(MIN_INTERVAL, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 2);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pax-jdbc-leak-detector-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of connections taken through the wrapped DataSources and not yet closed
+     */
+    public int getOpenConnections() {
+        return leases.size();
+    }
+
+    /**
+     * Report the connections that passed the threshold since the last check. Each connection is
+     * reported once.
+     *
+     * @return number of connections reported
+     */
+    int check() {
+        long now = System.nanoTime();
+        int reported = 0;
+        for (Lease lease : leases.keySet()) {
+            if (now - lease.borrowedAt >= thresholdNanos && lease.reported.compareAndSet(false, true)) {
+                long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedAt);
+                if (lease.stackTrace != null) {
+                    LOG.warn("Possible connection leak: connection of DataSource {} taken by {} on thread {} "
+                        + "is open for {} ms", name, lease.owner, lease.thread, heldMillis, lease.stackTrace);
+                } else {
+                    LOG.warn("Possible connection leak: connection of DataSource {} taken by {} on thread {} "
+                        + "is open for {} ms, the stack trace of the borrow was not sampled", name, lease.owner,
+                        lease.thread, heldMillis);
+                }
+                reported++;
+            }
+        }
+        return reported;
+    }
+
+    /**
+     * Stop checking. Connections still open are not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void onReleased(Lease lease) {
+        leases.remove(lease);
+        if (lease.reported.get()) {
+            LOG.info("Connection of DataSource {} reported as possible leak was closed by {} after {} ms", name,
+                lease.owner, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lease.borrowedAt));
+        }
+    }
+
+    /**
+     * A connection taken and not yet closed.
+     */
+    private static final class Lease {
+
+        private final String owner;
+        private final String thread;
+        private final long borrowedAt;
+        private final Throwable stackTrace;
+        private final AtomicBoolean reported;
+
+        Lease(String owner, Throwable stackTrace) {
+            this.owner = owner;
+            this.thread = Thread.currentThread().getName();
+            this.borrowedAt = System.nanoTime();
+            this.stackTrace = stackTrace;
+            this.reported = new AtomicBoolean();
+        }
+    }
+
+    /**
+     * Tracks the connections taken by one owner.
+     */
+    private final class TrackedDataSource extends DelegatingDataSource {
+
+        private final String owner;
+
+        TrackedDataSource(DataSource delegate, String owner) {
+            super(delegate);
+            this.owner = owner;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return track(delegate.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return track(delegate.getConnection(username, password));
+        }
+
+        private Connection track(Connection connection) {
+            Throwable stackTrace = null;
+            if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                stackTrace = new Exception("Connection taken here");
+            }
+            final Lease lease = new Lease(owner, stackTrace);
+            leases.put(lease, Boolean.TRUE);
+            return new ConnectionCloseHandler(connection) {
+
+                @Override
+                protected void closed() {
+                    onReleased(lease);
+                }
+            }.createProxy();
+        }
+    }
+}
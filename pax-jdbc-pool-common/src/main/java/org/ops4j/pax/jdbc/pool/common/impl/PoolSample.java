@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage of a pool during one sampling interval, as seen by {@link AdaptivePoolSizer}.
+ */
+public class PoolSample {
+
+    private final long intervalNanos;
+    private final long acquisitions;
+    private final long failures;
+    private final long connectFailures;
+    private final long waitNanos;
+    private final long releases;
+    private final long holdNanos;
+    private final int peakInUse;
+
+    /**
+     * @param intervalNanos length of the interval
+     * @param acquisitions connections handed out
+     * @param failures attempts to get a connection that failed while all connections of the pool
+     *            were in use, i.e. timeouts of an exhausted pool
+     * @param connectFailures attempts to get a connection that failed while the pool had
+     *            connections left, e.g. because the database could not be reached
+     * @param waitNanos total time spent in getConnection by the connections handed out and the
+     *            failures of the exhausted pool
+     * @param releases connections given back
+     * @param holdNanos total time the connections given back were in use
+     * @param peakInUse highest number of connections in use at the same time
+     */
+    public PoolSample(long intervalNanos, long acquisitions, long failures, long connectFailures, long waitNanos,
+        long releases, long holdNanos, int peakInUse) {
+        this.intervalNanos = intervalNanos;
+        this.acquisitions = acquisitions;
+        this.failures = failures;
+        this.connectFailures = connectFailures;
+        this.waitNanos = waitNanos;
+        this.releases = releases;
+        this.holdNanos = holdNanos;
+        this.peakInUse = peakInUse;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getConnectFailures() {
+        return connectFailures;
+    }
+
+    public int getPeakInUse() {
+        return peakInUse;
+    }
+
+    /**
+     * @return mean time to get a connection in ms
+     */
+    public double getMeanWaitMillis() {
+        long attempts = acquisitions + failures;
+        return attempts == 0 ? 0 : toMillis(waitNanos) / attempts;
+    }
+
+    /**
+     * @return mean time a connection was in use in ms, i.e. the response time of the database
+     *         including the work done by the application while holding the connection
+     */
+    public double getMeanHoldMillis() {
+        return releases == 0 ? 0 : toMillis(holdNanos) / releases;
+    }
+
+    /**
+     * @return connections requested per second
+     */
+    public double getArrivalRate() {
+        return intervalNanos <= 0 ? 0 : (acquisitions + failures) * 1000 / toMillis(intervalNanos);
+    }
+
+    /**
+     * By Little's law the mean number of connections in use is the arrival rate times the mean
+     * time a connection is held.
+     *
+     * @return mean number of connections needed to serve the requests without waiting
+     */
+    public double getConcurrency() {
+        return getArrivalRate() * getMeanHoldMillis() / 1000;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquisitions=%d, failures=%d, connectFailures=%d, meanWait=%.1f ms, meanHold=%.1f ms, "
+            + "peakInUse=%d", acquisitions, failures, connectFailures, getMeanWaitMillis(), getMeanHoldMillis(), peakInUse);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+/**
+ * Decides the size of a pool from its usage, by additive increase and multiplicative decrease
+ * (AIMD) within fixed bounds.
+ * <ul>
+ * <li>If getting a connection took longer than the target wait time or timed out because all
+ * connections were in use, the pool grows by a fixed step, or at once to the size Little's law
+ * asks for if that is larger.</li>
+ * <li>If connections could not be opened although the pool had room for them, e.g. while the
+ * database is down, the size is kept, as more connections would not help.</li>
+ * <li>If less than the decreased size was in use at the peak, the pool shrinks by a factor, but
+ * not below the size Little's law asks for.</li>
+ * <li>The pool does not grow while the database responds much slower than it used to, as more
+ * connections would only add to its load.</li>
+ * </ul>
+ * Instances keep the response time baseline and are not thread safe.
+ */
+public class PoolSizePolicy {
+
+    public static final int DEFAULT_INCREASE_STEP = 2;
+    public static final double DEFAULT_DECREASE_FACTOR = 0.75;
+    public static final double DEFAULT_HEADROOM = 1.2;
+    public static final double DEFAULT_SLOWDOWN_LIMIT = 2.0;
+    // share of the difference the baseline moves towards a slower response time per sample
+    private static final double BASELINE_DRIFT = 0.05;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetWaitMillis;
+    private int increaseStep = DEFAULT_INCREASE_STEP;
+    private double decreaseFactor = DEFAULT_DECREASE_FACTOR;
+    private double headroom = DEFAULT_HEADROOM;
+    private double slowdownLimit = DEFAULT_SLOWDOWN_LIMIT;
+    private double baselineHoldMillis = -1;
+
+    /**
+     * @param minSize lower bound of the pool size, at least 1
+     * @param maxSize upper bound of the pool size
+     * @param targetWaitMillis mean time to get a connection above which the pool grows
+     */
+    public PoolSizePolicy(int minSize, int maxSize, long targetWaitMillis) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid pool size bounds " + minSize + ".." + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetWaitMillis = targetWaitMillis;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setIncreaseStep(int increaseStep) {
+        this.increaseStep = Math.max(1, increaseStep);
+    }
+
+    /**
+     * @param decreaseFactor factor between 0 and 1 the size is multiplied with when shrinking
+     */
+    public void setDecreaseFactor(double decreaseFactor) {
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor must be between 0 and 1: " + decreaseFactor);
+        }
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    /**
+     * @param headroom factor applied to the concurrency computed by Little's law
+     */
+    public void setHeadroom(double headroom) {
+        this.headroom = Math.max(1, headroom);
+    }
+
+    /**
+     * @param slowdownLimit factor by which the response time may exceed its baseline before the
+     *            pool stops growing
+     */
+    public void setSlowdownLimit(double slowdownLimit) {
+        this.slowdownLimit = Math.max(1, slowdownLimit);
+    }
+
+    /**
+     * @param size current maximum size of the pool
+     * @param sample usage of the pool since the last decision
+     * @return new maximum size of the pool
+     */
+    public int nextSize(int size, PoolSample sample) {
+        if (sample.getConnectFailures() > 0 && sample.getFailures() == 0) {
+            return clamp(size, minSize, maxSize);
+        }
+        boolean slowedDown = updateBaseline(sample.getMeanHoldMillis());
+        int needed = getNeededSize(sample);
+        int next = size;
+        if (sample.getFailures() > 0 || sample.getMeanWaitMillis() > targetWaitMillis) {
+            if (!slowedDown) {
+                next = Math.max(size + increaseStep, needed);
+            }
+        } else {
+            int decreased = (int) (size * decreaseFactor);
+            if (sample.getPeakInUse() <= decreased) {
+                next = Math.max(decreased, Math.max(needed, sample.getPeakInUse()));
+            }
+        }
+        return clamp(next, minSize, maxSize);
+    }
+
+    /**
+     * @param size maximum size of the pool as returned by {@link #nextSize}
+     * @param sample usage of the pool since the last decision
+     * @return number of idle connections the pool should keep open, so that the mean demand can
+     *         be served without opening connections
+     */
+    public int minIdle(int size, PoolSample sample) {
+        return clamp((int) Math.ceil(sample.getConcurrency()), minSize, size);
+    }
+
+    private int getNeededSize(PoolSample sample) {
+        return (int) Math.ceil(sample.getConcurrency() * headroom);
+    }
+
+    /**
+     * Follow a faster response time at once and a slower one only slowly, so that a database
+     * getting slower under load is noticed.
+     *
+     * @return true if the response time exceeds the baseline by more than the slowdown limit
+     */
+    private boolean updateBaseline(double holdMillis) {
+        if (holdMillis <= 0) {
+            return false;
+        }
+        if (baselineHoldMillis < 0 || holdMillis < baselineHoldMillis) {
+            baselineHoldMillis = holdMillis;
+            return false;
+        }
+        boolean slowedDown = holdMillis > baselineHoldMillis * slowdownLimit;
+        baselineHoldMillis += (holdMillis - baselineHoldMillis) * BASELINE_DRIFT;
+        return slowedDown;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import static org.ops4j.pax.jdbc.pool.common.impl.ds.PoolEntry.STATE_IN_USE;
+import static org.ops4j.pax.jdbc.pool.common.impl.ds.PoolEntry.STATE_NOT_IN_USE;
+import static org.ops4j.pax.jdbc.pool.common.impl.ds.PoolEntry.STATE_REMOVED;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free container for pooled connections.
+ * <p>
+ * A thread first looks at the entries it returned itself (thread-local, no contention), then
+ * scans the shared list and finally waits for a hand-off from a returning thread. Entries are
+ * claimed with a CAS on their state, the shared list is only written when connections are
+ * added or removed.
+ */
+final class ConnectionBag {
+
+    private final CopyOnWriteArrayList<PoolEntry> sharedList;
+    private final ThreadLocal<List<WeakReference<PoolEntry>>> threadList;
+    private final SynchronousQueue<PoolEntry> handoffQueue;
+    private final AtomicInteger waiters;
+    private volatile boolean closed;
+
+    ConnectionBag() {
+        this.sharedList = new CopyOnWriteArrayList<PoolEntry>();
+        this.threadList = new ThreadLocal<List<WeakReference<PoolEntry>>>() {
+            @Override
+            protected List<WeakReference<PoolEntry>> initialValue() {
+                return new ArrayList<WeakReference<PoolEntry>>(16);
+            }
+        };
+        this.handoffQueue = new SynchronousQueue<PoolEntry>(true);
+        this.waiters = new AtomicInteger();
+    }
+
+    /**
+     * Try to claim an idle entry without waiting.
+     *
+     * @return claimed entry or null if no idle entry is available
+     */
+    PoolEntry poll() {
+        List<WeakReference<PoolEntry>> list = threadList.get();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            PoolEntry entry = list.remove(i).get();
+            if (entry != null && entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        return scanShared();
+    }
+
+    /**
+     * Wait for an entry to be returned by another thread.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return claimed entry or null if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    PoolEntry borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        waiters.incrementAndGet();
+        try {
+            // an entry may have been returned before we registered as waiter
+            PoolEntry entry = scanShared();
+            if (entry != null) {
+                return entry;
+            }
+            long remaining = unit.toNanos(timeout);
+            while (remaining > 0 && !closed) {
+                long start = System.nanoTime();
+                entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (entry == null || entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                    return entry;
+                }
+                remaining -= System.nanoTime() - start;
+            }
+            return null;
+        }
+        finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Give a borrowed entry back. Waiting threads get it handed off directly, otherwise it is
+     * remembered in the thread-local list of the returning thread.
+     *
+     * @param entry entry to return
+     */
+    void requite(PoolEntry entry) {
+        entry.markReturned();
+        entry.setState(STATE_NOT_IN_USE);
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+                return;
+            }
+            else if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            }
+            else {
+                Thread.yield();
+            }
+        }
+        List<WeakReference<PoolEntry>> list = threadList.get();
+        if (list.size() < 50) {
+            list.add(new WeakReference<PoolEntry>(entry));
+        }
+    }
+
+    /**
+     * Add a newly created entry. The entry is owned by the creating thread.
+     *
+     * @param entry entry in state in use
+     */
+    void add(PoolEntry entry) {
+        sharedList.add(entry);
+    }
+
+    /**
+     * Remove an entry that is either borrowed by the caller or idle.
+     *
+     * @param entry entry to remove
+     * @return true if this call removed the entry
+     */
+    boolean remove(PoolEntry entry) {
+        if (!entry.compareAndSet(STATE_IN_USE, STATE_REMOVED)
+            && !entry.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(entry);
+    }
+
+    /**
+     * Remove an entry only if it is idle.
+     *
+     * @param entry entry to remove
+     * @return true if this call removed the entry
+     */
+    boolean removeIdle(PoolEntry entry) {
+        return entry.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED) && sharedList.remove(entry);
+    }
+
+    /**
+     * Claim all idle entries for removal and stop handing off entries.
+     *
+     * @return entries that were idle and are now marked removed
+     */
+    List<PoolEntry> close() {
+        closed = true;
+        List<PoolEntry> removed = new ArrayList<PoolEntry>();
+        for (PoolEntry entry : sharedList) {
+            if (entry.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED)) {
+                sharedList.remove(entry);
+                removed.add(entry);
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return sharedList.size();
+    }
+
+    int getCount(int state) {
+        int count = 0;
+        for (PoolEntry entry : sharedList) {
+            if (entry.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    private PoolEntry scanShared() {
+        for (PoolEntry entry : sharedList) {
+            if (entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
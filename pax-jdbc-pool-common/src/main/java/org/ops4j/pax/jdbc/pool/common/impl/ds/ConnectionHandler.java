@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Logical connection handed out by {@link NativePooledDataSource}. Closing it returns the
+ * physical connection to the pool, all other calls are delegated. Statements, result sets and
+ * meta data created from it return the logical connection, so the physical connection can not
+ * escape. Statements left open are closed when the connection is returned.
+ */
+final class ConnectionHandler implements InvocationHandler {
+
+    private final NativePooledDataSource pool;
+    private final PoolEntry entry;
+    private final AtomicBoolean closed;
+
+    private ConnectionHandler(NativePooledDataSource pool, PoolEntry entry) {
+        this.pool = pool;
+        this.entry = entry;
+        this.closed = new AtomicBoolean();
+    }
+
+    static Connection newProxy(NativePooledDataSource pool, PoolEntry entry) {
+        return (Connection)Proxy.newProxyInstance(ConnectionHandler.class.getClassLoader(),
+            new Class<?>[] {Connection.class}, new ConnectionHandler(pool, entry));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("close".equals(name)) {
+            if (closed.compareAndSet(false, true)) {
+                pool.release(entry);
+            }
+            return null;
+        }
+        else if ("isClosed".equals(name)) {
+            return closed.get();
+        }
+        else if ("equals".equals(name)) {
+            return proxy == args[0];
+        }
+        else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        else if ("toString".equals(name)) {
+            return "Pooled" + entry;
+        }
+        if (closed.get()) {
+            throw new SQLException("Connection is closed");
+        }
+        entry.beforeInvoke(name);
+        Object result;
+        try {
+            result = method.invoke(entry.getConnection(), args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        return wrap(result, method.getReturnType(), proxy, null);
+    }
+
+    /**
+     * Wrap statements, result sets and meta data so that they return the logical connection.
+     *
+     * @param statement proxy of the statement a result set belongs to, or null
+     */
+    private Object wrap(Object result, Class<?> type, Object connection, Object statement) {
+        if (result == null) {
+            return null;
+        }
+        if (type == Statement.class || type == PreparedStatement.class || type == CallableStatement.class) {
+            entry.statementOpened((Statement)result);
+        }
+        else if (type != ResultSet.class && type != DatabaseMetaData.class) {
+            return result;
+        }
+        return Proxy.newProxyInstance(ConnectionHandler.class.getClassLoader(), new Class<?>[] {type},
+            new ChildHandler(result, connection, statement));
+    }
+
+    /**
+     * Forwards all calls to a statement, result set or meta data, but returns the logical
+     * connection and the wrapped statement.
+     */
+    private final class ChildHandler implements InvocationHandler {
+
+        private final Object delegate;
+        private final Object connection;
+        private final Object statement;
+
+        ChildHandler(Object delegate, Object connection, Object statement) {
+            this.delegate = delegate;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if ("getConnection".equals(name) && noArgs) {
+                return connection;
+            }
+            else if ("getStatement".equals(name) && noArgs && statement != null) {
+                return statement;
+            }
+            else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            }
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (delegate instanceof Statement) {
+                if ("close".equals(name) && noArgs) {
+                    entry.statementClosed((Statement)delegate);
+                }
+                return wrap(result, method.getReturnType(), connection, proxy);
+            }
+            return wrap(result, method.getReturnType(), connection, null);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+/**
+ * Settings of the native pool. Populated from the <code>pool.</code> prefixed config keys using
+ * {@link org.ops4j.pax.jdbc.pool.common.impl.BeanConfig}.
+ */
+public class NativePoolConfig {
+
+    private int maxTotal = 8;
+    private long maxWaitMillis = 30000L;
+    private long maxLifetimeMillis = 1800000L;
+    private boolean testOnBorrow;
+    private int validationTimeout = 5;
+    private boolean rollbackOnReturn = true;
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @param maxTotal maximum number of physical connections
+     */
+    public void setMaxTotal(int maxTotal) {
+        if (maxTotal < 1) {
+            throw new IllegalArgumentException("maxTotal must be at least 1");
+        }
+        this.maxTotal = maxTotal;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @param maxWaitMillis time to wait for a connection when the pool is exhausted
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    /**
+     * @param maxLifetimeMillis age after which a connection is closed instead of reused, 0 for
+     *            no limit
+     */
+    public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    public boolean getTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * @param testOnBorrow validate connections with {@link java.sql.Connection#isValid(int)}
+     *            before handing them out
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * @param validationTimeout timeout in seconds for validating a connection
+     */
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public boolean getRollbackOnReturn() {
+        return rollbackOnReturn;
+    }
+
+    /**
+     * @param rollbackOnReturn roll back open transactions when a connection is returned
+     */
+    public void setRollbackOnReturn(boolean rollbackOnReturn) {
+        this.rollbackOnReturn = rollbackOnReturn;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pooling DataSource on top of a {@link ConnectionBag}. Connections are created on the
+ * borrowing thread when the pool is below its maximum size.
+ */
+public class NativePooledDataSource implements DataSource, PoolStatistics, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NativePooledDataSource.class);
+    // waiters look again for room to create a connection after this time, a discarded
+    // connection does not hand anything off to them
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final DataSource dataSource;
+    private volatile NativePoolConfig config;
+    private final ConnectionBag bag;
+    private final AtomicInteger totalConnections;
+    private volatile boolean closed;
+
+    public NativePooledDataSource(DataSource dataSource, NativePoolConfig config) {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.bag = new ConnectionBag();
+        this.totalConnections = new AtomicInteger();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("DataSource is closed");
+        }
+        long timeout = TimeUnit.MILLISECONDS.toNanos(config.getMaxWaitMillis());
+        long start = System.nanoTime();
+        long remaining = timeout;
+        do {
+            PoolEntry entry = bag.poll();
+            if (entry == null) {
+                entry = tryCreateEntry();
+            }
+            if (entry == null) {
+                try {
+                    entry = bag.borrow(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+            }
+            if (entry != null) {
+                if (isUsable(entry)) {
+                    return ConnectionHandler.newProxy(this, entry);
+                }
+                discard(entry);
+            }
+            remaining = timeout - (System.nanoTime() - start);
+        } while (remaining > 0 && !closed);
+        throw new SQLTimeoutException("Timeout waiting for a connection after "
+            + config.getMaxWaitMillis() + " ms, pool size " + totalConnections.get());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException(
+            "Pooled connections always use the configured credentials");
+    }
+
+    /**
+     * Return a borrowed entry to the pool. Called when the logical connection is closed.
+     *
+     * @param entry borrowed entry
+     */
+    void release(PoolEntry entry) {
+        Connection connection = entry.getConnection();
+        try {
+            entry.closeStatements();
+            if (config.getRollbackOnReturn() && !connection.getAutoCommit()) {
+                connection.rollback();
+            }
+            entry.resetSettings();
+        }
+        catch (SQLException e) {
+            LOG.debug("Discarding connection that failed to reset: " + e.getMessage());
+            discard(entry);
+            return;
+        }
+        if (closed || isExpired(entry) || totalConnections.get() > config.getMaxTotal()) {
+            discard(entry);
+            return;
+        }
+        bag.requite(entry);
+        // the pool may have been closed after the check, then the entry was not claimed by close
+        if (closed && bag.removeIdle(entry)) {
+            totalConnections.decrementAndGet();
+            closeQuietly(entry.getConnection());
+        }
+    }
+
+    private PoolEntry tryCreateEntry() throws SQLException {
+        int total;
+        do {
+            total = totalConnections.get();
+            if (total >= config.getMaxTotal()) {
+                return null;
+            }
+        } while (!totalConnections.compareAndSet(total, total + 1));
+        try {
+            PoolEntry entry = new PoolEntry(dataSource.getConnection());
+            bag.add(entry);
+            return entry;
+        }
+        catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PoolEntry entry) {
+        if (isExpired(entry)) {
+            return false;
+        }
+        if (config.getTestOnBorrow()) {
+            try {
+                return entry.getConnection().isValid(config.getValidationTimeout());
+            }
+            catch (SQLException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isExpired(PoolEntry entry) {
+        long maxLifetime = config.getMaxLifetimeMillis();
+        return maxLifetime > 0 && System.currentTimeMillis() - entry.getCreatedAt() > maxLifetime;
+    }
+
+    private void discard(PoolEntry entry) {
+        if (bag.remove(entry)) {
+            totalConnections.decrementAndGet();
+        }
+        closeQuietly(entry.getConnection());
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            LOG.debug("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close all idle connections and the DataSource they were taken from. Borrowed connections
+     * are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PoolEntry entry : bag.close()) {
+            totalConnections.decrementAndGet();
+            closeQuietly(entry.getConnection());
+        }
+        if (dataSource instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) dataSource).close();
+            }
+            catch (Exception e) {
+                LOG.debug("Error closing DataSource of pool: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replace the settings of the pool. If maxTotal is lowered, surplus connections are closed
+     * as they are returned.
+     *
+     * @param config new settings
+     */
+    public void setConfig(NativePoolConfig config) {
+        this.config = config;
+    }
+
+    public int getNumActive() {
+        return bag.getCount(PoolEntry.STATE_IN_USE);
+    }
+
+    public int getNumIdle() {
+        return bag.getCount(PoolEntry.STATE_NOT_IN_USE);
+    }
+
+    public int getNumWaiters() {
+        return bag.getWaitingThreadCount();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return getNumActive();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return getNumIdle();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return getNumWaiters();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return config.getMaxTotal();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    /**
+     * Method added in JDBC 4.1/JDK 7.
+     *
+     * @return parent logger
+     * @throws SQLFeatureNotSupportedException always
+     */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("this datasource does not use java.util.logging");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates pooled DataSources using the built-in lock-free pool. Registered with
+ * <code>pool=native</code>.
+ */
+public class NativePooledDataSourceFactory implements TunablePooledDataSourceFactory, MonitoredPooledDataSourceFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(NativePooledDataSourceFactory.class);
+    protected static final String POOL_PREFIX = "pool.";
+
+    @Override
+    public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
+        try {
+            DataSource ds = dsf.createDataSource(getNonPoolProps(props));
+            NativePoolConfig conf = new NativePoolConfig();
+            BeanConfig.configure(conf, getPoolProps(props));
+            return new NativePooledDataSource(ds, conf);
+        }
+        catch (Throwable e) {
+            LOG.error("Error creating pooled datasource" + e.getMessage(), e);
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
+            }
+            else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            else {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * All settings of the native pool can be changed while it is in use.
+     */
+    @Override
+    public boolean isTunable(String key) {
+        return key.startsWith(POOL_PREFIX);
+    }
+
+    @Override
+    public void tune(DataSource ds, Properties props) throws SQLException {
+        if (!(ds instanceof NativePooledDataSource)) {
+            throw new IllegalArgumentException("Not a native pool: " + ds);
+        }
+        NativePoolConfig conf = new NativePoolConfig();
+        BeanConfig.configure(conf, getPoolProps(props));
+        ((NativePooledDataSource) ds).setConfig(conf);
+    }
+
+    @Override
+    public PoolStatistics getStatistics(DataSource ds) {
+        return ds instanceof NativePooledDataSource ? (NativePooledDataSource) ds : null;
+    }
+
+    @Override
+    public String getMaxPoolSizeKey() {
+        return POOL_PREFIX + "maxTotal";
+    }
+
+    /**
+     * The native pool opens connections on demand only.
+     */
+    @Override
+    public String getMinPoolSizeKey() {
+        return null;
+    }
+
+    protected Map<String, String> getPoolProps(Properties props) {
+        Map<String, String> poolProps = new HashMap<String, String>();
+        for (Object keyO : props.keySet()) {
+            String key = (String) keyO;
+            if (key.startsWith(POOL_PREFIX)) {
+                String strippedKey = key.substring(POOL_PREFIX.length());
+                poolProps.put(strippedKey, (String) props.get(key));
+            }
+        }
+        return poolProps;
+    }
+
+    protected Properties getNonPoolProps(Properties props) {
+        Properties dsProps = new Properties();
+        for (Object keyO : props.keySet()) {
+            String key = (String) keyO;
+            if (!key.startsWith(POOL_PREFIX)) {
+                dsProps.put(key, props.get(key));
+            }
+        }
+        return dsProps;
+    }
+
+}
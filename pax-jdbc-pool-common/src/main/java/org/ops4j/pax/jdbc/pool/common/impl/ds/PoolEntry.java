@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A physical connection held by a {@link ConnectionBag}. Ownership is claimed by a compare and
+ * set on the entry state, so no lock is needed to borrow or return it.
+ */
+final class PoolEntry {
+
+    static final int STATE_REMOVED = -1;
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+
+    private final AtomicInteger state;
+    private final Connection connection;
+    private final long createdAt;
+    // statements of the current borrower that are not closed yet
+    private final Set<Statement> openStatements;
+    private volatile long lastReturned;
+    // settings before the current borrower changed them, null if unchanged
+    private Boolean autoCommit;
+    private Boolean readOnly;
+    private Integer transactionIsolation;
+    private boolean catalogChanged;
+    private String catalog;
+
+    PoolEntry(Connection connection) {
+        this.connection = connection;
+        this.state = new AtomicInteger(STATE_IN_USE);
+        this.createdAt = System.currentTimeMillis();
+        this.openStatements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+        this.lastReturned = createdAt;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    int getState() {
+        return state.get();
+    }
+
+    void setState(int newState) {
+        state.set(newState);
+    }
+
+    boolean compareAndSet(int expect, int update) {
+        return state.compareAndSet(expect, update);
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastReturned() {
+        return lastReturned;
+    }
+
+    void markReturned() {
+        lastReturned = System.currentTimeMillis();
+    }
+
+    /**
+     * Remember a setting before the borrower changes it for the first time, so that
+     * {@link #resetSettings()} can restore it. Only called by the borrowing thread.
+     *
+     * @param method name of the connection method about to be called
+     */
+    void beforeInvoke(String method) throws SQLException {
+        if ("setAutoCommit".equals(method) && autoCommit == null) {
+            autoCommit = connection.getAutoCommit();
+        }
+        else if ("setReadOnly".equals(method) && readOnly == null) {
+            readOnly = connection.isReadOnly();
+        }
+        else if ("setTransactionIsolation".equals(method) && transactionIsolation == null) {
+            transactionIsolation = connection.getTransactionIsolation();
+        }
+        else if ("setCatalog".equals(method) && !catalogChanged) {
+            catalog = connection.getCatalog();
+            catalogChanged = true;
+        }
+    }
+
+    void statementOpened(Statement statement) {
+        openStatements.add(statement);
+    }
+
+    void statementClosed(Statement statement) {
+        openStatements.remove(statement);
+    }
+
+    /**
+     * Close the statements the last borrower left open, so that they can not be used on the
+     * connection of the next borrower.
+     */
+    void closeStatements() throws SQLException {
+        SQLException failure = null;
+        for (Statement statement : openStatements) {
+            try {
+                statement.close();
+            }
+            catch (SQLException e) {
+                failure = e;
+            }
+        }
+        openStatements.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Restore the settings changed by the last borrower.
+     */
+    void resetSettings() throws SQLException {
+        if (autoCommit != null) {
+            connection.setAutoCommit(autoCommit);
+            autoCommit = null;
+        }
+        if (readOnly != null) {
+            connection.setReadOnly(readOnly);
+            readOnly = null;
+        }
+        if (transactionIsolation != null) {
+            connection.setTransactionIsolation(transactionIsolation);
+            transactionIsolation = null;
+        }
+        if (catalogChanged) {
+            connection.setCatalog(catalog);
+            catalogChanged = false;
+            catalog = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PoolEntry[" + connection + ", state=" + state.get() + "]";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.pool2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
+
+/**
+ * Remembers the commons-pool2 pools behind the DataSources of a pooling support, so that they
+ * can be tuned and monitored while in use. Not part of the pax-jdbc-pool-common bundle API, the
+ * pooling supports based on commons-pool2 embed this package.
+ */
+public class GenericObjectPools {
+
+    // pool settings that GenericObjectPool only takes on construction
+    private static final Set<String> FIXED_POOL_KEYS = new HashSet<String>(Arrays.asList(
+        "jmxEnabled", "jmxNameBase", "jmxNamePrefix", "fairness"));
+
+    private final String poolPrefix;
+    private final Map<DataSource, GenericObjectPool<?>> pools = Collections.synchronizedMap(
+        new WeakHashMap<DataSource, GenericObjectPool<?>>());
+
+    /**
+     * @param poolPrefix prefix of the config keys of the pool settings
+     */
+    public GenericObjectPools(String poolPrefix) {
+        this.poolPrefix = poolPrefix;
+    }
+
+    /**
+     * Remember the pool behind a DataSource so it can be tuned later.
+     */
+    public DataSource withPool(DataSource ds, GenericObjectPool<?> pool) {
+        pools.put(ds, pool);
+        return ds;
+    }
+
+    public boolean isTunable(String key) {
+        return key.startsWith(poolPrefix)
+            && !FIXED_POOL_KEYS.contains(key.substring(poolPrefix.length()));
+    }
+
+    /**
+     * Apply pool settings to the live pool of a DataSource.
+     *
+     * @param poolProps pool settings without prefix
+     */
+    public void tune(DataSource ds, Map<String, String> poolProps) {
+        GenericObjectPool<?> pool = pools.get(ds);
+        if (pool == null) {
+            throw new IllegalArgumentException("DataSource was not created by this factory: " + ds);
+        }
+        GenericObjectPoolConfig conf = new GenericObjectPoolConfig();
+        BeanConfig.configure(conf, poolProps);
+        pool.setConfig(conf);
+    }
+
+    /**
+     * @return statistics of the pool of a DataSource, null if it was not created by this factory
+     */
+    public PoolStatistics getStatistics(DataSource ds) {
+        final GenericObjectPool<?> pool = pools.get(ds);
+        if (pool == null) {
+            return null;
+        }
+        return new PoolStatistics() {
+
+            @Override
+            public int getActiveConnections() {
+                return pool.getNumActive();
+            }
+
+            @Override
+            public int getIdleConnections() {
+                return pool.getNumIdle();
+            }
+
+            @Override
+            public int getWaitingThreads() {
+                return pool.getNumWaiters();
+            }
+
+            @Override
+            public int getMaxConnections() {
+                return pool.getMaxTotal();
+            }
+        };
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
+
+public class AdaptivePoolSizerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testGrowsAdditivelyWhenWaiting() {
+        PoolSizePolicy policy = new PoolSizePolicy(1, 20, 50);
+        // 10 requests/s held 100 ms need 1 connection, but they waited 200 ms
+        PoolSample sample = new PoolSample(SECOND, 10, 0, 0, 10 * 200 * MILLI, 10, 10 * 100 * MILLI, 4);
+        Assert.assertEquals(6, policy.nextSize(4, sample));
+    }
+
+    @Test
+    public void testGrowsToLittlesLawAtOnce() {
+        PoolSizePolicy policy = new PoolSizePolicy(1, 50, 50);
+        // 200 requests/s held 100 ms keep 20 connections busy, plus 20% headroom
+        PoolSample sample = new PoolSample(SECOND, 200, 0, 0, 200 * 100 * MILLI, 200, 200 * 100 * MILLI, 4);
+        Assert.assertEquals(24, policy.nextSize(4, sample));
+        Assert.assertEquals(20, policy.minIdle(24, sample));
+    }
+
+    @Test
+    public void testGrowsWithinBounds() {
+        PoolSizePolicy policy = new PoolSizePolicy(2, 10, 50);
+        PoolSample sample = new PoolSample(SECOND, 200, 5, 0, 205 * 100 * MILLI, 200, 200 * 100 * MILLI, 10);
+        Assert.assertEquals(10, policy.nextSize(10, sample));
+    }
+
+    @Test
+    public void testShrinksMultiplicativelyWhenIdle() {
+        PoolSizePolicy policy = new PoolSizePolicy(2, 50, 50);
+        PoolSample sample = new PoolSample(SECOND, 10, 0, 0, 10 * MILLI, 10, 10 * 10 * MILLI, 1);
+        Assert.assertEquals(30, policy.nextSize(40, sample));
+        Assert.assertEquals(22, policy.nextSize(30, sample));
+        Assert.assertEquals(2, policy.nextSize(2, sample));
+    }
+
+    @Test
+    public void testKeepsSizeInUse() {
+        PoolSizePolicy policy = new PoolSizePolicy(1, 50, 50);
+        PoolSample sample = new PoolSample(SECOND, 100, 0, 0, 100 * MILLI, 100, 100 * 50 * MILLI, 9);
+        Assert.assertEquals(10, policy.nextSize(10, sample));
+    }
+
+    @Test
+    public void testDoesNotGrowWhenDatabaseSlowsDown() {
+        PoolSizePolicy policy = new PoolSizePolicy(1, 50, 50);
+        PoolSample fast = new PoolSample(SECOND, 10, 0, 0, 10 * MILLI, 10, 10 * 10 * MILLI, 1);
+        policy.nextSize(10, fast);
+        PoolSample slow = new PoolSample(SECOND, 100, 0, 0, 100 * 500 * MILLI, 100, 100 * 100 * MILLI, 10);
+        Assert.assertEquals(10, policy.nextSize(10, slow));
+    }
+
+    @Test
+    public void testKeepsSizeWhenConnectsFail() {
+        PoolSizePolicy policy = new PoolSizePolicy(1, 50, 50);
+        // the database is down: connects fail although the pool has room, the few connections
+        // handed out waited long
+        PoolSample sample = new PoolSample(SECOND, 5, 0, 20, 5 * 500 * MILLI, 5, 5 * 10 * MILLI, 2);
+        Assert.assertEquals(8, policy.nextSize(8, sample));
+        // timeouts of the exhausted pool still make it grow
+        PoolSample exhausted = new PoolSample(SECOND, 5, 3, 20, 8 * 500 * MILLI, 5, 5 * 10 * MILLI, 8);
+        Assert.assertEquals(10, policy.nextSize(8, exhausted));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new PoolSizePolicy(10, 5, 50);
+    }
+
+    @Test
+    public void testSizerMeasuresAndTunes() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        TunablePooledDataSourceFactory factory = c.createMock(TunablePooledDataSourceFactory.class);
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(factory.getMaxPoolSizeKey()).andReturn("pool.maxTotal").anyTimes();
+        EasyMock.expect(factory.getMinPoolSizeKey()).andReturn("pool.minIdle").anyTimes();
+        Properties initial = new Properties();
+        initial.put("pool.maxTotal", "8");
+        initial.put("pool.testOnBorrow", "true");
+        initial.put("pool.minIdle", "3");
+        factory.tune(pool, initial);
+        EasyMock.expect(pool.getConnection()).andReturn(connection).times(2);
+        EasyMock.expect(pool.getConnection()).andThrow(new SQLException("Pool exhausted"));
+        connection.close();
+        EasyMock.expectLastCall().times(2);
+        Properties grown = new Properties();
+        grown.put("pool.maxTotal", "10");
+        grown.put("pool.testOnBorrow", "true");
+        grown.put("pool.minIdle", "1");
+        factory.tune(pool, grown);
+        c.replay();
+
+        Properties config = new Properties();
+        config.put("pool.maxTotal", "8");
+        config.put("pool.testOnBorrow", "true");
+        config.put("pool.minIdle", "3");
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer("test", factory, pool, config, new PoolSizePolicy(1, 10, 50));
+        sizer.start(TimeUnit.HOURS.toMillis(1));
+        DataSource ds = sizer.getDataSource();
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        try {
+            ds.getConnection();
+            Assert.fail("Expected SQLException");
+        } catch (SQLException e) {
+            // counted as failure
+        }
+        first.close();
+        first.close();
+        second.close();
+        // the failed attempt makes the pool grow
+        sizer.adjust();
+        sizer.close();
+        c.verify();
+        Assert.assertEquals(10, sizer.getSize());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BeanConfigTest {
+
+    public enum Mode {
+        FAST, SAFE
+    }
+
+    public static class Bean {
+
+        private int size;
+        private long timeout;
+        private boolean enabled;
+        private String name;
+        private Mode mode;
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public void setBroken(String value) {
+            throw new LinkageError("Broken setter");
+        }
+    }
+
+    @Test
+    public void testConfigure() {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("size", "8");
+        props.put("timeout", "30000");
+        props.put("enabled", "true");
+        props.put("name", "test");
+        props.put("mode", "SAFE");
+        Bean bean = new Bean();
+        BeanConfig.configure(bean, props);
+        Assert.assertEquals(8, bean.size);
+        Assert.assertEquals(30000L, bean.timeout);
+        Assert.assertTrue(bean.enabled);
+        Assert.assertEquals("test", bean.name);
+        Assert.assertEquals(Mode.SAFE, bean.mode);
+    }
+
+    @Test
+    public void testTypedValue() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("size", 4);
+        Bean bean = new Bean();
+        BeanConfig.configure(bean, props);
+        Assert.assertEquals(4, bean.size);
+    }
+
+    @Test
+    public void testInvalidValue() {
+        try {
+            BeanConfig.configure(new Bean(), Collections.singletonMap("size", "many"));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Error setting property size:For input string: \"many\"", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testErrorIsNotWrapped() {
+        try {
+            BeanConfig.configure(new Bean(), Collections.singletonMap("broken", "true"));
+            Assert.fail("Expected LinkageError");
+        } catch (LinkageError e) {
+            Assert.assertEquals("Broken setter", e.getMessage());
+        }
+    }
+}
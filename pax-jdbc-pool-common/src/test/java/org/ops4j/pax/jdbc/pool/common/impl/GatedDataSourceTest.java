@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GatedDataSourceTest {
+
+    @Test
+    public void testWaitsInFrontOfPool() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(pool.getConnection()).andReturn(connection).times(2);
+        connection.close();
+        c.replay();
+
+        GatedDataSource ds = new GatedDataSource(pool, 1, 10);
+        Connection first = ds.getConnection();
+        Assert.assertEquals(1, ds.getInUse());
+        try {
+            ds.getConnection();
+            Assert.fail("Expected SQLTimeoutException");
+        } catch (SQLTimeoutException e) {
+            // the pool was not asked
+        }
+        first.close();
+        first.close();
+        Assert.assertEquals(0, ds.getInUse());
+        ds.getConnection();
+        Assert.assertEquals(1, ds.getInUse());
+        c.verify();
+    }
+
+    @Test
+    public void testCloseThroughStatementReleasesPermit() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        EasyMock.expect(pool.getConnection()).andReturn(connection);
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        connection.close();
+        c.replay();
+
+        GatedDataSource ds = new GatedDataSource(pool, 1, 10);
+        Connection borrowed = ds.getConnection();
+        Statement wrapped = borrowed.createStatement();
+        Assert.assertSame(borrowed, wrapped.getConnection());
+        wrapped.getConnection().close();
+        Assert.assertEquals(0, ds.getInUse());
+        c.verify();
+    }
+
+    @Test
+    public void testReleasesPermitOnFailure() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        EasyMock.expect(pool.getConnection()).andThrow(new SQLException("Connection refused"));
+        c.replay();
+
+        GatedDataSource ds = new GatedDataSource(pool, 1, 10);
+        try {
+            ds.getConnection();
+            Assert.fail("Expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        Assert.assertEquals(0, ds.getInUse());
+        c.verify();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPermits() {
+        new GatedDataSource(null, 0, 10);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.sql.Connection;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LeakDetectorTest {
+
+    @Test
+    public void testReportsConnectionsHeldPastThreshold() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection leaked = c.createMock(Connection.class);
+        Connection returned = c.createMock(Connection.class);
+        EasyMock.expect(pool.getConnection()).andReturn(leaked);
+        EasyMock.expect(pool.getConnection()).andReturn(returned);
+        returned.close();
+        c.replay();
+
+        LeakDetector detector = new LeakDetector("test", 10, 1);
+        DataSource ds = detector.wrap(pool, "org.example.app [42]");
+        ds.getConnection();
+        Connection connection = ds.getConnection();
+        connection.close();
+        connection.close();
+        Assert.assertEquals(1, detector.getOpenConnections());
+        Thread.sleep(20);
+        Assert.assertEquals(1, detector.check());
+        // reported only once
+        Assert.assertEquals(0, detector.check());
+        detector.close();
+        c.verify();
+    }
+
+    @Test
+    public void testIgnoresConnectionsWithinThreshold() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource pool = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(pool.getConnection()).andReturn(connection);
+        c.replay();
+
+        LeakDetector detector = new LeakDetector("test", 60000, 0);
+        detector.wrap(pool, "org.example.app [42]").getConnection();
+        Assert.assertEquals(0, detector.check());
+        Assert.assertEquals(1, detector.getOpenConnections());
+        c.verify();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new LeakDetector("test", 1000, 2);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.ds;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class NativePooledDataSourceFactoryTest {
+
+    @Test
+    public void testCreateDataSource() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        DataSource ds = c.createMock(DataSource.class);
+        EasyMock.expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds);
+        NativePooledDataSourceFactory pdsf = new NativePooledDataSourceFactory();
+
+        c.replay();
+        DataSource pooled = pdsf.create(dsf, createValidProps());
+        c.verify();
+        Assert.assertEquals(NativePooledDataSource.class, pooled.getClass());
+    }
+
+    @Test
+    public void testInvalidPoolConfig() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSourceFactory dsf = c.createMock(DataSourceFactory.class);
+        DataSource ds = c.createMock(DataSource.class);
+        EasyMock.expect(dsf.createDataSource(EasyMock.anyObject(Properties.class))).andReturn(ds);
+        NativePooledDataSourceFactory pdsf = new NativePooledDataSourceFactory();
+        Properties props = new Properties();
+        props.put("pool.dummy", "8");
+
+        c.replay();
+        try {
+            pdsf.create(dsf, props);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Error setting property dummy:No setter in class org.ops4j.pax.jdbc.pool.common.impl.ds.NativePoolConfig for property dummy", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true).times(2);
+        connection.close();
+        EasyMock.expectLastCall();
+
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, new NativePoolConfig());
+        c.replay();
+        Connection first = pooled.getConnection();
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        Connection second = pooled.getConnection();
+        Assert.assertEquals(1, pooled.getNumActive());
+        second.close();
+        Assert.assertEquals(1, pooled.getNumIdle());
+        pooled.close();
+        c.verify();
+        Assert.assertEquals(0, pooled.getNumIdle());
+    }
+
+    @Test
+    public void testExhaustedPoolTimesOut() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+
+        NativePoolConfig config = new NativePoolConfig();
+        config.setMaxTotal(1);
+        config.setMaxWaitMillis(50);
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, config);
+        c.replay();
+        pooled.getConnection();
+        try {
+            pooled.getConnection();
+            Assert.fail("Expected SQLTimeoutException");
+        } catch (SQLTimeoutException e) {
+            // expected
+        }
+        c.verify();
+    }
+
+    @Test
+    public void testSettingsAreResetOnReturn() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+        EasyMock.expect(connection.isReadOnly()).andReturn(false).once();
+        connection.setReadOnly(true);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.expect(connection.getTransactionIsolation()).andReturn(Connection.TRANSACTION_READ_COMMITTED).once();
+        connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true).once();
+        connection.setReadOnly(false);
+        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, new NativePoolConfig());
+        c.replay();
+        Connection borrowed = pooled.getConnection();
+        borrowed.setReadOnly(true);
+        borrowed.setReadOnly(true);
+        borrowed.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        borrowed.close();
+        c.verify();
+    }
+
+    @Test
+    public void testStatementReturnsLogicalConnection() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, new NativePoolConfig());
+        c.replay();
+        Connection borrowed = pooled.getConnection();
+        Assert.assertSame(borrowed, borrowed.createStatement().getConnection());
+        c.verify();
+    }
+
+    @Test
+    public void testResultSetReturnsLogicalStatement() throws SQLException {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        Statement statement = c.createMock(Statement.class);
+        ResultSet rs = c.createMock(ResultSet.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+        EasyMock.expect(connection.createStatement()).andReturn(statement);
+        EasyMock.expect(statement.executeQuery("SELECT 1")).andReturn(rs);
+        // left open by the borrower, closed when the connection is returned
+        statement.close();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true).once();
+
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, new NativePoolConfig());
+        c.replay();
+        Connection borrowed = pooled.getConnection();
+        Statement logical = borrowed.createStatement();
+        ResultSet result = logical.executeQuery("SELECT 1");
+        Assert.assertSame(logical, result.getStatement());
+        result.getStatement().getConnection().close();
+        Assert.assertTrue(borrowed.isClosed());
+        Assert.assertEquals(1, pooled.getNumIdle());
+        c.verify();
+    }
+
+    @Test
+    public void testWaiterCreatesConnectionAfterDiscard() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection broken = c.createMock(Connection.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(ds.getConnection()).andReturn(broken);
+        EasyMock.expect(ds.getConnection()).andReturn(connection);
+        EasyMock.expect(broken.getAutoCommit()).andThrow(new SQLException("Connection reset"));
+        broken.close();
+
+        NativePoolConfig config = new NativePoolConfig();
+        config.setMaxTotal(1);
+        config.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(10));
+        final NativePooledDataSource pooled = new NativePooledDataSource(ds, config);
+        c.replay();
+        Connection borrowed = pooled.getConnection();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiter = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    result.set(pooled.getConnection());
+                } catch (SQLException e) {
+                    result.set(e);
+                }
+            }
+        });
+        waiter.start();
+        while (pooled.getNumWaiters() == 0) {
+            Thread.sleep(1);
+        }
+        // the connection fails to reset and is discarded, which frees room for the waiter
+        borrowed.close();
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertTrue(result.get() instanceof Connection);
+        Assert.assertEquals(1, pooled.getNumActive());
+        c.verify();
+    }
+
+    @Test
+    public void testConcurrentCloseReturnsOnce() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        DataSource ds = c.createMock(DataSource.class);
+        Connection connection = c.createMock(Connection.class);
+        EasyMock.expect(ds.getConnection()).andReturn(connection).once();
+        EasyMock.expect(connection.getAutoCommit()).andReturn(true).once();
+
+        NativePooledDataSource pooled = new NativePooledDataSource(ds, new NativePoolConfig());
+        c.replay();
+        final Connection borrowed = pooled.getConnection();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        borrowed.close();
+                    } catch (InterruptedException | SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        c.verify();
+        Assert.assertEquals(1, pooled.getNumIdle());
+    }
+
+    private Properties createValidProps() {
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        props.put("pool.testOnBorrow", "true");
+        return props;
+    }
+
+}
@@ -31,8 +31,11 @@ import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.PoolingDataSource;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
-import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
 import org.ops4j.pax.jdbc.pool.common.impl.BeanConfig;
+import org.ops4j.pax.jdbc.pool.common.impl.pool2.GenericObjectPools;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 /**
@@ -41,10 +44,12 @@ import org.osgi.service.jdbc.DataSourceFactory;
  * XADataSource and handles the XA Resources. This kind of DataSource can then for example be used
  * in persistence.xml as jta-data-source
  */
-public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
+public class DbcpPooledDataSourceFactory implements TunablePooledDataSourceFactory, MonitoredPooledDataSourceFactory {
     protected static final String POOL_PREFIX = "pool.";
     protected static final String FACTORY_PREFIX = "factory.";
 
+    private final GenericObjectPools pools = new GenericObjectPools(POOL_PREFIX);
+
     protected Map<String, String> getPoolProps(Properties props) {
         Map<String, String> poolProps = getPrefixed(props, POOL_PREFIX);
         if (poolProps.get("jmxNameBase") == null) {
@@ -105,7 +110,7 @@ public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
             BeanConfig.configure(pcf, getPrefixed(props, FACTORY_PREFIX));
             GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(pcf, conf);
             pcf.setPool(pool);
-            return new PoolingDataSource<PoolableConnection>(pool);
+            return withPool(new PoolingDataSource<PoolableConnection>(pool), pool);
         }
         catch (Throwable e) {
             if (e instanceof SQLException) {
@@ -119,4 +124,36 @@ public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
             }
         }
     }
+
+    /**
+     * Remember the pool behind a DataSource so it can be tuned later.
+     */
+    protected DataSource withPool(DataSource ds, GenericObjectPool<?> pool) {
+        return pools.withPool(ds, pool);
+    }
+
+    @Override
+    public boolean isTunable(String key) {
+        return pools.isTunable(key);
+    }
+
+    @Override
+    public void tune(DataSource ds, Properties props) throws SQLException {
+        pools.tune(ds, getPoolProps(props));
+    }
+
+    @Override
+    public PoolStatistics getStatistics(DataSource ds) {
+        return pools.getStatistics(ds);
+    }
+
+    @Override
+    public String getMaxPoolSizeKey() {
+        return POOL_PREFIX + "maxTotal";
+    }
+
+    @Override
+    public String getMinPoolSizeKey() {
+        return POOL_PREFIX + "minIdle";
+    }
 }
@@ -76,7 +76,7 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
             GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(pcf, conf);
             pcf.setPool(pool);
             TransactionRegistry transactionRegistry = connFactory.getTransactionRegistry();
-            return new ManagedDataSource<PoolableConnection>(pool, transactionRegistry);
+            return withPool(new ManagedDataSource<PoolableConnection>(pool, transactionRegistry), pool);
         }
         catch (Throwable e) {
             if (e instanceof SQLException) {
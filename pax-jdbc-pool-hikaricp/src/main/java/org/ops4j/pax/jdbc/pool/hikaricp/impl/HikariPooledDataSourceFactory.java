@@ -16,26 +16,37 @@
 package org.ops4j.pax.jdbc.pool.hikaricp.impl;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
-import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.MonitoredPooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.PoolStatistics;
+import org.ops4j.pax.jdbc.pool.common.TunablePooledDataSourceFactory;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 /**
  * Creates pooled ready DataSources out of a non pooled DataSourceFactory. XA
  * datasources are not supported. This kind of DataSource can then for example be used
  * in persistence.xml as jta-data-source
  */
-public class HikariPooledDataSourceFactory implements PooledDataSourceFactory {
+public class HikariPooledDataSourceFactory implements TunablePooledDataSourceFactory, MonitoredPooledDataSourceFactory {
     private static final Logger LOG = LoggerFactory.getLogger(HikariPooledDataSourceFactory.class);
     protected static final String POOL_PREFIX = "hikari.";
+    // settings exposed by HikariConfigMXBean
+    private static final Set<String> TUNABLE_KEYS = new HashSet<String>(Arrays.asList(
+        "connectionTimeout", "validationTimeout", "idleTimeout", "leakDetectionThreshold",
+        "maxLifetime", "minimumIdle", "maximumPoolSize"));
 
     public HikariPooledDataSourceFactory() {
     }
@@ -82,4 +93,86 @@ public class HikariPooledDataSourceFactory implements PooledDataSourceFactory {
             }
         }
     }
+
+    @Override
+    public boolean isTunable(String key) {
+        return key.startsWith(POOL_PREFIX) && TUNABLE_KEYS.contains(key.substring(POOL_PREFIX.length()));
+    }
+
+    @Override
+    public void tune(DataSource ds, Properties config) throws SQLException {
+        if (!(ds instanceof HikariConfigMXBean)) {
+            throw new IllegalArgumentException("Not a Hikari DataSource: " + ds);
+        }
+        HikariConfig hconfig = new HikariConfig(getPoolProps(config));
+        // like HikariConfig.validate(), an unset minimumIdle means a fixed size pool
+        int minimumIdle = hconfig.getMinimumIdle();
+        if (minimumIdle < 0 || minimumIdle > hconfig.getMaximumPoolSize()) {
+            minimumIdle = hconfig.getMaximumPoolSize();
+        }
+        // check all values first, so that a failed update does not leave the pool half tuned
+        check(hconfig.getMaximumPoolSize() >= 1, "maximumPoolSize", hconfig.getMaximumPoolSize());
+        check(hconfig.getConnectionTimeout() >= 250, "connectionTimeout", hconfig.getConnectionTimeout());
+        check(hconfig.getValidationTimeout() >= 250, "validationTimeout", hconfig.getValidationTimeout());
+        check(hconfig.getIdleTimeout() >= 0, "idleTimeout", hconfig.getIdleTimeout());
+        check(hconfig.getLeakDetectionThreshold() >= 0, "leakDetectionThreshold", hconfig.getLeakDetectionThreshold());
+        check(hconfig.getMaxLifetime() >= 0, "maxLifetime", hconfig.getMaxLifetime());
+        HikariConfigMXBean bean = (HikariConfigMXBean) ds;
+        bean.setConnectionTimeout(hconfig.getConnectionTimeout());
+        bean.setValidationTimeout(hconfig.getValidationTimeout());
+        bean.setIdleTimeout(hconfig.getIdleTimeout());
+        bean.setLeakDetectionThreshold(hconfig.getLeakDetectionThreshold());
+        bean.setMaxLifetime(hconfig.getMaxLifetime());
+        bean.setMaximumPoolSize(hconfig.getMaximumPoolSize());
+        bean.setMinimumIdle(minimumIdle);
+    }
+
+    private static void check(boolean valid, String key, long value) {
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid value for " + POOL_PREFIX + key + ": " + value);
+        }
+    }
+
+    @Override
+    public PoolStatistics getStatistics(DataSource ds) {
+        if (!(ds instanceof HikariDataSource)) {
+            return null;
+        }
+        final HikariDataSource hds = (HikariDataSource) ds;
+        return new PoolStatistics() {
+
+            @Override
+            public int getActiveConnections() {
+                HikariPoolMXBean pool = hds.getHikariPoolMXBean();
+                return pool != null ? pool.getActiveConnections() : -1;
+            }
+
+            @Override
+            public int getIdleConnections() {
+                HikariPoolMXBean pool = hds.getHikariPoolMXBean();
+                return pool != null ? pool.getIdleConnections() : -1;
+            }
+
+            @Override
+            public int getWaitingThreads() {
+                HikariPoolMXBean pool = hds.getHikariPoolMXBean();
+                return pool != null ? pool.getThreadsAwaitingConnection() : -1;
+            }
+
+            @Override
+            public int getMaxConnections() {
+                return hds.getMaximumPoolSize();
+            }
+        };
+    }
+
+    @Override
+    public String getMaxPoolSizeKey() {
+        return POOL_PREFIX + "maximumPoolSize";
+    }
+
+    @Override
+    public String getMinPoolSizeKey() {
+        return POOL_PREFIX + "minimumIdle";
+    }
 }
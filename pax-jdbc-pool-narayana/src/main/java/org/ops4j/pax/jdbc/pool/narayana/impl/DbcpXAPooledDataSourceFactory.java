@@ -101,7 +101,7 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
                     super.close();
                 }
             };
-            return mds;
+            return withPool(mds, pool);
         }
         catch (Throwable e) {
             LOG.error("Error creating pooled datasource" + e.getMessage(), e);
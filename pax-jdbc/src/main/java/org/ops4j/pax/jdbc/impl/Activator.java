@@ -20,8 +20,15 @@ package org.ops4j.pax.jdbc.impl;
 import java.sql.Driver;
 import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.ops4j.spi.SafeServiceLoader;
 import org.osgi.framework.Bundle;
@@ -38,84 +45,226 @@ import org.osgi.util.tracker.BundleTrackerCustomizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Activator implements BundleActivator, BundleTrackerCustomizer<List<ServiceRegistration<DataSourceFactory>>> {
+public class Activator implements BundleActivator, BundleTrackerCustomizer<DriverRegistrations> {
 
     private static Logger log = LoggerFactory.getLogger(Activator.class);
     public static final String BUNDLE_NAME = "org.ops4j.pax.jdbc";
 
-    private BundleTracker<List<ServiceRegistration<DataSourceFactory>>> tracker;
+    /**
+     * Framework property enabling driver discovery and registration on worker threads instead of
+     * the bundle event thread.
+     */
+    public static final String ASYNC_REGISTRATION = "org.ops4j.pax.jdbc.asyncRegistration";
+
+    /**
+     * Framework property for the number of worker threads used with asynchronous registration.
+     */
+    public static final String REGISTRATION_THREADS = "org.ops4j.pax.jdbc.registrationThreads";
+
+    private static final int SCHEDULER_THREADS = 2;
+    private static final int DEFAULT_REGISTRATION_THREADS = 2;
+
+    private BundleTracker<DriverRegistrations> tracker;
+    private ScheduledThreadPoolExecutor executor;
+    private ThreadPoolExecutor registrationExecutor;
+    private DriverIndex driverIndex;
 
     @Override
     public void start(final BundleContext bc) throws Exception {
         log.debug("starting bundle {}", BUNDLE_NAME);
+        executor = createExecutor();
+        if (Boolean.parseBoolean(bc.getProperty(ASYNC_REGISTRATION))) {
+            registrationExecutor = createRegistrationExecutor(getRegistrationThreads(bc));
+        }
+        driverIndex = new DriverIndex(bc.getDataFile("driver-index.properties"));
+        driverIndex.load();
         tracker = new BundleTracker<>(bc, Bundle.ACTIVE, this);
         tracker.open();
+        driverIndex.save();
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
         log.debug("stopping bundle {}", BUNDLE_NAME);
         tracker.close();
+        if (registrationExecutor != null) {
+            registrationExecutor.shutdownNow();
+        }
+        executor.shutdownNow();
+        driverIndex.retainAll(context.getBundles());
+        driverIndex.save();
+    }
+
+    /**
+     * Scheduler shared by all DataSources of this bundle for connect timeouts and the expiry of
+     * prefetched connections. Connects themselves run on an executor of each DataSource, so an
+     * unreachable database does not hold up the others. Threads are daemons and time out when
+     * idle.
+     */
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS,
+            new NamedThreadFactory("pax-jdbc-scheduler-"));
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Executor for discovering drivers and registering their DataSourceFactory services, so that
+     * slow driver initialization does not block the bundle event thread.
+     */
+    private static ThreadPoolExecutor createRegistrationExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("pax-jdbc-register-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getRegistrationThreads(BundleContext bc) {
+        String threads = bc.getProperty(REGISTRATION_THREADS);
+        if (threads == null) {
+            return DEFAULT_REGISTRATION_THREADS;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(threads.trim()));
+        }
+        catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}", REGISTRATION_THREADS, threads);
+            return DEFAULT_REGISTRATION_THREADS;
+        }
     }
 
     @Override
-    public List<ServiceRegistration<DataSourceFactory>> addingBundle(Bundle bundle, BundleEvent event) {
+    public DriverRegistrations addingBundle(final Bundle bundle, BundleEvent event) {
         if (bundle.getBundleId() == 0) {
             return null;
         }
+        final DriverRegistrations registrations = new DriverRegistrations();
+        if (registrationExecutor == null) {
+            registerDrivers(bundle, registrations);
+            return registrations.isEmpty() ? null : registrations;
+        }
+        // track the bundle right away so removedBundle can stop a scan that is still running
         try {
-            ServiceReference<?>[] registered = bundle.getRegisteredServices();
-            ClassLoader cl = bundle.adapt(BundleWiring.class).getClassLoader();
-            SafeServiceLoader serviceLoader = new SafeServiceLoader(cl);
-            List<Driver> drivers = serviceLoader.load(Driver.class.getName());
-            List<ServiceRegistration<DataSourceFactory>> registrations = new ArrayList<>();
-            for (Driver driver : drivers) {
-                boolean alreadyRegistered = false;
-                if (registered != null) {
-                    for (ServiceReference<?> ref : registered) {
-                        if (isSameDataSourceFactory(driver, ref)) {
-                            alreadyRegistered = true;
-                            break;
-                        }
-                    }
+            registrations.setScan(registrationExecutor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    registerDrivers(bundle, registrations);
                 }
-                if (!alreadyRegistered) {
-                    DriverDataSourceFactory dsf = new DriverDataSourceFactory(driver);
-                    Dictionary<String, String> props = new Hashtable<>();
-                    props.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, driver.getClass().getName());
-                    if (bundle.getSymbolicName() != null) {
-                        props.put(DataSourceFactory.OSGI_JDBC_DRIVER_NAME, bundle.getSymbolicName());
-                    }
-                    if (bundle.getVersion() != null) {
-                        props.put(DataSourceFactory.OSGI_JDBC_DRIVER_VERSION, bundle.getVersion().toString());
+            }));
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return registrations;
+    }
+
+    private void registerDrivers(final Bundle bundle, DriverRegistrations registrations) {
+        try {
+            List<Driver> drivers = findDrivers(bundle);
+            if (drivers.isEmpty()) {
+                return;
+            }
+            Map<String, ServiceReference<?>> registered = getRegisteredDataSourceFactories(bundle);
+            for (final Driver driver : drivers) {
+                if (!registered.containsKey(driver.getClass().getName())) {
+                    boolean open = registrations.register(new DriverRegistrations.Registrar() {
+
+                        @Override
+                        public ServiceRegistration<DataSourceFactory> register() {
+                            return registerDataSourceFactory(bundle, driver);
+                        }
+                    });
+                    if (!open) {
+                        return;
                     }
-                    ServiceRegistration<DataSourceFactory> reg = bundle.getBundleContext().registerService(DataSourceFactory.class, dsf, props);
-                    registrations.add(reg);
                 }
             }
-            return registrations.isEmpty() ? null : registrations;
         } catch (Exception ex) {
-            ex.printStackTrace();
-            return null;
+            if (registrations.isClosed()) {
+                log.debug("Bundle {} went away while registering its drivers", bundle.getSymbolicName());
+            } else {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private ServiceRegistration<DataSourceFactory> registerDataSourceFactory(Bundle bundle, Driver driver) {
+        DriverDataSourceFactory dsf = new DriverDataSourceFactory(driver, executor);
+        Dictionary<String, String> props = new Hashtable<>();
+        props.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, driver.getClass().getName());
+        if (bundle.getSymbolicName() != null) {
+            props.put(DataSourceFactory.OSGI_JDBC_DRIVER_NAME, bundle.getSymbolicName());
+        }
+        if (bundle.getVersion() != null) {
+            props.put(DataSourceFactory.OSGI_JDBC_DRIVER_VERSION, bundle.getVersion().toString());
         }
+        return bundle.getBundleContext().registerService(DataSourceFactory.class, dsf, props);
+    }
+
+    /**
+     * Instantiate the drivers of a bundle. The driver class names are taken from the index if the
+     * bundle did not change since it was last scanned, otherwise the service descriptors of the
+     * bundle are read and the result is recorded. Bundles without drivers are recorded as well so
+     * they are not scanned again. If an indexed driver can not be instantiated the bundle is
+     * scanned again.
+     */
+    private List<Driver> findDrivers(Bundle bundle) throws Exception {
+        ClassLoader cl = bundle.adapt(BundleWiring.class).getClassLoader();
+        List<String> names = driverIndex.get(bundle);
+        if (names != null) {
+            try {
+                List<Driver> drivers = new ArrayList<>(names.size());
+                for (String name : names) {
+                    drivers.add((Driver) cl.loadClass(name).getDeclaredConstructor().newInstance());
+                }
+                return drivers;
+            } catch (ReflectiveOperationException e) {
+                log.warn("Can not instantiate the indexed drivers of bundle {}, scanning it again: {}",
+                    bundle.getSymbolicName(), e.toString());
+            }
+        }
+        SafeServiceLoader serviceLoader = new SafeServiceLoader(cl);
+        List<Driver> drivers = serviceLoader.load(Driver.class.getName());
+        names = new ArrayList<>(drivers.size());
+        for (Driver driver : drivers) {
+            names.add(driver.getClass().getName());
+        }
+        driverIndex.put(bundle, names);
+        return drivers;
+    }
+
+    /**
+     * @return DataSourceFactory services the bundle registered itself, by driver class name
+     */
+    private Map<String, ServiceReference<?>> getRegisteredDataSourceFactories(Bundle bundle) {
+        Map<String, ServiceReference<?>> factories = new HashMap<>();
+        ServiceReference<?>[] registered = bundle.getRegisteredServices();
+        if (registered != null) {
+            for (ServiceReference<?> ref : registered) {
+                Object driverClass = ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS);
+                if (driverClass instanceof String && isDataSourceFactory(ref)) {
+                    factories.put((String) driverClass, ref);
+                }
+            }
+        }
+        return factories;
     }
 
     @Override
-    public void modifiedBundle(Bundle bundle, BundleEvent event, List<ServiceRegistration<DataSourceFactory>> object) {
+    public void modifiedBundle(Bundle bundle, BundleEvent event, DriverRegistrations object) {
     }
 
     @Override
-    public void removedBundle(Bundle bundle, BundleEvent event, List<ServiceRegistration<DataSourceFactory>> object) {
-        for (ServiceRegistration<DataSourceFactory> reg : object) {
-            reg.unregister();
-        }
+    public void removedBundle(Bundle bundle, BundleEvent event, DriverRegistrations object) {
+        object.close();
     }
 
-    private boolean isSameDataSourceFactory(Driver driver, ServiceReference<?> ref) {
+    private boolean isDataSourceFactory(ServiceReference<?> ref) {
         Object names = ref.getProperty(Constants.OBJECTCLASS);
-        return (names instanceof String && DataSourceFactory.class.getName().equals(names)
-                || names instanceof String[] && DataSourceFactory.class.getName().equals(((String[])names)[0]))
-                && driver.getClass().getName().equals(ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS));
+        return names instanceof String && DataSourceFactory.class.getName().equals(names)
+                || names instanceof String[] && DataSourceFactory.class.getName().equals(((String[])names)[0]);
     }
 
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rejects connection attempts for a cooldown period after a number of consecutive login
+ * timeouts. After the cooldown a single further timeout opens the circuit again, a successful
+ * connect closes it.
+ */
+class ConnectCircuitBreaker {
+
+    private static Logger log = LoggerFactory.getLogger(ConnectCircuitBreaker.class);
+
+    private final int threshold;
+    private final long cooldownMillis;
+    private final AtomicInteger consecutiveTimeouts;
+    private volatile long openUntil;
+    private volatile boolean tripped;
+
+    ConnectCircuitBreaker(int threshold, long cooldownMillis) {
+        this.threshold = threshold;
+        this.cooldownMillis = cooldownMillis;
+        this.consecutiveTimeouts = new AtomicInteger();
+    }
+
+    /**
+     * @throws SQLTransientConnectionException if the circuit is open
+     */
+    void check(String url) throws SQLTransientConnectionException {
+        long remaining = openUntil - System.currentTimeMillis();
+        if (remaining > 0) {
+            throw new SQLTransientConnectionException("Not connecting to " + url + " for another "
+                + remaining + " ms after repeated login timeouts");
+        }
+    }
+
+    void onSuccess() {
+        consecutiveTimeouts.set(0);
+        tripped = false;
+        openUntil = 0;
+    }
+
+    void onTimeout(String url) {
+        if (tripped || consecutiveTimeouts.incrementAndGet() >= threshold) {
+            tripped = true;
+            consecutiveTimeouts.set(0);
+            openUntil = System.currentTimeMillis() + cooldownMillis;
+            log.warn("Login timeouts connecting to {}, rejecting connects for {} ms", url,
+                cooldownMillis);
+        }
+    }
+}
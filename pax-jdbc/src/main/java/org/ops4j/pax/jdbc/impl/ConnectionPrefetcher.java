@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a number of connections opened ahead of time on a background executor, so that
+ * {@link DriverDataSource#getConnection()} does not pay for the connection handshake.
+ * Spare connections older than the configured age are closed instead of handed out.
+ * <p>
+ * Spares are opened one at a time on the connect threads of the DataSource and not while its
+ * circuit breaker is open. A connect that takes longer than the login timeout is abandoned and
+ * counts as timeout.
+ */
+class ConnectionPrefetcher {
+
+    private static Logger log = LoggerFactory.getLogger(ConnectionPrefetcher.class);
+
+    private final DriverDataSource dataSource;
+    private final ScheduledExecutorService executor;
+    private final int size;
+    private final long maxAgeMillis;
+    private final BlockingQueue<Spare> spares;
+    private final AtomicInteger pending;
+    private final ScheduledFuture<?> sweeper;
+    private volatile boolean closed;
+
+    ConnectionPrefetcher(DriverDataSource dataSource, ScheduledExecutorService executor, int size,
+        long maxAgeMillis) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+        this.size = size;
+        this.maxAgeMillis = maxAgeMillis;
+        this.spares = new ArrayBlockingQueue<Spare>(size);
+        this.pending = new AtomicInteger();
+        this.sweeper = executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, maxAgeMillis, maxAgeMillis, TimeUnit.MILLISECONDS);
+        refill();
+    }
+
+    /**
+     * Take a spare connection if one is available and trigger opening a replacement.
+     *
+     * @return an open connection or null if no spare connection is ready
+     */
+    Connection poll() {
+        Spare spare;
+        while ((spare = spares.poll()) != null) {
+            if (!spare.isExpired()) {
+                refill();
+                return spare.connection;
+            }
+            closeQuietly(spare.connection);
+        }
+        refill();
+        return null;
+    }
+
+    void close() {
+        closed = true;
+        sweeper.cancel(false);
+        drain();
+    }
+
+    private void refill() {
+        if (closed || spares.size() + pending.get() >= size || !pending.compareAndSet(0, 1)) {
+            return;
+        }
+        Attempt attempt = new Attempt();
+        try {
+            attempt.start();
+        }
+        catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Opening of one spare connection, abandoned by a watchdog after the connect timeout.
+     */
+    private final class Attempt implements Runnable {
+
+        // whoever sets this first owns the outcome: the connect or the watchdog
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Future<?> task;
+        private volatile ScheduledFuture<?> watchdog;
+
+        void start() {
+            task = dataSource.submitConnect(this);
+            watchdog = executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (claimed.compareAndSet(false, true)) {
+                        task.cancel(true);
+                        pending.decrementAndGet();
+                        dataSource.onConnectTimeout();
+                        log.warn("Abandoned opening a spare connection after "
+                            + dataSource.getConnectTimeoutMillis() + " ms");
+                    }
+                }
+            }, dataSource.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            if (claimed.get()) {
+                // the watchdog gave up while this was queued
+                return;
+            }
+            try {
+                dataSource.checkCircuit();
+                connection = dataSource.connect();
+            }
+            catch (SQLException e) {
+                log.warn("Could not open spare connection: " + e.getMessage());
+            }
+            if (!claimed.compareAndSet(false, true)) {
+                // the watchdog gave up on this connect already
+                if (connection != null) {
+                    closeQuietly(connection);
+                }
+                return;
+            }
+            ScheduledFuture<?> current = watchdog;
+            if (current != null) {
+                current.cancel(false);
+            }
+            pending.decrementAndGet();
+            if (connection == null) {
+                // retried on the next poll or sweep
+                return;
+            }
+            dataSource.onConnectSuccess();
+            if (closed || !spares.offer(new Spare(connection))) {
+                closeQuietly(connection);
+            }
+            else if (closed) {
+                drain();
+            }
+            else {
+                refill();
+            }
+        }
+    }
+
+    private void sweep() {
+        for (Spare spare : spares) {
+            if (spare.isExpired() && spares.remove(spare)) {
+                closeQuietly(spare.connection);
+            }
+        }
+        refill();
+    }
+
+    private void drain() {
+        Spare spare;
+        while ((spare = spares.poll()) != null) {
+            closeQuietly(spare.connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            log.debug("Error closing spare connection: " + e.getMessage());
+        }
+    }
+
+    private final class Spare {
+
+        private final Connection connection;
+        private final long openedAt;
+
+        Spare(Connection connection) {
+            this.connection = connection;
+            this.openedAt = System.currentTimeMillis();
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - openedAt > maxAgeMillis;
+        }
+    }
+}
@@ -22,7 +22,19 @@ import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.sql.DataSource;
 
@@ -30,7 +42,7 @@ import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DriverDataSource implements DataSource {
+public class DriverDataSource implements DataSource, AutoCloseable {
 
     private static Logger log = LoggerFactory.getLogger(DriverDataSource.class);
 
@@ -38,12 +50,107 @@ public class DriverDataSource implements DataSource {
     private String url;
     private String user;
     private String password;
+    private ScheduledExecutorService executor;
+    private volatile ThreadPoolExecutor connectExecutor;
+    private ConnectCircuitBreaker circuitBreaker;
+    private volatile int loginTimeout;
+    private volatile ConnectionPrefetcher prefetcher;
 
     public DriverDataSource(Driver driver, String url, String user, String password) {
+        this(driver, url, user, password, null);
+    }
+
+    /**
+     * @param executor scheduler for connect timeouts. Connects run on threads of this DataSource,
+     *            see {@link #setConnectThreads(int)}. Without an executor login timeouts and
+     *            prefetching are not supported.
+     */
+    public DriverDataSource(Driver driver, String url, String user, String password,
+        ScheduledExecutorService executor) {
         this.driver = driver;
         this.url = url;
         this.user = user;
         this.password = password;
+        this.executor = executor;
+        if (executor != null) {
+            this.connectExecutor = createConnectExecutor(DriverDataSourceFactory.DEFAULT_CONNECT_THREADS);
+        }
+        this.circuitBreaker = new ConnectCircuitBreaker(
+            DriverDataSourceFactory.DEFAULT_CONNECT_FAILURE_THRESHOLD,
+            DriverDataSourceFactory.DEFAULT_CONNECT_COOLDOWN);
+    }
+
+    /**
+     * Keep connections for the configured user opened ahead of time.
+     *
+     * @param count number of spare connections to keep
+     * @param maxAgeMillis age after which an unused spare connection is closed
+     */
+    public void startPrefetch(int count, long maxAgeMillis) {
+        if (executor == null) {
+            throw new IllegalStateException("Prefetching requires an executor");
+        }
+        stopPrefetch();
+        prefetcher = new ConnectionPrefetcher(this, executor, count, maxAgeMillis);
+    }
+
+    /**
+     * Limit the number of connects running in the background for this DataSource. Callers
+     * beyond the threads and an equally long queue fail right away instead of waiting for a
+     * database that does not answer.
+     *
+     * @param threads maximum number of concurrent connects
+     */
+    public void setConnectThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Connect threads must be positive but are " + threads);
+        }
+        if (executor == null) {
+            throw new IllegalStateException("Connect threads require an executor");
+        }
+        ThreadPoolExecutor previous = connectExecutor;
+        connectExecutor = createConnectExecutor(threads);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    private static ThreadPoolExecutor createConnectExecutor(int threads) {
+        ThreadPoolExecutor connectExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads), new NamedThreadFactory("pax-jdbc-connect-"));
+        connectExecutor.allowCoreThreadTimeOut(true);
+        return connectExecutor;
+    }
+
+    /**
+     * Configure the circuit breaker that rejects connects after repeated login timeouts.
+     *
+     * @param threshold number of consecutive timeouts that open the circuit
+     * @param cooldownMillis time during which connects are rejected
+     */
+    public void setCircuitBreaker(int threshold, long cooldownMillis) {
+        this.circuitBreaker = new ConnectCircuitBreaker(threshold, cooldownMillis);
+    }
+
+    /**
+     * Close spare connections and stop the connect threads. Connections already handed out are
+     * not affected.
+     */
+    @Override
+    public void close() {
+        stopPrefetch();
+        ThreadPoolExecutor current = connectExecutor;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    private void stopPrefetch() {
+        ConnectionPrefetcher current = prefetcher;
+        prefetcher = null;
+        if (current != null) {
+            current.close();
+        }
     }
 
     @Override
@@ -58,12 +165,16 @@ public class DriverDataSource implements DataSource {
 
     @Override
     public void setLoginTimeout(int seconds) throws SQLException {
-        log.warn("setLoginTimeout() has no effect");
+        if (seconds > 0 && executor == null) {
+            log.warn("setLoginTimeout() has no effect");
+            return;
+        }
+        loginTimeout = seconds;
     }
 
     @Override
     public int getLoginTimeout() throws SQLException {
-        return 0;
+        return loginTimeout;
     }
 
     @Override
@@ -82,11 +193,65 @@ public class DriverDataSource implements DataSource {
 
     @Override
     public Connection getConnection() throws SQLException {
+        ConnectionPrefetcher current = prefetcher;
+        if (current != null) {
+            Connection connection = current.poll();
+            if (connection != null) {
+                return connection;
+            }
+        }
         return getConnection(user, password);
     }
 
+    /**
+     * Connect with the configured user on the calling thread. Used for prefetching, which
+     * already runs on the executor.
+     */
+    Connection connect() throws SQLException {
+        return driver.connect(url, createProperties(user, password));
+    }
+
+    /**
+     * Run a connect on the threads of this DataSource.
+     *
+     * @throws RejectedExecutionException if all connect threads are busy
+     */
+    Future<?> submitConnect(Runnable task) {
+        return connectExecutor.submit(task);
+    }
+
+    void checkCircuit() throws SQLException {
+        circuitBreaker.check(url);
+    }
+
+    void onConnectSuccess() {
+        circuitBreaker.onSuccess();
+    }
+
+    void onConnectTimeout() {
+        circuitBreaker.onTimeout(url);
+    }
+
+    /**
+     * @return time after which a background connect for prefetching is abandoned, the login
+     *         timeout if one is set
+     */
+    long getConnectTimeoutMillis() {
+        int timeout = loginTimeout;
+        return timeout > 0 ? TimeUnit.SECONDS.toMillis(timeout) : DriverDataSourceFactory.DEFAULT_PREFETCH_CONNECT_TIMEOUT;
+    }
+
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
+        Properties props = createProperties(username, password);
+        int timeout = loginTimeout;
+        if (timeout <= 0 || executor == null) {
+            return driver.connect(url, props);
+        }
+        return connectWithTimeout(props, timeout);
+    }
+
+    private Properties createProperties(String username, String password) {
         Properties props = new Properties();
         if (username != null) {
             props.setProperty(DataSourceFactory.JDBC_USER, username);
@@ -94,7 +259,99 @@ public class DriverDataSource implements DataSource {
         if (password != null) {
             props.setProperty(DataSourceFactory.JDBC_PASSWORD, password);
         }
-        return driver.connect(url, props);
+        return props;
+    }
+
+    /**
+     * Run {@link Driver#connect(String, Properties)} on the executor and give up after the login
+     * timeout. A connection that is established after the caller gave up is closed.
+     */
+    private Connection connectWithTimeout(final Properties props, int timeout)
+        throws SQLException {
+        circuitBreaker.check(url);
+        // whoever sets this first owns the outcome: the task delivers or the caller gives up
+        final AtomicBoolean claimed = new AtomicBoolean();
+        Future<Connection> future;
+        try {
+            future = connectExecutor.submit(new Callable<Connection>() {
+
+                @Override
+                public Connection call() throws Exception {
+                    if (claimed.get()) {
+                        // the caller gave up while this was queued
+                        return null;
+                    }
+                    Connection connection = driver.connect(url, props);
+                    if (connection != null && !claimed.compareAndSet(false, true)) {
+                        connection.close();
+                    }
+                    return connection;
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            throw new SQLTransientConnectionException("All "
+                + connectExecutor.getMaximumPoolSize() + " connect threads are busy connecting to " + url, e);
+        }
+        try {
+            Connection connection = future.get(timeout, TimeUnit.SECONDS);
+            circuitBreaker.onSuccess();
+            return connection;
+        }
+        catch (TimeoutException e) {
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(true);
+                circuitBreaker.onTimeout(url);
+                throw new SQLTimeoutException("Login timeout of " + timeout
+                    + " s expired connecting to " + url);
+            }
+            // connected just after the deadline
+            return getDone(future);
+        }
+        catch (InterruptedException e) {
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(true);
+            }
+            else {
+                closeQuietly(getDone(future));
+            }
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting to " + url, e);
+        }
+        catch (ExecutionException e) {
+            throw asSQLException(e.getCause());
+        }
+    }
+
+    private Connection getDone(Future<Connection> future) throws SQLException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting to " + url, e);
+        }
+        catch (ExecutionException e) {
+            throw asSQLException(e.getCause());
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            }
+            catch (SQLException e) {
+                log.debug("Error closing connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private static SQLException asSQLException(Throwable cause) {
+        if (cause instanceof SQLException) {
+            return (SQLException) cause;
+        }
+        return new SQLException(cause.getMessage(), cause);
     }
 
     /**
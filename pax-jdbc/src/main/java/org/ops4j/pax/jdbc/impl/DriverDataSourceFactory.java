@@ -20,26 +20,114 @@ package org.ops4j.pax.jdbc.impl;
 import java.sql.Driver;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
 import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DriverDataSourceFactory implements DataSourceFactory {
 
+    /**
+     * Number of connections to open ahead of time (<code>jdbc.prefetch</code> in pax-jdbc-config).
+     * Disabled by default.
+     */
+    public static final String PREFETCH = "prefetch";
+
+    /**
+     * Age in milliseconds after which an unused prefetched connection is closed.
+     */
+    public static final String PREFETCH_MAX_AGE = "prefetchMaxAge";
+
+    /**
+     * Login timeout in seconds. Connects are run on a background thread and fail with
+     * {@link java.sql.SQLTimeoutException} once it expires.
+     */
+    public static final String LOGIN_TIMEOUT = "loginTimeout";
+
+    /**
+     * Number of consecutive login timeouts after which connects are rejected for a cooldown.
+     */
+    public static final String CONNECT_FAILURE_THRESHOLD = "connectFailureThreshold";
+
+    /**
+     * Cooldown in milliseconds during which connects are rejected.
+     */
+    public static final String CONNECT_COOLDOWN = "connectCooldown";
+
+    /**
+     * Maximum number of connects running in the background for one DataSource, used with a
+     * login timeout or prefetching. Further connects fail right away once as many are queued.
+     */
+    public static final String CONNECT_THREADS = "connectThreads";
+
+    static final int DEFAULT_CONNECT_THREADS = 4;
+    static final long DEFAULT_PREFETCH_MAX_AGE = 30000L;
+    static final long DEFAULT_PREFETCH_CONNECT_TIMEOUT = 30000L;
+    static final int DEFAULT_CONNECT_FAILURE_THRESHOLD = 3;
+    static final long DEFAULT_CONNECT_COOLDOWN = 30000L;
+
+    private static Logger log = LoggerFactory.getLogger(DriverDataSourceFactory.class);
+
     private Driver driver;
+    private ScheduledExecutorService executor;
 
     public DriverDataSourceFactory(Driver driver) {
+        this(driver, null);
+    }
+
+    public DriverDataSourceFactory(Driver driver, ScheduledExecutorService executor) {
         this.driver = driver;
+        this.executor = executor;
     }
 
     public DataSource createDataSource(Properties props) throws SQLException {
         String url = props.getProperty(JDBC_URL);
         String user = props.getProperty(JDBC_USER);
         String password = props.getProperty(JDBC_PASSWORD);
-        return new DriverDataSource(driver, url, user, password);
+        DriverDataSource ds = new DriverDataSource(driver, url, user, password, executor);
+        ds.setCircuitBreaker(
+            getInt(props, CONNECT_FAILURE_THRESHOLD, DEFAULT_CONNECT_FAILURE_THRESHOLD),
+            getLong(props, CONNECT_COOLDOWN, DEFAULT_CONNECT_COOLDOWN));
+        ds.setLoginTimeout(getInt(props, LOGIN_TIMEOUT, 0));
+        int connectThreads = getInt(props, CONNECT_THREADS, DEFAULT_CONNECT_THREADS);
+        if (connectThreads <= 0) {
+            throw new SQLException("Invalid value for " + CONNECT_THREADS + ": " + connectThreads);
+        }
+        if (executor != null && connectThreads != DEFAULT_CONNECT_THREADS) {
+            ds.setConnectThreads(connectThreads);
+        }
+        int prefetch = getInt(props, PREFETCH, 0);
+        if (prefetch > 0) {
+            if (executor == null) {
+                log.warn("Ignoring " + PREFETCH + ", no executor available");
+            }
+            else {
+                ds.startPrefetch(prefetch, getLong(props, PREFETCH_MAX_AGE, DEFAULT_PREFETCH_MAX_AGE));
+            }
+        }
+        return ds;
+    }
+
+    static int getInt(Properties props, String key, int defaultValue) throws SQLException {
+        return (int) getLong(props, key, defaultValue);
+    }
+
+    static long getLong(Properties props, String key, long defaultValue) throws SQLException {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new SQLException("Invalid value for " + key + ": " + value, e);
+        }
     }
 
     public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props)
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which {@link java.sql.Driver} classes a bundle declares in
+ * <code>META-INF/services/java.sql.Driver</code>, keyed by bundle id and last modified time.
+ * The index is stored in the data area of this bundle so that unchanged bundles are not scanned
+ * again after a restart.
+ */
+class DriverIndex {
+
+    private static Logger log = LoggerFactory.getLogger(DriverIndex.class);
+
+    private static final char SEPARATOR = '|';
+
+    private final File file;
+    private final Map<Long, Entry> entries;
+    private volatile boolean dirty;
+
+    /**
+     * @param file file to persist the index in, may be null if the framework has no file system
+     *            support
+     */
+    DriverIndex(File file) {
+        this.file = file;
+        this.entries = new ConcurrentHashMap<Long, Entry>();
+    }
+
+    /**
+     * Get the cached driver class names of a bundle.
+     *
+     * @param bundle bundle to look up
+     * @return driver class names or null if the bundle is unknown or was modified
+     */
+    List<String> get(Bundle bundle) {
+        Entry entry = entries.get(bundle.getBundleId());
+        if (entry == null || entry.lastModified != bundle.getLastModified()) {
+            return null;
+        }
+        return entry.drivers;
+    }
+
+    void put(Bundle bundle, List<String> drivers) {
+        entries.put(bundle.getBundleId(), new Entry(bundle.getLastModified(), drivers));
+        dirty = true;
+    }
+
+    /**
+     * Drop entries of bundles that are no longer installed.
+     *
+     * @param bundles installed bundles
+     */
+    void retainAll(Bundle[] bundles) {
+        Map<Long, Entry> retained = new HashMap<Long, Entry>();
+        for (Bundle bundle : bundles) {
+            Entry entry = entries.get(bundle.getBundleId());
+            if (entry != null) {
+                retained.put(bundle.getBundleId(), entry);
+            }
+        }
+        if (retained.size() != entries.size()) {
+            entries.keySet().retainAll(retained.keySet());
+            dirty = true;
+        }
+    }
+
+    void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream is = new FileInputStream(file)) {
+            props.load(is);
+        }
+        catch (IOException e) {
+            log.warn("Could not read driver index " + file + ": " + e.getMessage());
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            try {
+                String value = props.getProperty(key);
+                int pos = value.indexOf(SEPARATOR);
+                long lastModified = Long.parseLong(value.substring(0, pos));
+                String names = value.substring(pos + 1);
+                List<String> drivers = names.isEmpty() ? Collections.<String> emptyList()
+                    : Arrays.asList(names.split(","));
+                entries.put(Long.valueOf(key), new Entry(lastModified, drivers));
+            }
+            catch (RuntimeException e) {
+                log.debug("Ignoring invalid driver index entry " + key);
+            }
+        }
+    }
+
+    void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+        Properties props = new Properties();
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            StringBuilder value = new StringBuilder();
+            value.append(entry.getValue().lastModified).append(SEPARATOR);
+            List<String> drivers = entry.getValue().drivers;
+            for (int i = 0; i < drivers.size(); i++) {
+                if (i > 0) {
+                    value.append(',');
+                }
+                value.append(drivers.get(i));
+            }
+            props.setProperty(entry.getKey().toString(), value.toString());
+        }
+        try (OutputStream os = new FileOutputStream(file)) {
+            props.store(os, "java.sql.Driver services by bundle id");
+            dirty = false;
+        }
+        catch (IOException e) {
+            log.warn("Could not write driver index " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static final class Entry {
+
+        private final long lastModified;
+        private final List<String> drivers;
+
+        Entry(long lastModified, List<String> drivers) {
+            this.lastModified = lastModified;
+            this.drivers = Collections.unmodifiableList(new ArrayList<String>(drivers));
+        }
+    }
+}
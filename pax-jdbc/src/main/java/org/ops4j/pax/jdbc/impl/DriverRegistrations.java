@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Harald Wellmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * DataSourceFactory services registered for one driver bundle. Registrations may be added from a
+ * worker thread while the bundle is still being scanned. Once {@link #close()} was called no
+ * further services are registered, so that a bundle stopped or uninstalled mid-scan does not
+ * leave services behind.
+ */
+class DriverRegistrations {
+
+    private final List<ServiceRegistration<DataSourceFactory>> registrations;
+    private Future<?> scan;
+    private boolean closed;
+
+    DriverRegistrations() {
+        this.registrations = new ArrayList<>();
+    }
+
+    synchronized void setScan(Future<?> scan) {
+        this.scan = scan;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    /**
+     * Register a service unless the bundle is already gone. The service is registered outside
+     * the lock, as the framework calls service listeners synchronously. If {@link #close()} ran
+     * meanwhile the service is unregistered again.
+     *
+     * @return false if closed
+     */
+    boolean register(Registrar registrar) {
+        if (isClosed()) {
+            return false;
+        }
+        ServiceRegistration<DataSourceFactory> reg = registrar.register();
+        synchronized (this) {
+            if (!closed) {
+                registrations.add(reg);
+                return true;
+            }
+        }
+        unregister(reg);
+        return false;
+    }
+
+    /**
+     * Stop a pending scan and unregister all services registered so far.
+     */
+    void close() {
+        List<ServiceRegistration<DataSourceFactory>> registered;
+        synchronized (this) {
+            closed = true;
+            if (scan != null) {
+                scan.cancel(false);
+            }
+            registered = new ArrayList<>(registrations);
+            registrations.clear();
+        }
+        for (ServiceRegistration<DataSourceFactory> reg : registered) {
+            unregister(reg);
+        }
+    }
+
+    private static void unregister(ServiceRegistration<DataSourceFactory> reg) {
+        try {
+            reg.unregister();
+        }
+        catch (IllegalStateException e) {
+            // already unregistered by the framework
+        }
+    }
+
+    interface Registrar {
+
+        ServiceRegistration<DataSourceFactory> register();
+    }
+}